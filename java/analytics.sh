@@ -0,0 +1,5 @@
+#! /bin/bash
+SNAPSHOT=$1
+
+# Example: source ./analytics.sh snap top-cars --k 50 --threads 8
+java $JAVA_OPTS -cp lib/*:bin/ SnapshotEngine $SNAPSHOT "${@:2}"
@@ -0,0 +1,7 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./bench.sh flightDB 5432 user --threads 4 --out bench.json
+java -cp lib/*:bin/ MechanicShopBenchmark $DBNAME $PORT $USER "${@:4}"
@@ -0,0 +1,5 @@
+#! /bin/bash
+OUTDIR=$1
+
+# Example: source ./gen.sh ../data/scale100 --scale 100 --seed 166
+java -cp lib/*:bin/ DataGenerator $OUTDIR "${@:2}"
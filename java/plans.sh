@@ -0,0 +1,7 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./plans.sh flightDB 5432 user --out plans/today --baseline plans/last/plans.tsv
+java -cp lib/*:bin/ PlanHarness $DBNAME $PORT $USER "${@:4}"
@@ -4,4 +4,5 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# Example: source ./run.sh flightDB 5432 user report top-cars --k 50
+java $JAVA_OPTS -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER "${@:4}"
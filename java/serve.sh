@@ -0,0 +1,7 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./serve.sh flightDB 5432 user --listen 8080 --pool 16
+java $JAVA_OPTS -cp lib/*:bin/ ShopHttpServer $DBNAME $PORT $USER "${@:4}"
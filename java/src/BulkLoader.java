@@ -0,0 +1,846 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the six data/*.csv files from the client with the
+ * driver's CopyManager, so the files do not have to be on the database host.
+ * Tables are loaded in foreign-key order (Customer/Mechanic/Car, then
+ * Owns/Service_Request, then Closed_Request); the tables of one phase, and
+ * large files split into byte ranges, are copied in parallel on separate
+ * connections.  Every row is validated on the client (field count, types,
+ * domains, lengths, duplicate keys, foreign keys and closings dated before
+ * their request) and bad rows are written to a reject file instead of
+ * failing the whole COPY.  Secondary indexes are dropped before the load
+ * and rebuilt afterwards, and Customer_Summary is rebuilt in one pass rather
+ * than by its per-row triggers.  Request rows dated outside the existing
+ * partitions are moved into new ones after the copy.
+ *
+ */
+
+public class BulkLoader{
+	//files larger than this are split into ranges loaded on separate connections
+	public static final long CHUNK_BYTES = 64L * 1024 * 1024;
+	public static final int COPY_BUFFER_SIZE = 1 << 16;
+
+	/* column types used for validation */
+	static final char INT = 'i';		//any integer
+	static final char PINT = 'p';		//_PINTEGER: > 0
+	static final char YEARS = 'e';		//_YEARS: 0..99
+	static final char YEAR = 'y';		//_YEAR: >= 1970
+	static final char TEXT = 't';		//CHAR/VARCHAR(n); n = 0 means unbounded
+	static final char DATE = 'd';		//M/D/YYYY [HH:MM] or YYYY-MM-DD
+
+	/**
+	 * One column of a loaded table: its type, length limit and key role.
+	 */
+	static class Column{
+		final String name;
+		final char type;
+		final int maxLength;
+		//key set this column must be unique in / must reference, or null
+		final KeySet primary;
+		final KeySet references;
+
+		Column(String name, char type, int maxLength, KeySet primary, KeySet references){
+			this.name = name;
+			this.type = type;
+			this.maxLength = maxLength;
+			this.primary = primary;
+			this.references = references;
+		}
+	}
+
+	/**
+	 * One target table: its CSV file, its columns and which column (if any)
+	 * is free text that may itself contain commas.
+	 */
+	static class Table{
+		final String name;
+		final String file;
+		final Column[] columns;
+		final int freeText;
+
+		Table(String name, String file, int freeText, Column... columns){
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+			this.freeText = freeText;
+		}
+
+		String copySql(){
+			StringBuilder sb = new StringBuilder("COPY ").append(this.name).append(" (");
+			for (int i = 0; i < this.columns.length; ++i){
+				if (i > 0) sb.append(", ");
+				sb.append(this.columns[i].name);
+			}//end for
+			return sb.append(") FROM STDIN WITH (FORMAT csv)").toString();
+		}
+
+		/** @return the position of the named column, or -1 */
+		int column(String name){
+			for (int i = 0; i < this.columns.length; ++i)
+				if (this.columns[i].name.equals(name)) return i;
+			return -1;
+		}
+	}
+
+	/**
+	 * A thread-safe set of loaded key values.  Integer keys go into a bitset
+	 * updated with compare-and-set under a shared lock (the exclusive lock is
+	 * only taken to grow it); string keys go into a concurrent hash set.
+	 */
+	static class KeySet{
+		private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+		private AtomicLongArray _bits = new AtomicLongArray(1 << 10);
+		private final Set<String> _strings = ConcurrentHashMap.newKeySet();
+
+		/** @return false if the key was already present */
+		boolean add(String key, boolean numeric){
+			if (!numeric) return this._strings.add(key);
+			int id = Integer.parseInt(key);
+			if (id < 0) return this._strings.add("#" + id);
+			int word = id >>> 6;
+			long mask = 1L << (id & 63);
+			grow(word);
+			this._lock.readLock().lock();
+			try{
+				while (true){
+					long old = this._bits.get(word);
+					if ((old & mask) != 0) return false;
+					if (this._bits.compareAndSet(word, old, old | mask)) return true;
+				}//end while
+			}finally{
+				this._lock.readLock().unlock();
+			}
+		}
+
+		boolean contains(String key, boolean numeric){
+			if (!numeric) return this._strings.contains(key);
+			int id = Integer.parseInt(key);
+			if (id < 0) return this._strings.contains("#" + id);
+			int word = id >>> 6;
+			this._lock.readLock().lock();
+			try{
+				return word < this._bits.length() && (this._bits.get(word) & (1L << (id & 63))) != 0;
+			}finally{
+				this._lock.readLock().unlock();
+			}
+		}
+
+		private void grow(int word){
+			this._lock.readLock().lock();
+			try{
+				if (word < this._bits.length()) return;
+			}finally{
+				this._lock.readLock().unlock();
+			}
+			this._lock.writeLock().lock();
+			try{
+				AtomicLongArray bits = this._bits;
+				if (word < bits.length()) return;
+				int size = bits.length();
+				while (size <= word) size <<= 1;
+				AtomicLongArray bigger = new AtomicLongArray(size);
+				for (int i = 0; i < bits.length(); ++i) bigger.set(i, bits.get(i));
+				this._bits = bigger;
+			}finally{
+				this._lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * The date of each loaded request, as a day number, kept in an array
+	 * indexed by rid that grows like KeySet's bitset; negative and very large
+	 * rids go into a concurrent map.
+	 */
+	static class DayMap{
+		public static final int NONE = Integer.MIN_VALUE;
+		//stored days are shifted so 0 means no entry; isoDate() only takes years 1-9999
+		private static final int SHIFT = 1 << 20;
+		//rids from here on go into the map, which bounds the array at 256MB
+		private static final int ARRAY_LIMIT = 1 << 26;
+		private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+		private AtomicIntegerArray _days = new AtomicIntegerArray(1 << 10);
+		private final ConcurrentHashMap<Integer, Integer> _others = new ConcurrentHashMap<Integer, Integer>();
+
+		void put(int id, int day){
+			if (id < 0 || id >= ARRAY_LIMIT){
+				this._others.put(id, day);
+				return;
+			}//end if
+			grow(id);
+			this._lock.readLock().lock();
+			try{
+				this._days.set(id, day + SHIFT);
+			}finally{
+				this._lock.readLock().unlock();
+			}
+		}
+
+		/** @return the day recorded for id, or NONE */
+		int get(int id){
+			if (id < 0 || id >= ARRAY_LIMIT) return this._others.getOrDefault(id, NONE);
+			this._lock.readLock().lock();
+			try{
+				int day = id < this._days.length() ? this._days.get(id) : 0;
+				return day == 0 ? NONE : day - SHIFT;
+			}finally{
+				this._lock.readLock().unlock();
+			}
+		}
+
+		private void grow(int id){
+			this._lock.readLock().lock();
+			try{
+				if (id < this._days.length()) return;
+			}finally{
+				this._lock.readLock().unlock();
+			}
+			this._lock.writeLock().lock();
+			try{
+				AtomicIntegerArray days = this._days;
+				if (id < days.length()) return;
+				int size = days.length();
+				while (size <= id) size <<= 1;
+				AtomicIntegerArray bigger = new AtomicIntegerArray(size);
+				for (int i = 0; i < days.length(); ++i) bigger.set(i, days.get(i));
+				this._days = bigger;
+			}finally{
+				this._lock.writeLock().unlock();
+			}
+		}
+	}
+
+	final KeySet customers = new KeySet(), mechanics = new KeySet(), cars = new KeySet();
+	final KeySet ownerships = new KeySet(), requests = new KeySet(), closures = new KeySet();
+	//closed_request_rid is disabled with the other triggers, so a closing is checked against its request's date here
+	final DayMap requestDays = new DayMap();
+
+	final Table[][] phases = new Table[][]{
+		{
+			new Table("Customer", "customer.csv", -1,
+				new Column("id", INT, 0, customers, null),
+				new Column("fname", TEXT, 32, null, null),
+				new Column("lname", TEXT, 32, null, null),
+				new Column("phone", TEXT, 13, null, null),
+				new Column("address", TEXT, 256, null, null)),
+			new Table("Mechanic", "mechanic.csv", -1,
+				new Column("id", INT, 0, mechanics, null),
+				new Column("fname", TEXT, 32, null, null),
+				new Column("lname", TEXT, 32, null, null),
+				new Column("experience", YEARS, 0, null, null)),
+			new Table("Car", "car.csv", -1,
+				new Column("vin", TEXT, 16, cars, null),
+				new Column("make", TEXT, 32, null, null),
+				new Column("model", TEXT, 32, null, null),
+				new Column("year", YEAR, 0, null, null)),
+		},
+		{
+			new Table("Owns", "owns.csv", -1,
+				new Column("ownership_id", INT, 0, ownerships, null),
+				new Column("customer_id", INT, 0, null, customers),
+				new Column("car_vin", TEXT, 16, null, cars)),
+			new Table("Service_Request", "service_request.csv", 5,
+				new Column("rid", INT, 0, requests, null),
+				new Column("customer_id", INT, 0, null, customers),
+				new Column("car_vin", TEXT, 16, null, cars),
+				new Column("date", DATE, 0, null, null),
+				new Column("odometer", PINT, 0, null, null),
+				new Column("complain", TEXT, 0, null, null)),
+		},
+		{
+			new Table("Closed_Request", "closed_request.csv", 4,
+				new Column("wid", INT, 0, closures, null),
+				new Column("rid", INT, 0, null, requests),
+				new Column("mid", INT, 0, null, mechanics),
+				new Column("date", DATE, 0, null, null),
+				new Column("comment", TEXT, 0, null, null),
+				new Column("bill", PINT, 0, null, null)),
+		},
+	};
+
+	private final ConnectionPool _pool;
+	private final File _dataDir;
+	private final Writer _rejects;
+	private final ExecutorService _workers;
+	private final AtomicLong _loaded = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+
+	public BulkLoader(ConnectionPool pool, File dataDir, Writer rejects, int threads){
+		this._pool = pool;
+		this._dataDir = dataDir;
+		this._rejects = rejects;
+		this._workers = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Method to run the whole load: disable the summary triggers, drop
+	 * secondary indexes, copy every phase in order, rebuild the indexes and
+	 * Customer_Summary, reseed the id sequences and analyze.  The rebuilds,
+	 * the reseed and the triggers are restored even when a phase fails, so a
+	 * failed load leaves the rows it committed with their indexes.
+	 *
+	 * @param truncate whether to empty the six tables first
+	 * @throws java.lang.Exception when a phase could not be completed
+	 */
+	public void load(boolean truncate) throws Exception {
+		List<String> indexes = new ArrayList<String>();
+		Exception failure = null;
+		try{
+			if (truncate) update("TRUNCATE Customer, Mechanic, Car, Owns, Service_Request, Closed_Request, Customer_Summary");
+			//the summary triggers would update Customer_Summary once per row; it is rebuilt in one pass instead
+			for (Table[] phase : this.phases)
+				for (Table t : phase)
+					for (String table : withPartitions(t.name))
+						update("ALTER TABLE " + table + " DISABLE TRIGGER USER");
+
+			for (Table[] phase : this.phases)
+				for (Table t : phase)
+					dropSecondaryIndexes(t.name, indexes);
+
+			for (Table[] phase : this.phases){
+				List<Future<?>> pending = new ArrayList<Future<?>>();
+				for (Table t : phase)
+					for (long[] range : split(new File(this._dataDir, t.file)))
+						pending.add(this._workers.submit(() -> { copyRange(t, range[0], range[1]); return null; }));
+				//wait for every range, so none is still copying when the indexes are rebuilt
+				for (Future<?> f : pending){
+					try{
+						f.get();
+					}catch (ExecutionException e){
+						failure = add(failure, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+					}//end try
+				}//end for
+				if (failure != null) throw failure;
+			}//end for
+			//rows dated outside the existing partitions went to the default partitions; give them their own
+			update("SELECT ensure_request_partitions(" + PartitionManager.ahead() + ")");
+		}catch (Exception e){
+			if (e != failure) failure = add(failure, e);
+		}//end try
+		failure = restore(indexes, failure);
+		this._workers.shutdown();
+		if (failure != null) throw failure;
+		update("ANALYZE");
+	}
+
+	/**
+	 * Method to put back what load() dropped or disabled: rebuild the
+	 * indexes, rebuild Customer_Summary, reseed the id sequences and enable
+	 * the triggers.  Every step is tried; an index that cannot be rebuilt is
+	 * printed so it can be created by hand.
+	 *
+	 * @param failure the exception the load failed with, or null
+	 * @return failure with the errors of this method added, or the first of them
+	 */
+	private Exception restore(List<String> indexes, Exception failure){
+		List<Future<?>> pending = new ArrayList<Future<?>>();
+		for (String def : indexes)
+			pending.add(this._workers.submit(() -> { update(def); return null; }));
+		for (int i = 0; i < pending.size(); ++i){
+			try{
+				pending.get(i).get();
+			}catch (Exception e){
+				Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+				System.err.println("Could not rebuild the index, create it with: " + indexes.get(i) + ";");
+				failure = add(failure, new Exception("Rebuilding an index failed: " + cause.getMessage(), cause));
+			}//end try
+		}//end for
+		String[] steps = {
+			"SELECT rebuild_customer_summary()",
+			"SELECT setval('customer_id_seq', COALESCE((SELECT MAX(id) FROM Customer) + 1, 0), false)",
+			"SELECT setval('mechanic_id_seq', COALESCE((SELECT MAX(id) FROM Mechanic) + 1, 0), false)",
+			"SELECT setval('owns_ownership_id_seq', COALESCE((SELECT MAX(ownership_id) FROM Owns) + 1, 0), false)",
+			"SELECT setval('service_request_rid_seq', COALESCE((SELECT MAX(rid) FROM Service_Request) + 1, 0), false)",
+			"SELECT setval('closed_request_wid_seq', COALESCE((SELECT MAX(wid) FROM Closed_Request) + 1, 0), false)",
+		};
+		for (String step : steps){
+			try{
+				update(step);
+			}catch (SQLException e){
+				failure = add(failure, e);
+			}//end try
+		}//end for
+		try{
+			enableTriggers();
+		}catch (SQLException e){
+			failure = add(failure, e);
+		}//end try
+		return failure;
+	}
+
+	private static Exception add(Exception failure, Exception e){
+		if (failure == null) return e;
+		failure.addSuppressed(e);
+		return failure;
+	}
+
+	/**
+	 * Enables the triggers of every table, going on past a table that fails.
+	 */
+	private void enableTriggers() throws SQLException {
+		SQLException failure = null;
+		for (Table[] phase : this.phases)
+			for (Table t : phase){
+				try{
+					for (String table : withPartitions(t.name))
+						update("ALTER TABLE " + table + " ENABLE TRIGGER USER");
+				}catch (SQLException e){
+					if (failure == null) failure = e;
+					else failure.addSuppressed(e);
+				}//end try
+			}//end for
+		if (failure != null) throw failure;
+	}
+
+	/**
+	 * Lists a table and, when it is partitioned, its partitions: before
+	 * PostgreSQL 15 enabling or disabling the triggers of a partitioned
+	 * table does not reach its partitions.
+	 */
+	private List<String> withPartitions(String table) throws SQLException {
+		List<String> tables = new ArrayList<String>();
+		tables.add(table);
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			PreparedStatement stmt = pc.statements.prepare("SELECT inhrelid::regclass::text FROM pg_inherits WHERE inhparent = CAST(? AS regclass)");
+			stmt.setString(1, table.toLowerCase());
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) tables.add(rs.getString(1));
+			rs.close();
+		}finally{
+			this._pool.release(pc);
+		}
+		return tables;
+	}
+
+	public long getLoaded(){ return this._loaded.get(); }
+	public long getRejected(){ return this._rejected.get(); }
+
+	private void update(String sql) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			Statement stmt = pc.connection.createStatement();
+			stmt.execute(sql);
+			stmt.close();
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	/**
+	 * Drops the indexes of a table that do not back a constraint, adding the
+	 * definition of each to dropped as it goes so it can be rebuilt after
+	 * the load.
+	 */
+	private void dropSecondaryIndexes(String table, List<String> dropped) throws SQLException {
+		List<String> defs = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			PreparedStatement stmt = pc.statements.prepare(
+				"SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid) FROM pg_index i " +
+				"WHERE i.indrelid = CAST(? AS regclass) AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)");
+			stmt.setString(1, table.toLowerCase());
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()){
+				names.add(rs.getString(1));
+				//an index of a partitioned table is defined ON ONLY it; rebuilt that way it would skip the partitions
+				defs.add(rs.getString(2).replace(" ON ONLY ", " ON "));
+			}//end while
+			rs.close();
+		}finally{
+			this._pool.release(pc);
+		}
+		for (int i = 0; i < names.size(); ++i){
+			update("DROP INDEX " + names.get(i));
+			dropped.add(defs.get(i));
+		}//end for
+	}
+
+	/**
+	 * Splits a file into byte ranges of about CHUNK_BYTES that start and end
+	 * on line boundaries.
+	 */
+	static List<long[]> split(File file) throws IOException {
+		List<long[]> ranges = new ArrayList<long[]>();
+		long size = file.length();
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			ByteBuffer one = ByteBuffer.allocate(1);
+			long start = 0;
+			while (start < size){
+				long end = Math.min(size, start + CHUNK_BYTES);
+				//advance to just past the next newline
+				while (end < size){
+					one.clear();
+					ch.read(one, end++);
+					if (one.get(0) == '\n') break;
+				}//end while
+				ranges.add(new long[]{ start, end });
+				start = end;
+			}//end while
+		}
+		return ranges;
+	}
+
+	/**
+	 * Validates and copies the rows of one byte range of a table's file on
+	 * its own connection.
+	 */
+	private void copyRange(Table t, long start, long end) throws Exception {
+		File file = new File(this._dataDir, t.file);
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			Statement s = pc.connection.createStatement();
+			s.execute("SET synchronous_commit = off");
+			s.close();
+
+			CopyManager copy = pc.connection.unwrap(PGConnection.class).getCopyAPI();
+			CopyIn in = copy.copyIn(t.copySql());
+			try{
+				LineReader reader = new LineReader(new RangeInputStream(ch, start, end), start, COPY_BUFFER_SIZE);
+				StringBuilder row = new StringBuilder(256);
+				byte[] buf = new byte[COPY_BUFFER_SIZE];
+				int used = 0;
+				String line;
+				String[] fields = new String[t.columns.length];
+				while ((line = reader.readLine()) != null){
+					if (line.isEmpty()) continue;
+					row.setLength(0);
+					String reason = convert(t, line, fields, row);
+					if (reason != null){
+						reject(t, reader.getOffset(), reason, line);
+						continue;
+					}//end if
+					byte[] bytes = row.toString().getBytes(StandardCharsets.UTF_8);
+					if (used + bytes.length > buf.length){
+						in.writeToCopy(buf, 0, used);
+						used = 0;
+					}//end if
+					if (bytes.length > buf.length) in.writeToCopy(bytes, 0, bytes.length);
+					else{
+						System.arraycopy(bytes, 0, buf, used, bytes.length);
+						used += bytes.length;
+					}//end if
+				}//end while
+				if (used > 0) in.writeToCopy(buf, 0, used);
+				this._loaded.addAndGet(in.endCopy());
+			}catch (Exception e){
+				if (in.isActive()) in.cancelCopy();
+				throw e;
+			}//end try
+		}catch (Exception e){
+			pc.markBroken();
+			throw new Exception("Loading " + t.file + " bytes " + start + "-" + end + " failed: " + e.getMessage(), e);
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	/**
+	 * Parses one CSV line into a COPY csv row.
+	 *
+	 * @return null on success, otherwise the reason the row was rejected
+	 */
+	String convert(Table t, String line, String[] fields, StringBuilder row){
+		if (!splitLine(t, line, fields)) return "expected " + t.columns.length + " fields";
+
+		//check every value before registering any key, so a rejected row leaves no trace
+		for (int i = 0; i < fields.length; ++i){
+			Column c = t.columns[i];
+			String v = fields[i];
+			switch (c.type){
+				case TEXT:
+					if (c.maxLength > 0 && v.length() > c.maxLength) return c.name + " longer than " + c.maxLength;
+					break;
+				case DATE:
+					v = isoDate(v);
+					if (v == null) return c.name + " is not a valid date";
+					fields[i] = v;
+					break;
+				default:
+					int n;
+					try{ n = Integer.parseInt(v.trim()); }
+					catch (NumberFormatException e){ return c.name + " is not an integer"; }
+					fields[i] = v = Integer.toString(n);
+					if (c.type == PINT && n <= 0) return c.name + " must be positive";
+					if (c.type == YEARS && (n < 0 || n >= 100)) return c.name + " must be 0-99";
+					if (c.type == YEAR && n < 1970) return c.name + " must be 1970 or later";
+			}//end switch
+			if (c.references != null && !c.references.contains(v, c.type != TEXT)) return c.name + " references a missing row";
+		}//end for
+		//requests are loaded a phase before the closings
+		if (t.name.equals("Closed_Request")){
+			int opened = this.requestDays.get(Integer.parseInt(fields[t.column("rid")]));
+			if (opened != DayMap.NONE && LocalDate.parse(fields[t.column("date")]).toEpochDay() < opened)
+				return "date is before the request's date";
+		}//end if
+		for (int i = 0; i < fields.length; ++i){
+			Column c = t.columns[i];
+			if (c.primary != null && !c.primary.add(fields[i], c.type != TEXT)) return "duplicate " + c.name;
+		}//end for
+		if (t.name.equals("Service_Request")) this.requestDays.put(Integer.parseInt(fields[t.column("rid")]), (int) LocalDate.parse(fields[t.column("date")]).toEpochDay());
+
+		for (int i = 0; i < fields.length; ++i){
+			if (i > 0) row.append(',');
+			if (t.columns[i].type == TEXT){
+				String v = fields[i];
+				row.append('"');
+				for (int j = 0; j < v.length(); ++j){
+					char ch = v.charAt(j);
+					if (ch == '"') row.append('"');
+					row.append(ch);
+				}//end for
+				row.append('"');
+			}else{
+				row.append(fields[i]);
+			}//end if
+		}//end for
+		row.append('\n');
+		return null;
+	}
+
+	/**
+	 * Splits on commas.  When the table has a free-text column, the fields to
+	 * its left are taken from the start of the line and those to its right
+	 * from the end, so the text itself may contain commas.
+	 */
+	static boolean splitLine(Table t, String line, String[] fields){
+		int n = t.columns.length;
+		int left = t.freeText < 0 ? n - 1 : t.freeText;
+		int pos = 0;
+		for (int i = 0; i < left; ++i){
+			int comma = line.indexOf(',', pos);
+			if (comma < 0) return false;
+			fields[i] = line.substring(pos, comma);
+			pos = comma + 1;
+		}//end for
+		int last = line.length();
+		for (int i = n - 1; i > left; --i){
+			int comma = line.lastIndexOf(',', last - 1);
+			if (comma < pos) return false;
+			fields[i] = line.substring(comma + 1, last);
+			last = comma;
+		}//end for
+		fields[left] = line.substring(pos, last);
+		return t.freeText >= 0 || fields[left].indexOf(',') < 0;
+	}
+
+	/**
+	 * Converts "M/D/YYYY", "M/D/YYYY HH:MM" or "YYYY-MM-DD" to ISO form.
+	 *
+	 * @return the ISO date, or null if the value is not a real calendar date
+	 */
+	static String isoDate(String v){
+		v = v.trim();
+		int space = v.indexOf(' ');
+		if (space >= 0) v = v.substring(0, space);
+		int y, m, d;
+		try{
+			String[] p;
+			if (v.indexOf('/') >= 0){
+				p = v.split("/");
+				if (p.length != 3) return null;
+				m = Integer.parseInt(p[0]); d = Integer.parseInt(p[1]); y = Integer.parseInt(p[2]);
+			}else{
+				p = v.split("-");
+				if (p.length != 3) return null;
+				y = Integer.parseInt(p[0]); m = Integer.parseInt(p[1]); d = Integer.parseInt(p[2]);
+			}//end if
+		}catch (NumberFormatException e){
+			return null;
+		}//end try
+		if (y < 1 || y > 9999 || m < 1 || m > 12 || d < 1) return null;
+		if (d > java.time.YearMonth.of(y, m).lengthOfMonth()) return null;
+		return String.format("%04d-%02d-%02d", y, m, d);
+	}
+
+	private void reject(Table t, long offset, String reason, String line) throws IOException {
+		this._rejected.incrementAndGet();
+		synchronized (this._rejects){
+			this._rejects.write(t.file + "\t" + offset + "\t" + reason + "\t" + line + "\n");
+		}
+	}
+
+	/**
+	 * Reads the lines of a stream as UTF-8, ending each at a '\n' (as split()
+	 * does) and dropping a '\r' before it, and keeps the byte offset of each
+	 * line in the file for the reject file.
+	 */
+	static class LineReader{
+		private final InputStream _in;
+		private final byte[] _buf;
+		private int _pos = 0, _limit = 0;
+		private byte[] _line = new byte[256];
+		private long _next;
+		private long _offset;
+
+		LineReader(InputStream in, long start, int bufferSize){
+			this._in = in;
+			this._buf = new byte[bufferSize];
+			this._next = start;
+		}
+
+		/** @return the next line without its terminator, or null at the end of the stream */
+		String readLine() throws IOException {
+			this._offset = this._next;
+			int len = 0;
+			while (true){
+				if (this._pos == this._limit){
+					int n = this._in.read(this._buf, 0, this._buf.length);
+					if (n < 0){
+						if (this._next == this._offset) return null;
+						break;
+					}//end if
+					this._pos = 0;
+					this._limit = n;
+					continue;
+				}//end if
+				int i = this._pos;
+				while (i < this._limit && this._buf[i] != '\n') ++i;
+				int n = i - this._pos;
+				if (len + n > this._line.length) this._line = Arrays.copyOf(this._line, Math.max(len + n, this._line.length * 2));
+				System.arraycopy(this._buf, this._pos, this._line, len, n);
+				len += n;
+				this._next += n;
+				this._pos = i;
+				if (i < this._limit){
+					++this._pos;
+					++this._next;
+					break;
+				}//end if
+			}//end while
+			if (len > 0 && this._line[len - 1] == '\r') --len;
+			return new String(this._line, 0, len, StandardCharsets.UTF_8);
+		}
+
+		/** @return the byte offset in the file of the line readLine() returned last */
+		long getOffset(){
+			return this._offset;
+		}
+	}
+
+	/**
+	 * An InputStream over one byte range of a file channel.
+	 */
+	static class RangeInputStream extends InputStream{
+		private final FileChannel _channel;
+		private long _pos;
+		private final long _end;
+
+		RangeInputStream(FileChannel channel, long start, long end){
+			this._channel = channel;
+			this._pos = start;
+			this._end = end;
+		}
+
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this._pos >= this._end) return -1;
+			len = (int) Math.min(len, this._end - this._pos);
+			int n = this._channel.read(ByteBuffer.wrap(b, off, len), this._pos);
+			if (n > 0) this._pos += n;
+			return n;
+		}
+	}
+
+	/**
+	 * The bulk loader entry point
+	 *
+	 * @param args <dbname> <port> <user> [dataDir] [rejectFile] [--threads N] [--truncate]
+	 */
+	public static void main(String[] args){
+		List<String> positional = new ArrayList<String>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean truncate = false;
+		for (int i = 0; i < args.length; ++i){
+			if (args[i].equals("--truncate")) truncate = true;
+			else if (args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else positional.add(args[i]);
+		}//end for
+		if (positional.size() < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName() +
+				" <dbname> <port> <user> [dataDir] [rejectFile] [--threads N] [--truncate]");
+			System.exit(2);
+		}//end if
+		String url = "jdbc:postgresql://localhost:" + positional.get(1) + "/" + positional.get(0);
+		File dataDir = new File(positional.size() > 3 ? positional.get(3) : "../data");
+		File rejectFile = new File(positional.size() > 4 ? positional.get(4) : "rejects.tsv");
+
+		Properties props = new Properties();
+		props.setProperty("user", positional.get(2));
+		props.setProperty("password", "");
+		ConnectionPool pool = new ConnectionPool(url, props, threads, ConnectionPool.DEFAULT_MAX_WAIT_MILLIS,
+			ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, ConnectionPool.DEFAULT_MAX_LIFETIME_MILLIS);
+
+		long start = System.nanoTime();
+		int status = 0;
+		try (Writer rejects = new BufferedWriter(new FileWriter(rejectFile))){
+			BulkLoader loader = new BulkLoader(pool, dataDir, rejects, threads);
+			try{
+				loader.load(truncate);
+			}catch (Exception e){
+				System.err.println("Load failed: " + e.getMessage());
+				for (Throwable t : e.getSuppressed()) System.err.println("  and: " + t.getMessage());
+				status = 1;
+			}//end try
+			System.out.printf("Loaded %d rows, rejected %d (see %s) in %.1fs%n",
+				loader.getLoaded(), loader.getRejected(), rejectFile, (System.nanoTime() - start) / 1e9);
+		}catch (IOException e){
+			System.err.println("Cannot write " + rejectFile + ": " + e.getMessage());
+			status = 1;
+		}finally{
+			pool.close();
+		}
+		System.exit(status);
+	}
+}
@@ -0,0 +1,402 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes the six tables of sql/create.sql to a directory of
+ * column files and maps them back into memory, for SnapshotEngine.
+ *
+ *   manifest                 one line per table: name, rows, then name:type[:dictionary] per column
+ *   TABLE.COLUMN.col         one 4-byte big-endian int per row
+ *   DICTIONARY.dict          count, count + 1 byte offsets, then the UTF-8 bytes of every value
+ *
+ * Integer columns are stored as they are and dates as days since
+ * 1970-01-01.  Text columns hold codes into a dictionary shared by the
+ * columns that hold the same kind of value: first and last names of
+ * customers and mechanics share one, and every VIN column shares one in
+ * which a car's code is its row in car.  A join on VIN is therefore a
+ * direct array index.  NULL is NULL_CODE in text columns and NULL_INT in
+ * the others.
+ *
+ * All tables are read in one REPEATABLE READ transaction, so the snapshot
+ * is consistent, and written to a temporary directory that replaces the
+ * old snapshot only when it is complete.  Readers that mapped the old
+ * files keep them.
+ *
+ */
+
+public class ColumnarSnapshot{
+	public static final int FORMAT = 1;
+	public static final int NULL_CODE = -1;
+	public static final int NULL_INT = Integer.MIN_VALUE;
+	public static final char INT = 'i';
+	public static final char DATE = 'd';
+	public static final char TEXT = 't';
+	//rows fetched per round trip while exporting
+	public static final int FETCH_SIZE = 10000;
+
+	/**
+	 * One exported table: its query and, for each column, its type and, for
+	 * text, its dictionary.  The query's columns are in the same order.
+	 */
+	static class TableSpec{
+		final String name;
+		final String query;
+		final String[] columns;
+		final char[] types;
+		final String[] dictionaries;
+
+		TableSpec(String name, String query, String... columns){
+			this.name = name;
+			this.query = query;
+			this.columns = new String[columns.length];
+			this.types = new char[columns.length];
+			this.dictionaries = new String[columns.length];
+			for (int c = 0; c < columns.length; ++c){
+				String[] parts = columns[c].split(":");
+				this.columns[c] = parts[0];
+				this.types[c] = parts[1].charAt(0);
+				this.dictionaries[c] = parts.length > 2 ? parts[2] : null;
+			}//end for
+		}
+	}
+
+	//car comes before the tables that reference a VIN, so a car's code is its row
+	static final TableSpec[] TABLES = {
+		new TableSpec("customer", "SELECT id, fname, lname, phone, address FROM Customer ORDER BY id",
+			"id:i", "fname:t:name", "lname:t:name", "phone:t:phone", "address:t:address"),
+		new TableSpec("mechanic", "SELECT id, fname, lname, experience FROM Mechanic ORDER BY id",
+			"id:i", "fname:t:name", "lname:t:name", "experience:i"),
+		new TableSpec("car", "SELECT vin, make, model, year FROM Car ORDER BY vin",
+			"vin:t:vin", "make:t:make", "model:t:model", "year:i"),
+		new TableSpec("owns", "SELECT ownership_id, customer_id, car_vin FROM Owns ORDER BY ownership_id",
+			"ownership_id:i", "customer_id:i", "car_vin:t:vin"),
+		new TableSpec("service_request", "SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request ORDER BY rid",
+			"rid:i", "customer_id:i", "car_vin:t:vin", "date:d", "odometer:i", "complain:t:complain"),
+		new TableSpec("closed_request", "SELECT wid, rid, mid, date, comment, bill FROM Closed_Request ORDER BY wid",
+			"wid:i", "rid:i", "mid:i", "date:d", "comment:t:comment", "bill:i")
+	};
+
+	/**
+	 * The values of one dictionary while exporting.
+	 */
+	private static class DictionaryWriter{
+		final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+		final List<String> values = new ArrayList<String>();
+
+		int code(String value){
+			if (value == null) return NULL_CODE;
+			Integer code = this.codes.get(value);
+			if (code != null) return code;
+			this.codes.put(value, this.values.size());
+			this.values.add(value);
+			return this.values.size() - 1;
+		}
+	}
+
+	/**
+	 * Method to export every table to a snapshot directory, replacing any
+	 * snapshot already there.
+	 *
+	 * @param dir the snapshot directory
+	 * @return the rows exported per table
+	 * @throws java.sql.SQLException when a table could not be read
+	 * @throws java.io.IOException when a file could not be written
+	 */
+	public static Map<String, Integer> export(MechanicShop esql, File dir) throws SQLException, IOException {
+		File tmp = new File(dir.getPath() + ".tmp");
+		deleteRecursively(tmp);
+		if (!tmp.mkdirs()) throw new IOException("Unable to create " + tmp);
+
+		Map<String, Integer> rows = new LinkedHashMap<String, Integer>();
+		Map<String, DictionaryWriter> dictionaries = new LinkedHashMap<String, DictionaryWriter>();
+		ConnectionPool.PooledConnection pc = esql.getPool().borrow();
+		try{
+			//the pool rolls back and restores autocommit on release
+			pc.connection.setAutoCommit(false);
+			Statement stmt = pc.connection.createStatement();
+			try{
+				stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+				stmt.setFetchSize(FETCH_SIZE);
+				for (TableSpec table : TABLES)
+					rows.put(table.name, exportTable(stmt, table, tmp, dictionaries));
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			esql.getPool().release(pc);
+		}
+
+		for (Map.Entry<String, DictionaryWriter> d : dictionaries.entrySet())
+			writeDictionary(new File(tmp, d.getKey() + ".dict"), d.getValue().values);
+		PrintWriter manifest = new PrintWriter(new File(tmp, "manifest"), "UTF-8");
+		try{
+			manifest.println("# format " + FORMAT + " exported " + Instant.now());
+			for (TableSpec table : TABLES){
+				StringBuilder line = new StringBuilder(table.name).append(' ').append(rows.get(table.name));
+				for (int c = 0; c < table.columns.length; ++c){
+					line.append(' ').append(table.columns[c]).append(':').append(table.types[c]);
+					if (table.dictionaries[c] != null) line.append(':').append(table.dictionaries[c]);
+				}//end for
+				manifest.println(line);
+			}//end for
+		}finally{
+			manifest.close();
+		}
+
+		File old = new File(dir.getPath() + ".old");
+		deleteRecursively(old);
+		if (dir.exists() && !dir.renameTo(old)) throw new IOException("Unable to move " + dir + " aside");
+		if (!tmp.renameTo(dir)) throw new IOException("Unable to rename " + tmp + " to " + dir);
+		deleteRecursively(old);
+		return rows;
+	}
+
+	private static int exportTable(Statement stmt, TableSpec table, File dir, Map<String, DictionaryWriter> dictionaries) throws SQLException, IOException {
+		int numCol = table.columns.length;
+		DataOutputStream[] out = new DataOutputStream[numCol];
+		DictionaryWriter[] dict = new DictionaryWriter[numCol];
+		for (int c = 0; c < numCol; ++c){
+			out[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, table.name + "." + table.columns[c] + ".col")), 1 << 16));
+			if (table.dictionaries[c] != null)
+				dict[c] = dictionaries.computeIfAbsent(table.dictionaries[c], k -> new DictionaryWriter());
+		}//end for
+		int rows = 0;
+		try{
+			ResultSet rs = stmt.executeQuery(table.query);
+			while (rs.next()){
+				for (int c = 0; c < numCol; ++c){
+					switch (table.types[c]){
+						case INT: {
+							int v = rs.getInt(c + 1);
+							out[c].writeInt(rs.wasNull() ? NULL_INT : v);
+							break;
+						}
+						case DATE: {
+							String d = rs.getString(c + 1);
+							out[c].writeInt(d == null ? NULL_INT : QueryResult.epochDay(d));
+							break;
+						}
+						default:
+							out[c].writeInt(dict[c].code(trim(rs.getString(c + 1))));
+					}//end switch
+				}//end for
+				++rows;
+			}//end while
+			rs.close();
+		}finally{
+			for (DataOutputStream o : out) o.close();
+		}
+		return rows;
+	}
+
+	private static void writeDictionary(File file, List<String> values) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try{
+			List<byte[]> bytes = new ArrayList<byte[]>(values.size());
+			for (String v : values) bytes.add(v.getBytes(StandardCharsets.UTF_8));
+			out.writeInt(values.size());
+			int offset = 0;
+			out.writeInt(offset);
+			for (byte[] b : bytes){
+				offset += b.length;
+				out.writeInt(offset);
+			}//end for
+			for (byte[] b : bytes) out.write(b);
+		}finally{
+			out.close();
+		}
+	}
+
+	private static String trim(String s){
+		if (s == null) return null;
+		int end = s.length();
+		while (end > 0 && s.charAt(end - 1) == ' ') --end;
+		return s.substring(0, end);
+	}
+
+	private static void deleteRecursively(File f){
+		File[] children = f.listFiles();
+		if (children != null)
+			for (File child : children) deleteRecursively(child);
+		f.delete();
+	}
+
+	/* ---------- reading ---------- */
+
+	/**
+	 * A dictionary mapped from its file.  Values are decoded on demand.
+	 */
+	public static class Dictionary{
+		private final IntBuffer _offsets;
+		private final ByteBuffer _bytes;
+		private final int _size;
+
+		Dictionary(MappedByteBuffer file){
+			this._size = file.getInt(0);
+			this._offsets = slice(file, 4, 4 * (this._size + 1)).asIntBuffer();
+			this._bytes = slice(file, 4 * (this._size + 2), file.capacity() - 4 * (this._size + 2));
+		}
+
+		public int size(){ return this._size; }
+
+		/**
+		 * @return the value of a code, or null for NULL_CODE
+		 */
+		public String get(int code){
+			if (code == NULL_CODE) return null;
+			int start = this._offsets.get(code), end = this._offsets.get(code + 1);
+			byte[] b = new byte[end - start];
+			for (int i = 0; i < b.length; ++i) b[i] = this._bytes.get(start + i);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * A table mapped from its column files.  Columns are read with absolute
+	 * gets, which any number of threads may do at once.
+	 */
+	public static class Table{
+		public final String name;
+		public final int rows;
+		private final Map<String, IntBuffer> _columns = new HashMap<String, IntBuffer>();
+		private final Map<String, String> _dictionaries = new HashMap<String, String>();
+
+		Table(String name, int rows){
+			this.name = name;
+			this.rows = rows;
+		}
+
+		/**
+		 * @return the column's values (or codes), one per row
+		 */
+		public IntBuffer column(String column){
+			IntBuffer col = this._columns.get(column);
+			if (col == null) throw new IllegalArgumentException("no column " + this.name + "." + column + " in the snapshot");
+			return col;
+		}
+
+		String dictionary(String column){
+			return this._dictionaries.get(column);
+		}
+	}
+
+	private final File _dir;
+	private final String _exported;
+	private final Map<String, Table> _tables = new HashMap<String, Table>();
+	private final Map<String, Dictionary> _dictionaries = new HashMap<String, Dictionary>();
+
+	/**
+	 * Method to map every column and dictionary file of a snapshot.
+	 *
+	 * @throws java.io.IOException when the snapshot is missing or incomplete
+	 */
+	public ColumnarSnapshot(File dir) throws IOException {
+		this._dir = dir;
+		String exported = "";
+		BufferedReader manifest = new BufferedReader(new InputStreamReader(Files.newInputStream(new File(dir, "manifest").toPath()), StandardCharsets.UTF_8));
+		try{
+			String line;
+			while ((line = manifest.readLine()) != null){
+				if (line.startsWith("#")){
+					exported = line.substring(1).trim();
+					continue;
+				}//end if
+				String[] words = line.trim().split(" ");
+				if (words.length < 2) continue;
+				Table table = new Table(words[0], Integer.parseInt(words[1]));
+				for (int w = 2; w < words.length; ++w){
+					String[] parts = words[w].split(":");
+					File file = new File(dir, table.name + "." + parts[0] + ".col");
+					MappedByteBuffer buffer = map(file);
+					if (buffer.capacity() != 4L * table.rows) throw new IOException(file + " does not have " + table.rows + " rows");
+					table._columns.put(parts[0], buffer.asIntBuffer());
+					if (parts.length > 2){
+						table._dictionaries.put(parts[0], parts[2]);
+						if (!this._dictionaries.containsKey(parts[2]))
+							this._dictionaries.put(parts[2], new Dictionary(map(new File(dir, parts[2] + ".dict"))));
+					}//end if
+				}//end for
+				this._tables.put(table.name, table);
+			}//end while
+		}finally{
+			manifest.close();
+		}
+		this._exported = exported;
+		for (TableSpec spec : TABLES)
+			if (!this._tables.containsKey(spec.name)) throw new IOException("table " + spec.name + " is missing from " + dir);
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			//the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length){
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(offset);
+		dup.limit(offset + length);
+		return dup.slice();
+	}
+
+	public Table table(String name){
+		Table table = this._tables.get(name);
+		if (table == null) throw new IllegalArgumentException("no table " + name + " in the snapshot");
+		return table;
+	}
+
+	/**
+	 * @return the dictionary of a text column
+	 */
+	public Dictionary dictionary(String table, String column){
+		String name = table(table).dictionary(column);
+		if (name == null) throw new IllegalArgumentException(table + "." + column + " is not a text column");
+		return this._dictionaries.get(name);
+	}
+
+	public File getDirectory(){ return this._dir; }
+
+	/**
+	 * @return the format and export time from the manifest
+	 */
+	public String getExported(){ return this._exported; }
+}
@@ -0,0 +1,362 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a small bounded pool of physical PostgreSQL connections.
+ * Each pooled connection carries its own StatementCache so prepared statements
+ * survive between borrows. Idle connections are validated before they are
+ * handed out, evicted after sitting idle too long, and retired once they reach
+ * their maximum lifetime.
+ *
+ */
+
+public class ConnectionPool{
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+	public static final long DEFAULT_MAX_LIFETIME_MILLIS = 30 * 60 * 1000;
+	//idle connections younger than this are handed out without a round trip
+	public static final long VALIDATION_INTERVAL_MILLIS = 5000;
+	public static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	/**
+	 * A physical connection plus its statement cache and bookkeeping.
+	 */
+	public static class PooledConnection{
+		public final Connection connection;
+		public final StatementCache statements;
+		final long createdAt;
+		long lastUsed;
+		boolean broken = false;
+
+		PooledConnection(Connection connection){
+			this.connection = connection;
+			this.statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+			this.createdAt = System.currentTimeMillis();
+			this.lastUsed = this.createdAt;
+		}
+
+		/**
+		 * Marks the connection as unusable so the pool closes it on release.
+		 */
+		public void markBroken(){
+			this.broken = true;
+		}
+	}
+
+	private final String _url;
+	private final Properties _props;
+	private final int _maxSize;
+	private final long _maxWaitMillis;
+	private final long _idleTimeoutMillis;
+	private final long _maxLifetimeMillis;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = _lock.newCondition();
+	//most recently released connection sits at the head
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private int _total = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _evictor;
+
+	//metrics, guarded by _lock
+	private long _borrows = 0;
+	private long _waits = 0;
+	private long _waitNanosTotal = 0;
+	private long _waitNanosMax = 0;
+	private long _timeouts = 0;
+	private long _created = 0;
+	private long _destroyed = 0;
+	private long _validationFailures = 0;
+
+	public ConnectionPool(String url, Properties props, int maxSize, long maxWaitMillis, long idleTimeoutMillis, long maxLifetimeMillis){
+		this._url = url;
+		this._props = props;
+		this._maxSize = maxSize;
+		this._maxWaitMillis = maxWaitMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._maxLifetimeMillis = maxLifetimeMillis;
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+		this._evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public ConnectionPool(String url, Properties props){
+		this(url, props, DEFAULT_MAX_SIZE, DEFAULT_MAX_WAIT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_MAX_LIFETIME_MILLIS);
+	}
+
+	/**
+	 * Method to open a connection to the same database outside the pool, for
+	 * background work that must not take a connection from the clerks.  The
+	 * caller closes it.
+	 *
+	 * @return a new physical connection
+	 * @throws java.sql.SQLException when the connection failed
+	 */
+	public Connection openUnpooled() throws SQLException {
+		return DriverManager.getConnection(this._url, this._props);
+	}
+
+	/**
+	 * Method to borrow a connection.  Reuses a valid idle connection when there
+	 * is one, opens a new one while the pool is below its maximum size, and
+	 * otherwise waits for a release.
+	 *
+	 * @return a connection that must be handed back with release()
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(this._maxWaitMillis);
+		boolean waited = false;
+
+		while (true){
+			PooledConnection pc = null;
+			boolean create = false;
+
+			this._lock.lock();
+			try{
+				if (this._closed) throw new SQLException("Connection pool is closed");
+				while (this._idle.isEmpty() && this._total >= this._maxSize){
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0){
+						++this._timeouts;
+						throw new SQLException("Timed out after " + this._maxWaitMillis + "ms waiting for a database connection");
+					}//end if
+					waited = true;
+					try{
+						this._available.awaitNanos(remaining);
+					}catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection");
+					}//end try
+					if (this._closed) throw new SQLException("Connection pool is closed");
+				}//end while
+				pc = this._idle.pollFirst();
+				if (pc == null){
+					//reserve the slot before connecting outside the lock
+					++this._total;
+					create = true;
+				}//end if
+			}finally{
+				this._lock.unlock();
+			}
+
+			if (create){
+				try{
+					pc = new PooledConnection(DriverManager.getConnection(this._url, this._props));
+				}catch (SQLException e){
+					this._lock.lock();
+					try{
+						--this._total;
+						this._available.signal();
+					}finally{
+						this._lock.unlock();
+					}
+					throw e;
+				}//end try
+				recordBorrow(start, waited, true);
+				return pc;
+			}//end if
+
+			if (isUsable(pc)){
+				recordBorrow(start, waited, false);
+				return pc;
+			}//end if
+			destroy(pc);
+		}//end while
+	}
+
+	/**
+	 * Method to return a borrowed connection.  Broken or expired connections
+	 * are closed instead of going back to the idle set.
+	 *
+	 * @param pc the connection obtained from borrow()
+	 */
+	public void release(PooledConnection pc){
+		if (pc == null) return;
+		long now = System.currentTimeMillis();
+		boolean keep = !pc.broken && now - pc.createdAt < this._maxLifetimeMillis;
+		try{
+			//leave no transaction open for the next borrower
+			if (keep && !pc.connection.getAutoCommit()){
+				pc.connection.rollback();
+				pc.connection.setAutoCommit(true);
+			}//end if
+		}catch (SQLException e){
+			keep = false;
+		}//end try
+
+		if (!keep){
+			destroy(pc);
+			return;
+		}//end if
+
+		this._lock.lock();
+		try{
+			if (this._closed){
+				--this._total;
+				++this._destroyed;
+			}else{
+				pc.lastUsed = now;
+				this._idle.addFirst(pc);
+				this._available.signal();
+				return;
+			}//end if
+		}finally{
+			this._lock.unlock();
+		}
+		closeQuietly(pc);
+	}
+
+	private boolean isUsable(PooledConnection pc){
+		long now = System.currentTimeMillis();
+		if (now - pc.createdAt >= this._maxLifetimeMillis) return false;
+		if (now - pc.lastUsed < VALIDATION_INTERVAL_MILLIS) return true;
+		try{
+			if (pc.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) return true;
+		}catch (SQLException e){
+			// treated as invalid below.
+		}//end try
+		this._lock.lock();
+		try{
+			++this._validationFailures;
+		}finally{
+			this._lock.unlock();
+		}
+		return false;
+	}
+
+	private void recordBorrow(long start, boolean waited, boolean created){
+		long waitNanos = System.nanoTime() - start;
+		this._lock.lock();
+		try{
+			++this._borrows;
+			if (created) ++this._created;
+			if (waited){
+				++this._waits;
+				this._waitNanosTotal += waitNanos;
+				if (waitNanos > this._waitNanosMax) this._waitNanosMax = waitNanos;
+			}//end if
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	private void destroy(PooledConnection pc){
+		this._lock.lock();
+		try{
+			--this._total;
+			++this._destroyed;
+			this._available.signal();
+		}finally{
+			this._lock.unlock();
+		}
+		closeQuietly(pc);
+	}
+
+	/**
+	 * Closes idle connections that have passed the idle timeout or their
+	 * maximum lifetime.  Runs on the evictor thread.
+	 */
+	private void evict(){
+		ArrayDeque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+		long now = System.currentTimeMillis();
+		this._lock.lock();
+		try{
+			Iterator<PooledConnection> it = this._idle.iterator();
+			while (it.hasNext()){
+				PooledConnection pc = it.next();
+				if (now - pc.lastUsed >= this._idleTimeoutMillis || now - pc.createdAt >= this._maxLifetimeMillis){
+					it.remove();
+					--this._total;
+					++this._destroyed;
+					expired.add(pc);
+				}//end if
+			}//end while
+			if (!expired.isEmpty()) this._available.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+		for (PooledConnection pc : expired)
+			closeQuietly(pc);
+	}
+
+	private static void closeQuietly(PooledConnection pc){
+		pc.statements.clear();
+		try{
+			pc.connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+
+	public int getMaxSize(){ return this._maxSize; }
+
+	/**
+	 * Method to summarize the pool state and wait-time metrics.
+	 *
+	 * @return a single line of key=value pairs
+	 */
+	public String getStats(){
+		this._lock.lock();
+		try{
+			double avgWaitMs = this._waits == 0 ? 0.0 : this._waitNanosTotal / 1e6 / this._waits;
+			return String.format("total=%d idle=%d active=%d max=%d borrows=%d waits=%d avgWaitMs=%.3f maxWaitMs=%.3f timeouts=%d created=%d destroyed=%d validationFailures=%d",
+				this._total, this._idle.size(), this._total - this._idle.size(), this._maxSize,
+				this._borrows, this._waits, avgWaitMs, this._waitNanosMax / 1e6, this._timeouts,
+				this._created, this._destroyed, this._validationFailures);
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to close every idle connection and stop handing out new ones.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close(){
+		ArrayDeque<PooledConnection> idle;
+		this._lock.lock();
+		try{
+			this._closed = true;
+			idle = new ArrayDeque<PooledConnection>(this._idle);
+			this._total -= this._idle.size();
+			this._destroyed += this._idle.size();
+			this._idle.clear();
+			this._available.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+		this._evictor.shutdownNow();
+		for (PooledConnection pc : idle)
+			closeQuietly(pc);
+	}//end close
+}
@@ -0,0 +1,174 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class exports a report or a whole table to a local CSV file with
+ * COPY (...) TO STDOUT, e.g. for staff who used to copy report output off
+ * the terminal.  The server formats the CSV; the driver's CopyManager hands
+ * over each row's bytes as they arrive and they go straight into the file
+ * (through GZIPOutputStream when the name ends in .gz), so nothing is
+ * parsed or held per row and the export runs at the speed of the network
+ * and the disk.  The file gets a header line and is written under a
+ * temporary name, then renamed, so a failed export never leaves half a file.
+ *
+ * COPY takes no bind parameters, so the parameters of a report (k, dates)
+ * are written into its text as literals.
+ *
+ */
+
+public class CopyExport{
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	//whole tables by the names ShopHttpServer uses for them, with their columns
+	static final Map<String, String> TABLES;
+	static{
+		Map<String, String> tables = new LinkedHashMap<String, String>();
+		tables.put("customers", "Customer (id, fname, lname, phone, address)");
+		tables.put("mechanics", "Mechanic (id, fname, lname, experience)");
+		tables.put("cars", "Car (vin, make, model, year)");
+		tables.put("ownerships", "Owns (ownership_id, customer_id, car_vin)");
+		tables.put("requests", "Service_Request (rid, customer_id, car_vin, date, odometer, complain)");
+		tables.put("closed-requests", "Closed_Request (wid, rid, mid, date, comment, bill)");
+		TABLES = Collections.unmodifiableMap(tables);
+	}
+
+	//the reports by the names ShopCommands uses for them
+	static final List<String> REPORTS = Arrays.asList("bill-under-100", "more-than-20-cars", "cars-before-1995", "top-cars", "total-bill");
+
+	/**
+	 * Method to build the COPY statement of a whole table.
+	 *
+	 * @param name one of TABLES
+	 * @throws IllegalArgumentException for an unknown name
+	 */
+	public static String table(String name){
+		String table = TABLES.get(name);
+		if (table == null) throw new IllegalArgumentException("unknown table: " + name);
+		return "COPY " + table + " TO STDOUT WITH (FORMAT csv, HEADER)";
+	}
+
+	/**
+	 * Method to build the COPY statement of a report, over all time when
+	 * from and to are null and over the window [from, to) otherwise.
+	 *
+	 * @param name one of REPORTS
+	 * @param k the k of top-cars
+	 * @param from the first day, "YYYY-MM-DD", or null
+	 * @param to the day after the last, "YYYY-MM-DD", or null
+	 * @throws IllegalArgumentException for an unknown name, or a window on more-than-20-cars
+	 */
+	public static String report(String name, int k, String from, String to){
+		if (from == null && to == null){
+			switch (name){
+				case "bill-under-100": return query(ShopOperations.REPORT_BILL_LESS_THAN_100);
+				case "more-than-20-cars": return query(ShopOperations.REPORT_MORE_THAN_20_CARS);
+				case "cars-before-1995": return query(ShopOperations.REPORT_CARS_BEFORE_1995_UNDER_50000);
+				case "top-cars": return query(ShopOperations.REPORT_K_MOST_SERVICED_CARS, k);
+				case "total-bill": return query(ShopOperations.REPORT_TOTAL_BILL_DESC);
+				default: throw new IllegalArgumentException("unknown report: " + name);
+			}//end switch
+		}//end if
+		if (from == null) from = ShopOperations.BEGINNING;
+		if (to == null) to = ShopOperations.END;
+		switch (name){
+			case "bill-under-100": return query(ShopOperations.REPORT_BILL_LESS_THAN_100_BETWEEN, from, to, to);
+			case "cars-before-1995": return query(ShopOperations.REPORT_CARS_BEFORE_1995_UNDER_50000_BETWEEN, from, to);
+			case "top-cars": return query(ShopOperations.REPORT_K_MOST_SERVICED_CARS_BETWEEN, from, to, k);
+			case "total-bill": return query(ShopOperations.REPORT_TOTAL_BILL_DESC_BETWEEN, from, to, to);
+			case "more-than-20-cars": throw new IllegalArgumentException("more-than-20-cars counts cars owned, which have no date");
+			default: throw new IllegalArgumentException("unknown report: " + name);
+		}//end switch
+	}
+
+	/**
+	 * Method to wrap a query in COPY (...) TO STDOUT, with its '?'
+	 * placeholders replaced by the parameters as literals.  Integers are
+	 * written as they are and anything else as a quoted string.
+	 */
+	static String query(String sql, Object... params){
+		String body = sql.trim();
+		if (body.endsWith(";")) body = body.substring(0, body.length() - 1);
+		StringBuilder sb = new StringBuilder("COPY (");
+		int p = 0;
+		for (int i = 0; i < body.length(); ++i){
+			char c = body.charAt(i);
+			if (c != '?'){
+				sb.append(c);
+				continue;
+			}//end if
+			if (p == params.length) throw new IllegalArgumentException("too few parameters for " + sql);
+			Object value = params[p++];
+			if (value == null) sb.append("NULL");
+			else if (value instanceof Integer || value instanceof Long) sb.append(value);
+			else sb.append('\'').append(value.toString().replace("'", "''")).append('\'');
+		}//end for
+		if (p != params.length) throw new IllegalArgumentException("too many parameters for " + sql);
+		return sb.append(") TO STDOUT WITH (FORMAT csv, HEADER)").toString();
+	}
+
+	/**
+	 * Method to run a COPY ... TO STDOUT statement into a file, gzip
+	 * compressed when its name ends in .gz.
+	 *
+	 * @param copy the statement, from table() or report()
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when the statement failed
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public static long export(MechanicShop esql, String copy, File file) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long rows = 0;
+		boolean done = false;
+		File tmp = new File(file.getPath() + ".part");
+		ConnectionPool.PooledConnection pc = esql.getPool().borrow();
+		try{
+			CopyManager copyApi = pc.connection.unwrap(PGConnection.class).getCopyAPI();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+			try{
+				if (file.getName().endsWith(".gz")) out = new GZIPOutputStream(out, BUFFER_SIZE);
+				rows = copyApi.copyOut(copy, out);
+			}catch (SQLException | IOException e){
+				//a COPY cut off mid-stream leaves the connection unusable
+				pc.markBroken();
+				throw e;
+			}finally{
+				out.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			done = true;
+			return rows;
+		}finally{
+			esql.getPool().release(pc);
+			if (!done) tmp.delete();
+			esql.getMetrics().record("copyExport", start, !done, rows, done ? file.length() : 0);
+		}
+	}
+}
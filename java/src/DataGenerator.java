@@ -0,0 +1,466 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes the six CSV files of sql/create.sql (customer.csv,
+ * mechanic.csv, car.csv, owns.csv, service_request.csv, closed_request.csv)
+ * at any scale factor.  Scale 1 has the size of the shipped dataset: 500
+ * customers, 250 mechanics, 5,000 cars and 30,000 service requests.
+ *
+ * The output only depends on the seed and the scale, never on the number of
+ * threads: every value is either a pure function of (seed, row) or drawn from
+ * a random generator seeded per block of rows.  Blocks are generated in
+ * parallel and written to the file in order.
+ *
+ * The data keeps referential integrity and is skewed the way a real shop is:
+ * each car has one owner and cars per customer follow a power law (so some
+ * customers own more than 20 cars), service requests per VIN are Zipfian,
+ * a request is always made by the car's owner, and for each car the request
+ * dates and odometer readings only move forward.
+ *
+ */
+
+public class DataGenerator{
+	public static final int CUSTOMERS = 500;
+	public static final int MECHANICS = 250;
+	public static final int CARS = 5000;
+	public static final int REQUESTS = 30000;
+
+	public static final int BLOCK_ROWS = 1 << 16;
+	public static final double DEFAULT_ZIPF_EXPONENT = 0.75;
+	public static final double DEFAULT_CLOSED_FRACTION = 0.9;
+
+	//request dates are spread evenly (in rid order) over this range; cars are built before it starts
+	static final int FIRST_DAY = (int) java.time.LocalDate.of(2015, 1, 1).toEpochDay();
+	static final int LAST_DAY = (int) java.time.LocalDate.of(2020, 12, 31).toEpochDay();
+	static final int FIRST_YEAR = 1970;
+	static final int LAST_YEAR = 2014;
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+	private static final long CAR_SALT = 0x1L, OWNER_SALT = 0x2L, REQUEST_SALT = 0x3L, CLOSED_SALT = 0x4L;
+
+	static final String[] FIRST_NAMES = {
+		"Aaron", "Abbey", "Adele", "Aida", "Alana", "Alberto", "Alec", "Alexandria", "Alfonso", "Allan", "Amalia", "Amina",
+		"Annette", "Antoine", "Ardis", "Armand", "Barbara", "Benito", "Blythe", "Bruno", "Carla", "Cedric", "Clara", "Dale",
+		"Dominic", "Edna", "Elena", "Emmett", "Fabian", "Freda", "Gavin", "Gloria", "Harvey", "Ines", "Ivan", "Jasmine",
+		"Joel", "Karen", "Krischin", "Lamar", "Leona", "Lucas", "Mabel", "Marco", "Nadia", "Nolan", "Olive", "Oscar",
+		"Paula", "Quinn", "Rory", "Rosa", "Sergio", "Sonia", "Tobias", "Uma", "Victor", "Wanda", "Wyatt", "Yolanda", "Zane"
+	};
+	static final String[] LAST_NAMES = {
+		"Accardo", "Agbayani", "Ahumada", "Allard", "Alves", "Amerson", "Ankney", "Aparicio", "Archuleta", "Armstrong",
+		"Asaro", "Ault", "Bachman", "Baize", "Banas", "Barbosa", "Bartz", "Beier", "Benedetti", "Bernal", "Berner",
+		"Bickley", "Blum", "Boelter", "Cuyler", "Delgado", "Enderle", "Fischer", "Garza", "Hollis", "Ibarra", "Jensen",
+		"Kowalski", "Layon", "Lindqvist", "Moreau", "Nakamura", "Okafor", "Pereira", "Quintero", "Renales", "Ruoff",
+		"Santacruz", "Scarlett", "Tanaka", "Underwood", "Vasquez", "Whitfield", "Xiong", "Yates", "Zimmerman"
+	};
+	static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Young Avenue", "East Warren St.", "Spruce Dr.", "Golf Ave.",
+		"Shub Farm St.", "W. Greystone Dr.", "Edgewood Ave.", "Berkshire Street", "Rose St.", "Court Lane", "Lake Dr."
+	};
+	static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Oak Forest", "New Brunswick", "Lanham", "Rocky Mount", "Appleton",
+		"Jamaica", "Newtown", "Fishers", "Brentwood", "Hendersonville", "Zeeland", "Riverside", "Glendora"
+	};
+	static final String[] MAKES = {
+		"Toyota", "Ford", "Honda", "Chevrolet", "Nissan", "BMW", "Audi", "Volkswagen", "Mazda", "Subaru", "Kia", "Hyundai",
+		"Lexus", "Porsche", "Ferrari", "Lamborghini", "Tesla", "Volvo", "Jeep", "Dodge", "Fiat", "Peugeot", "Saab", "Mini"
+	};
+	static final String[] MODELS = {
+		"Prius", "Camry", "Corolla", "Sunny", "Impreza", "Passat", "Polo", "Cooper", "Rio", "Elentra", "Jimny", "Summer",
+		"C1", "C2", "C3", "C4", "C5", "M1", "M2", "M5", "DB7", "DB8", "RX5"
+	};
+	static final String[] COMPLAINTS = {
+		"No brakes", "Burns too much gas", "Change oil", "I cannot hear the horn", "I cannot hear the radio",
+		"It is not fast enough", "It smells funny", "Needs new parachute", "Passenger side is always empty",
+		"Replace windows", "The wheel does not turn right", "The wings do not work", "Add rockets"
+	};
+	static final String[] COMMENTS = {
+		"Breaks are ok", "Buy a new Car", "Change Roof", "Changed Oil", "Fixed!!!", "Good Luck", "I do not know",
+		"Made it faster", "Needs new Tires", "This is a bicycle", "We changed the color", "We lost your car",
+		"You are missing an engine"
+	};
+
+	/**
+	 * A growable ASCII byte buffer that formats rows without creating Strings.
+	 */
+	static class Buf{
+		byte[] bytes;
+		int length = 0;
+
+		Buf(int capacity){ this.bytes = new byte[capacity]; }
+
+		private void ensure(int extra){
+			if (this.length + extra > this.bytes.length)
+				this.bytes = java.util.Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + extra));
+		}
+
+		Buf add(String s){
+			ensure(s.length());
+			for (int i = 0; i < s.length(); ++i) this.bytes[this.length++] = (byte) s.charAt(i);
+			return this;
+		}
+
+		Buf add(char c){
+			ensure(1);
+			this.bytes[this.length++] = (byte) c;
+			return this;
+		}
+
+		Buf add(long v){
+			if (v < 0){ add('-'); v = -v; }
+			ensure(20);
+			int start = this.length;
+			do { this.bytes[this.length++] = (byte) ('0' + v % 10); v /= 10; } while (v > 0);
+			for (int i = start, j = this.length - 1; i < j; ++i, --j){
+				byte t = this.bytes[i]; this.bytes[i] = this.bytes[j]; this.bytes[j] = t;
+			}//end for
+			return this;
+		}
+
+		//zero-padded to the given width
+		Buf add(long v, int width){
+			ensure(width);
+			for (int i = width - 1; i >= 0; --i){
+				this.bytes[this.length + i] = (byte) ('0' + v % 10);
+				v /= 10;
+			}//end for
+			this.length += width;
+			return this;
+		}
+
+		//YYYY-MM-DD
+		Buf date(int epochDay){
+			java.time.LocalDate d = java.time.LocalDate.ofEpochDay(epochDay);
+			return add(d.getYear(), 4).add('-').add(d.getMonthValue(), 2).add('-').add(d.getDayOfMonth(), 2);
+		}
+	}
+
+	/**
+	 * Zipf distribution over 1..n sampled by rejection-inversion (Hormann and
+	 * Derflinger), which takes constant time and memory for any n.
+	 */
+	static class Zipf{
+		private final long _n;
+		private final double _exponent, _hIntegralX1, _hIntegralN, _s;
+
+		Zipf(long n, double exponent){
+			this._n = n;
+			this._exponent = exponent;
+			this._hIntegralX1 = hIntegral(1.5) - 1.0;
+			this._hIntegralN = hIntegral(n + 0.5);
+			this._s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+		}
+
+		long sample(double u){
+			while (true){
+				double x = this._hIntegralN + u * (this._hIntegralX1 - this._hIntegralN);
+				double k0 = hIntegralInverse(x);
+				long k = Math.max(1, Math.min(this._n, (long) (k0 + 0.5)));
+				if (k - k0 <= this._s || x >= hIntegral(k + 0.5) - h(k)) return k;
+				u = unit(mix(Double.doubleToLongBits(u)));
+			}//end while
+		}
+
+		private double h(double x){ return Math.exp(-this._exponent * Math.log(x)); }
+
+		private double hIntegral(double x){
+			double logX = Math.log(x);
+			return helper2((1.0 - this._exponent) * logX) * logX;
+		}
+
+		private double hIntegralInverse(double x){
+			double t = Math.max(-1.0, x * (1.0 - this._exponent));
+			return Math.exp(helper1(t) * x);
+		}
+
+		private static double helper1(double x){
+			return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+		}
+
+		private static double helper2(double x){
+			return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+		}
+	}
+
+	private final File _outDir;
+	private final long _seed;
+	private final int _threads;
+	private final double _closedFraction;
+
+	final int customers, mechanics, cars, requests;
+	private final Zipf _serviceZipf;
+	//multipliers that scatter popular ranks over the id space; coprime with the table size
+	private final long _ownerStride, _carStride, _vinStride;
+
+	public DataGenerator(File outDir, double scale, long seed, int threads, double zipfExponent, double closedFraction){
+		this._outDir = outDir;
+		this._seed = seed;
+		this._threads = threads;
+		this._closedFraction = closedFraction;
+		this.customers = Math.max(1, (int) Math.round(CUSTOMERS * scale));
+		this.mechanics = Math.max(1, (int) Math.round(MECHANICS * scale));
+		this.cars = Math.max(1, (int) Math.round(CARS * scale));
+		this.requests = Math.max(1, (int) Math.round(REQUESTS * scale));
+		this._serviceZipf = new Zipf(this.cars, zipfExponent);
+		this._ownerStride = coprime(this.customers, 1000003L);
+		this._carStride = coprime(this.cars, 7919L * 7927L);
+		this._vinStride = coprime(10000000000L, 2654435761L);
+	}
+
+	private static long coprime(long n, long candidate){
+		while (gcd(n, candidate) != 1) ++candidate;
+		return candidate;
+	}
+
+	private static long gcd(long a, long b){
+		while (b != 0){ long t = a % b; a = b; b = t; }
+		return a;
+	}
+
+	/** splitmix64 finalizer */
+	static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/** @return a double in [0, 1) taken from the top 53 bits */
+	static double unit(long h){
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	private long hash(long salt, long row){
+		return mix(this._seed * GOLDEN + salt * 0x632BE59BD9B4E019L + row * GOLDEN);
+	}
+
+	/* attributes of car c, recomputed wherever they are needed */
+	int carYear(int c){ return FIRST_YEAR + (int) Long.remainderUnsigned(hash(CAR_SALT, c), LAST_YEAR - FIRST_YEAR + 1); }
+
+	//miles per day; mostly daily drivers, some cars barely leave the garage
+	double carRate(int c){
+		double u = unit(mix(hash(CAR_SALT, c)));
+		return 0.3 + 60.0 * u * u;
+	}
+
+	/**
+	 * Owner of car c.  Ranks are drawn with density proportional to r^(-2/3),
+	 * so with 10 cars per customer about 7% of the customers own more than 20.
+	 */
+	int carOwner(int c){
+		double u = unit(hash(OWNER_SALT, c));
+		long rank = Math.min(this.customers - 1, (long) (this.customers * u * u * u));
+		return (int) (rank * this._ownerStride % this.customers);
+	}
+
+	void vin(Buf b, int c){
+		long h = mix(hash(CAR_SALT, c) ^ GOLDEN);
+		for (int i = 0; i < 6; ++i){
+			b.add((char) ('A' + Long.remainderUnsigned(h, 26)));
+			h = Long.divideUnsigned(h, 26);
+		}//end for
+		//a bijection of c over ten digits keeps VINs unique
+		b.add((c * this._vinStride + 4294967291L) % 10000000000L, 10);
+	}
+
+	int requestCar(int r){
+		long rank = this._serviceZipf.sample(unit(hash(REQUEST_SALT, r))) - 1;
+		return (int) (rank * this._carStride % this.cars);
+	}
+
+	int requestDay(int r){
+		return FIRST_DAY + (int) ((long) r * (LAST_DAY - FIRST_DAY) / this.requests);
+	}
+
+	//grows with the day, so each car's readings only move forward
+	int odometer(int c, int day){
+		int built = (int) java.time.LocalDate.of(carYear(c), 1, 1).toEpochDay();
+		return 1 + (int) (carRate(c) * (day - built));
+	}
+
+	/**
+	 * One CSV file: how many rows it has and how to format a block of them.
+	 */
+	private interface TableWriter{
+		void rows(Buf b, int from, int to, SplittableRandom random);
+	}
+
+	private void customer(Buf b, int from, int to, SplittableRandom random){
+		for (int id = from; id < to; ++id){
+			b.add(id).add(',').add(pick(FIRST_NAMES, random)).add(',').add(pick(LAST_NAMES, random)).add(',');
+			b.add('(').add(200 + random.nextInt(800), 3).add(')').add(random.nextInt(1000), 3).add('-').add(random.nextInt(10000), 4).add(',');
+			b.add(1 + random.nextInt(9999)).add(' ').add(pick(STREETS, random)).add(' ').add(pick(CITIES, random)).add('\n');
+		}//end for
+	}
+
+	private void mechanic(Buf b, int from, int to, SplittableRandom random){
+		for (int id = from; id < to; ++id){
+			b.add(id).add(',').add(pick(FIRST_NAMES, random)).add(',').add(pick(LAST_NAMES, random)).add(',');
+			b.add(random.nextInt(40)).add('\n');
+		}//end for
+	}
+
+	private void car(Buf b, int from, int to, SplittableRandom random){
+		for (int c = from; c < to; ++c){
+			vin(b, c);
+			b.add(',').add(pick(MAKES, random)).add(',').add(pick(MODELS, random)).add(',').add(carYear(c)).add('\n');
+		}//end for
+	}
+
+	private void owns(Buf b, int from, int to, SplittableRandom random){
+		for (int c = from; c < to; ++c){
+			b.add(c).add(',').add(carOwner(c)).add(',');
+			vin(b, c);
+			b.add('\n');
+		}//end for
+	}
+
+	private void serviceRequest(Buf b, int from, int to, SplittableRandom random){
+		for (int r = from; r < to; ++r){
+			int c = requestCar(r), day = requestDay(r);
+			b.add(r).add(',').add(carOwner(c)).add(',');
+			vin(b, c);
+			b.add(',').date(day).add(',').add(odometer(c, day)).add(',').add(pick(COMPLAINTS, random)).add('\n');
+		}//end for
+	}
+
+	//wid = rid for the closed requests, so both files can be generated independently
+	private void closedRequest(Buf b, int from, int to, SplittableRandom random){
+		for (int r = from; r < to; ++r){
+			long h = hash(CLOSED_SALT, r);
+			if (unit(h) >= this._closedFraction) continue;
+			int day = requestDay(r) + (int) ((h >>> 8) & 15);
+			//log-normal bill with a median of $90
+			double g = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble())) * Math.cos(2.0 * Math.PI * random.nextDouble());
+			long bill = Math.max(1, Math.min(100000, Math.round(Math.exp(4.5 + g))));
+			b.add(r).add(',').add(r).add(',').add(random.nextInt(this.mechanics)).add(',').date(day).add(',');
+			b.add(pick(COMMENTS, random)).add(',').add(bill).add('\n');
+		}//end for
+	}
+
+	private static String pick(String[] values, SplittableRandom random){
+		return values[random.nextInt(values.length)];
+	}
+
+	/**
+	 * Method to write one file.  Blocks of BLOCK_ROWS rows are formatted on the
+	 * worker threads, at most two per thread ahead of the writer, and written
+	 * to the file in order with one large write each.
+	 *
+	 * @return bytes written
+	 * @throws java.lang.Exception when a block failed or the file could not be written
+	 */
+	private long write(ExecutorService workers, String file, final long salt, int rows, final TableWriter table) throws Exception {
+		ArrayDeque<Future<Buf>> pending = new ArrayDeque<Future<Buf>>();
+		int blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+		int submitted = 0;
+		long bytes = 0;
+		try (FileChannel out = new FileOutputStream(new File(this._outDir, file)).getChannel()){
+			for (int done = 0; done < blocks; ++done){
+				while (submitted < blocks && pending.size() < 2 * this._threads){
+					final int block = submitted++;
+					final int from = block * BLOCK_ROWS, to = (int) Math.min((long) rows, (long) from + BLOCK_ROWS);
+					pending.add(workers.submit(new Callable<Buf>(){
+						public Buf call(){
+							Buf b = new Buf(BLOCK_ROWS * 64);
+							table.rows(b, from, to, new SplittableRandom(hash(salt, block)));
+							return b;
+						}
+					}));
+				}//end while
+				Buf b = pending.poll().get();
+				ByteBuffer buffer = ByteBuffer.wrap(b.bytes, 0, b.length);
+				while (buffer.hasRemaining()) bytes += out.write(buffer);
+			}//end for
+		}
+		return bytes;
+	}
+
+	/**
+	 * Method to write all six files.
+	 *
+	 * @throws java.lang.Exception when a file could not be written
+	 */
+	public void generate() throws Exception {
+		if (!this._outDir.isDirectory() && !this._outDir.mkdirs()) throw new IOException("Cannot create " + this._outDir);
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		try{
+			report("customer.csv", this.customers, write(workers, "customer.csv", 11, this.customers, this::customer));
+			report("mechanic.csv", this.mechanics, write(workers, "mechanic.csv", 12, this.mechanics, this::mechanic));
+			report("car.csv", this.cars, write(workers, "car.csv", 13, this.cars, this::car));
+			report("owns.csv", this.cars, write(workers, "owns.csv", 14, this.cars, this::owns));
+			report("service_request.csv", this.requests, write(workers, "service_request.csv", 15, this.requests, this::serviceRequest));
+			report("closed_request.csv", -1, write(workers, "closed_request.csv", 16, this.requests, this::closedRequest));
+		}finally{
+			workers.shutdown();
+		}
+	}
+
+	private static void report(String file, long rows, long bytes){
+		System.out.println(String.format("%-20s %12s rows %,16d bytes", file, rows < 0 ? "-" : String.format("%,d", rows), bytes));
+	}
+
+	/**
+	 * The generator entry point
+	 *
+	 * @param args <outDir> [--scale F] [--seed N] [--threads N] [--zipf S] [--closed F]
+	 */
+	public static void main(String[] args){
+		if (args.length < 1){
+			System.err.println(
+				"Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() +
+				" <outDir> [--scale F] [--seed N] [--threads N] [--zipf S] [--closed F]");
+			System.exit(2);
+		}//end if
+
+		double scale = 1.0, zipf = DEFAULT_ZIPF_EXPONENT, closed = DEFAULT_CLOSED_FRACTION;
+		long seed = 166;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 1; i < args.length; ++i){
+			switch (args[i]){
+				case "--scale": scale = Double.parseDouble(args[++i]); break;
+				case "--seed": seed = Long.parseLong(args[++i]); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--zipf": zipf = Double.parseDouble(args[++i]); break;
+				case "--closed": closed = Double.parseDouble(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(2);
+			}//end switch
+		}//end for
+		if (Math.round(REQUESTS * scale) > Integer.MAX_VALUE){
+			System.err.println("Scale " + scale + " is too large: ids are INTEGER");
+			System.exit(2);
+		}//end if
+
+		try{
+			long start = System.nanoTime();
+			new DataGenerator(new File(args[0]), scale, seed, threads, zipf, closed).generate();
+			System.out.println(String.format("Done in %.1f s", (System.nanoTime() - start) / 1e9));
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
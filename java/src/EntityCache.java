@@ -0,0 +1,133 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used set of rows of one table
+ * keyed by their primary key (a customer or mechanic id, a VIN), so the
+ * lookups the menu repeats all day are answered from memory.  A miss reads
+ * the row through the given loader and caches it.
+ *
+ * Only rows that exist are cached: a key that is not found is looked up
+ * again next time, since another clerk may add it.  Every insert path calls
+ * invalidate() for the key it wrote (see ShopOperations.committed()), and
+ * clear() drops everything after bulk changes.
+ *
+ */
+
+public class EntityCache<K, V>{
+	//default number of rows kept per table
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * Reads one row from the database.
+	 */
+	public interface Loader<K, V>{
+		/**
+		 * @return the row, or null when the key does not exist
+		 */
+		V load(K key) throws SQLException;
+	}
+
+	private final String _name;
+	private final int _capacity;
+	private final Loader<K, V> _loader;
+	private final LinkedHashMap<K, V> _rows;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	public EntityCache(String name, int capacity, Loader<K, V> loader){
+		this._name = name;
+		this._capacity = capacity;
+		this._loader = loader;
+		//access-ordered so the eldest entry is always the least recently used
+		this._rows = new LinkedHashMap<K, V>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest){
+				if (size() <= _capacity) return false;
+				++_evictions;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached row for the key, loading it on a miss.  The lock is
+	 * not held during the load, so a slow query does not block hits; two
+	 * threads missing on the same key may both load it.
+	 *
+	 * @return the row, or null when it does not exist
+	 * @throws java.sql.SQLException when the load failed
+	 */
+	public V get(K key) throws SQLException {
+		synchronized (this){
+			V row = this._rows.get(key);
+			if (row != null){
+				++this._hits;
+				return row;
+			}//end if
+			++this._misses;
+		}
+		V row = this._loader.load(key);
+		if (row != null){
+			synchronized (this){
+				this._rows.put(key, row);
+			}
+		}//end if
+		return row;
+	}
+
+	/**
+	 * Returns the cached row for the key without loading it on a miss or
+	 * touching the counters.
+	 *
+	 * @return the row, or null when it is not cached
+	 */
+	public synchronized V peek(K key){
+		return this._rows.get(key);
+	}
+
+	/**
+	 * Method to drop the cached row of a key that has been written.
+	 */
+	public synchronized void invalidate(K key){
+		this._rows.remove(key);
+	}
+
+	/**
+	 * Method to drop every cached row.
+	 */
+	public synchronized void clear(){
+		this._rows.clear();
+	}
+
+	public synchronized long getHits(){ return this._hits; }
+	public synchronized long getMisses(){ return this._misses; }
+	public synchronized long getEvictions(){ return this._evictions; }
+	public synchronized int size(){ return this._rows.size(); }
+
+	/**
+	 * Method to summarize the cache counters.
+	 *
+	 * @return a single line of key=value pairs
+	 */
+	public synchronized String getStats(){
+		long lookups = this._hits + this._misses;
+		return String.format("%s: size=%d capacity=%d hits=%d misses=%d evictions=%d hitRate=%.3f",
+			this._name, this._rows.size(), this._capacity, this._hits, this._misses, this._evictions,
+			lookups == 0 ? 0.0 : (double) this._hits / lookups);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class hands out unique ids from blocks reserved on PostgreSQL
+ * sequences (hi/lo allocation).  Each sequence in sql/create.sql is declared
+ * with INCREMENT BY BLOCK_SIZE, so a single nextval() reserves BLOCK_SIZE ids
+ * for this process; they are then given out from memory.  Different processes
+ * always reserve disjoint blocks, so concurrent clerks never collide.
+ *
+ */
+
+public class IdAllocator{
+	//must match INCREMENT BY on the sequences in sql/create.sql
+	public static final int BLOCK_SIZE = 50;
+
+	/**
+	 * The unused part of the most recently reserved block of one sequence.
+	 */
+	private static class Block{
+		long next = 0;
+		long end = 0;
+	}
+
+	private final MechanicShop _esql;
+	private final ConcurrentHashMap<String, Block> _blocks = new ConcurrentHashMap<String, Block>();
+
+	public IdAllocator(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to take the next id of a sequence.  Only the first call after a
+	 * block runs out touches the database.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return an id no other caller or process will receive
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public int next(String sequence) throws SQLException {
+		Block block = this._blocks.computeIfAbsent(sequence, s -> new Block());
+		synchronized (block){
+			if (block.next >= block.end){
+				long start = reserve(sequence);
+				block.next = start;
+				block.end = start + BLOCK_SIZE;
+			}//end if
+			return (int) block.next++;
+		}
+	}
+
+	private long reserve(String sequence) throws SQLException {
+		return this._esql.executeQueryAndReturnColumns("SELECT nextval(?);", sequence).getLong(0, 0);
+	}
+}
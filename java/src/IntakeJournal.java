@@ -0,0 +1,760 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class is the optional durable intake mode of new and closed service
+ * requests.  Instead of waiting for its own commit, an insert is appended to
+ * a local journal of memory-mapped segment files and acknowledged as soon as
+ * the journal is on disk.  A flusher thread forces the appended bytes with
+ * one fsync for every record that arrived since the last one, so under load
+ * many clerks share each fsync.  A writer thread drains the journal into
+ * Postgres in batched transactions (MechanicShop.executeBatch), oldest first.
+ *
+ * Each record is [length][CRC-32][sequence][type][parameters].  A segment's
+ * header holds the offset up to which its records are in the database; on
+ * startup every record after it is replayed before anything else runs.  The
+ * inserts are ON CONFLICT DO NOTHING, so a record that was committed just
+ * before a crash is skipped rather than applied twice.  A torn record at the
+ * end of a segment (zero length or a bad checksum) was never acknowledged
+ * and ends the scan.
+ *
+ * Until a record is drained, findOpenRequest() answers from the journal: a
+ * request opened in it is open, one closed in it is not.  A record the
+ * database rejects (e.g. an unknown customer) is retried on its own and then
+ * written to rejects.tsv in the journal directory; connection errors are
+ * retried until the database is back.  Only one process may use a
+ * directory at a time.
+ *
+ * Settings are system properties:
+ *
+ *   -Dintake.journal=DIR            turns the mode on, with the journal in DIR
+ *   -Dintake.segmentBytes=67108864  size of each segment file
+ *   -Dintake.batch=1000             most records per drain transaction
+ *   -Dintake.drainMillis=50         time a partial batch waits for more records
+ *
+ */
+
+public class IntakeJournal{
+	public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+	public static final int DEFAULT_BATCH = 1000;
+	public static final long DEFAULT_DRAIN_MILLIS = 50;
+	//time close() gives the writer to drain what is left
+	public static final long CLOSE_MILLIS = 10000;
+	//back-off while the database is unreachable
+	public static final long RETRY_MILLIS = 500;
+	public static final long MAX_RETRY_MILLIS = 30000;
+
+	static final byte OPEN_REQUEST = 1;
+	static final byte CLOSE_REQUEST = 2;
+
+	//segment header: magic, version, applied offset
+	static final int MAGIC = 0x494E544A;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int APPLIED_OFFSET = 8;
+	//record prefix: length of the body, CRC-32 of the body
+	static final int PREFIX_BYTES = 8;
+	//SQLSTATEs of dates the database would not take
+	static final String INVALID_DATETIME_FORMAT = "22007";
+	static final String DATETIME_FIELD_OVERFLOW = "22008";
+	static final String IO_ERROR = "58030";
+
+	/**
+	 * One segment file, mapped whole.  Records are appended at writePos and
+	 * are on disk up to syncedPos.
+	 */
+	static class Segment{
+		final long number;
+		final File file;
+		final FileChannel channel;
+		final MappedByteBuffer map;
+		int writePos;
+		int syncedPos;
+
+		Segment(long number, File file, FileChannel channel, MappedByteBuffer map, int pos){
+			this.number = number;
+			this.file = file;
+			this.channel = channel;
+			this.map = map;
+			this.writePos = pos;
+			this.syncedPos = pos;
+		}
+
+		int applied(){ return this.map.getInt(APPLIED_OFFSET); }
+
+		void applied(int pos){
+			this.map.putInt(APPLIED_OFFSET, pos);
+			this.map.force(0, HEADER_BYTES);
+		}
+
+		void close(){
+			try{
+				this.channel.close();
+			}catch (IOException e){
+				//nothing left to lose, the mapping stays valid until collected
+			}
+		}
+	}//end Segment
+
+	/**
+	 * One decoded record and where it ends in its segment.
+	 */
+	static class Record{
+		final long seq;
+		final byte type;
+		final Object[] params;
+		final Segment segment;
+		final int end;
+
+		Record(long seq, byte type, Object[] params, Segment segment, int end){
+			this.seq = seq;
+			this.type = type;
+			this.params = params;
+			this.segment = segment;
+			this.end = end;
+		}
+
+		String sql(){
+			return this.type == OPEN_REQUEST ? ShopOperations.JOURNAL_SERVICE_REQUEST : ShopOperations.JOURNAL_CLOSED_REQUEST;
+		}
+
+		//the statement ShopOperations.committed() knows the row by
+		String committedAs(){
+			return this.type == OPEN_REQUEST ? ShopOperations.INSERT_SERVICE_REQUEST : ShopOperations.INSERT_CLOSED_REQUEST;
+		}
+	}//end Record
+
+	private final MechanicShop _esql;
+	private final File _dir;
+	private final long _segmentBytes;
+	private final int _batch;
+	private final long _drainMillis;
+	private final FileChannel _lockChannel;
+	private final FileLock _lock;
+
+	//oldest first; the last one is appended to
+	private final ArrayDeque<Segment> _segments = new ArrayDeque<Segment>();
+	private Segment _current;
+	private long _appended = 0;
+	private long _durable = 0;
+	private long _drained = 0;
+	private IOException _failure = null;
+	private boolean _closing = false;
+	private volatile boolean _stopped = false;
+	//read cursor of the writer thread
+	private Segment _readSegment;
+	private int _readPos;
+
+	//requests opened and closed in the journal but not yet in the database
+	private final Map<Integer, Integer> _opened = new ConcurrentHashMap<Integer, Integer>();
+	private final Set<Integer> _closed = ConcurrentHashMap.newKeySet();
+
+	private Thread _flusher = null;
+	private Thread _writer = null;
+
+	IntakeJournal(MechanicShop esql, File dir, long segmentBytes, int batch, long drainMillis) throws IOException {
+		if (segmentBytes <= HEADER_BYTES || segmentBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("segment size out of range: " + segmentBytes);
+		this._esql = esql;
+		this._dir = dir;
+		this._segmentBytes = segmentBytes;
+		this._batch = Math.max(1, batch);
+		this._drainMillis = drainMillis;
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create the journal directory " + dir);
+		this._lockChannel = FileChannel.open(new File(dir, "lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock = null;
+		try{
+			lock = this._lockChannel.tryLock();
+		}catch (OverlappingFileLockException e){
+			//held by this process
+		}
+		if (lock == null){
+			this._lockChannel.close();
+			throw new IOException("The journal " + dir + " is in use by another process");
+		}//end if
+		this._lock = lock;
+	}
+
+	/**
+	 * Method to open the journal named by -Dintake.journal, replay whatever
+	 * a previous run left in it and start the flusher and writer threads.
+	 *
+	 * @return the journal, or null when the mode is off
+	 * @throws java.io.IOException when the journal could not be read or written
+	 * @throws java.sql.SQLException when the replay failed; the journal is left as it was
+	 */
+	public static IntakeJournal fromProperties(MechanicShop esql) throws IOException, SQLException {
+		String dir = System.getProperty("intake.journal");
+		if (dir == null || dir.isEmpty()) return null;
+		IntakeJournal journal = new IntakeJournal(esql, new File(dir),
+			Long.getLong("intake.segmentBytes", DEFAULT_SEGMENT_BYTES),
+			Integer.getInteger("intake.batch", DEFAULT_BATCH),
+			Long.getLong("intake.drainMillis", DEFAULT_DRAIN_MILLIS));
+		try{
+			int replayed = journal.recover();
+			if (replayed > 0) System.err.println("Replayed " + replayed + " journaled requests from " + dir);
+			journal.start();
+			return journal;
+		}catch (IOException | SQLException | RuntimeException e){
+			journal.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to map every segment left in the directory, apply the records
+	 * after their applied offsets and start a new segment to append to.
+	 *
+	 * @return the number of records replayed
+	 */
+	int recover() throws IOException, SQLException {
+		File[] files = this._dir.listFiles((d, name) -> name.startsWith("intake-") && name.endsWith(".journal"));
+		if (files == null) throw new IOException("Unable to list " + this._dir);
+		Arrays.sort(files);
+		long next = 0;
+		for (File file : files){
+			long number = Long.parseLong(file.getName().substring(7, file.getName().length() - 8));
+			Segment seg = map(number, file, file.length(), false);
+			//scan to the end of the acknowledged records
+			int pos = seg.applied();
+			for (Record r; (r = read(seg, pos, seg.map.capacity())) != null; pos = r.end)
+				this._appended = Math.max(this._appended, r.seq);
+			seg.writePos = pos;
+			seg.syncedPos = pos;
+			this._segments.addLast(seg);
+			next = number + 1;
+		}//end for
+		this._durable = this._appended;
+		this._current = map(next, segmentFile(next), this._segmentBytes, true);
+		this._segments.addLast(this._current);
+		this._readSegment = this._segments.peekFirst();
+		this._readPos = this._readSegment.applied();
+
+		synchronized (this){ skipDrained(); }
+
+		int replayed = 0;
+		for (List<Record> batch; !(batch = nextBatch()).isEmpty(); replayed += batch.size())
+			apply(batch);
+		this._drained = this._durable;
+		return replayed;
+	}
+
+	private File segmentFile(long number){
+		return new File(this._dir, String.format("intake-%016d.journal", number));
+	}
+
+	private Segment map(long number, File file, long size, boolean create) throws IOException {
+		FileChannel channel = create
+			? FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+			: FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try{
+			if (size < HEADER_BYTES) throw new IOException(file + " is not an intake journal");
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (create){
+				map.putInt(0, MAGIC);
+				map.putInt(4, VERSION);
+				map.putInt(APPLIED_OFFSET, HEADER_BYTES);
+				map.force(0, HEADER_BYTES);
+			}else if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+				throw new IOException(file + " is not an intake journal");
+			return new Segment(number, file, channel, map, HEADER_BYTES);
+		}catch (IOException e){
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void start(){
+		this._flusher = new Thread(this::flush, "intake-flusher");
+		this._flusher.setDaemon(true);
+		this._flusher.start();
+		this._writer = new Thread(this::drain, "intake-writer");
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/**
+	 * Method to journal a new service request; it reaches Service_Request
+	 * when the writer drains it.  Callers check the customer and the car
+	 * first, the way the foreign keys would.
+	 *
+	 * @param date the request date, "MM/DD/YYYY" or "YYYY-MM-DD"
+	 * @throws java.sql.SQLException for a date the database would not take, or when the journal could not be written
+	 */
+	public void openRequest(int rid, int customerId, String vin, String date, int odometer, String complain) throws SQLException {
+		LocalDate day = parseDate(date);
+		this._opened.put(rid, (int) day.toEpochDay());
+		try{
+			append(OPEN_REQUEST, rid, customerId, vin, day.toString(), odometer, complain);
+		}catch (SQLException e){
+			this._opened.remove(rid);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to journal the closing of a service request; it reaches
+	 * Closed_Request when the writer drains it.  Callers validate the request
+	 * with findOpenRequest() first.
+	 *
+	 * @param date the closing date, "MM/DD/YYYY" or "YYYY-MM-DD"
+	 * @throws java.sql.SQLException for a date the database would not take, or when the journal could not be written
+	 */
+	public void closeRequest(int wid, int rid, int mid, String date, String comment, int bill) throws SQLException {
+		LocalDate day = parseDate(date);
+		if (!this._closed.add(rid)) throw new SQLException("request " + rid + " is already closed", ShopOperations.UNIQUE_VIOLATION);
+		try{
+			append(CLOSE_REQUEST, wid, rid, mid, day.toString(), comment, bill);
+		}catch (SQLException e){
+			this._closed.remove(rid);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the date (days since 1970-01-01) of a request opened in the journal and not yet drained, or null
+	 */
+	public Integer pendingRequestDate(int rid){
+		return this._opened.get(rid);
+	}
+
+	/**
+	 * @return whether the request was closed in the journal and the closing is not yet drained
+	 */
+	public boolean isPendingClose(int rid){
+		return this._closed.contains(rid);
+	}
+
+	/**
+	 * @return the number of acknowledged records not yet in the database
+	 */
+	public synchronized long getBacklog(){
+		return this._opened.size() + this._closed.size();
+	}
+
+	static LocalDate parseDate(String date) throws SQLException {
+		if (date == null) throw new SQLException("missing date", INVALID_DATETIME_FORMAT);
+		String[] parts = date.trim().split(date.indexOf('/') >= 0 ? "/" : "-");
+		if (parts.length != 3) throw new SQLException("invalid date: " + date, INVALID_DATETIME_FORMAT);
+		try{
+			boolean iso = date.indexOf('/') < 0;
+			int year = Integer.parseInt(parts[iso ? 0 : 2].trim());
+			int month = Integer.parseInt(parts[iso ? 1 : 0].trim());
+			int day = Integer.parseInt(parts[iso ? 2 : 1].trim());
+			return LocalDate.of(year, month, day);
+		}catch (NumberFormatException e){
+			throw new SQLException("invalid date: " + date, INVALID_DATETIME_FORMAT);
+		}catch (DateTimeException e){
+			throw new SQLException("date out of range: " + date, DATETIME_FIELD_OVERFLOW);
+		}
+	}
+
+	/**
+	 * Method to append a record and wait until it is on disk.
+	 */
+	private void append(byte type, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		long seq;
+		try{
+			byte[] payload = encode(params);
+			synchronized (this){
+				if (this._failure != null) throw this._failure;
+				if (this._closing) throw new IOException("the intake journal is closed");
+				int size = PREFIX_BYTES + 9 + payload.length;
+				if (size > this._segmentBytes - HEADER_BYTES) throw new IOException("record of " + size + " bytes does not fit in a segment");
+				if (this._current.writePos + size > this._current.map.capacity()) roll();
+				seq = ++this._appended;
+				byte[] body = ByteBuffer.allocate(9 + payload.length).putLong(seq).put(type).put(payload).array();
+				CRC32 crc = new CRC32();
+				crc.update(body);
+				MappedByteBuffer map = this._current.map;
+				int pos = this._current.writePos;
+				map.putInt(pos + 4, (int) crc.getValue());
+				map.put(pos + PREFIX_BYTES, body);
+				map.putInt(pos, body.length);
+				this._current.writePos = pos + size;
+				notifyAll();
+				while (this._durable < seq && this._failure == null) wait();
+				if (this._durable < seq) throw this._failure;
+			}//end synchronized
+			this._esql.getMetrics().record("intakeAppend", start, false, 1, 0);
+		}catch (IOException e){
+			this._esql.getMetrics().record("intakeAppend", start, true, 0, 0);
+			throw new SQLException("Unable to write the intake journal: " + e.getMessage(), IO_ERROR, e);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the intake journal", IO_ERROR, e);
+		}
+	}
+
+	//called with the lock held: sync what is left of the segment and start the next one
+	private void roll() throws IOException {
+		try{
+			this._current.map.force();
+		}catch (UncheckedIOException e){
+			throw fail(e.getCause());
+		}
+		this._current.syncedPos = this._current.writePos;
+		this._durable = this._appended;
+		long next = this._current.number + 1;
+		this._current = map(next, segmentFile(next), this._segmentBytes, true);
+		this._segments.addLast(this._current);
+		notifyAll();
+	}
+
+	//called with the lock held
+	private IOException fail(IOException e){
+		if (this._failure == null){
+			this._failure = e;
+			System.err.println("The intake journal failed, no more requests are accepted: " + e.getMessage());
+		}//end if
+		notifyAll();
+		return this._failure;
+	}
+
+	/**
+	 * The flusher thread: one fsync for every record appended since the
+	 * last, then wake everyone who was waiting for theirs.
+	 */
+	private void flush(){
+		while (true){
+			Segment seg;
+			int from, to;
+			long target, records;
+			synchronized (this){
+				try{
+					while (this._appended == this._durable && !this._closing && this._failure == null) wait();
+				}catch (InterruptedException e){
+					return;
+				}
+				if (this._failure != null || this._appended == this._durable) return;
+				seg = this._current;
+				from = seg.syncedPos;
+				to = seg.writePos;
+				target = this._appended;
+				records = target - this._durable;
+			}//end synchronized
+			long start = System.nanoTime();
+			try{
+				if (to > from) seg.map.force(from, to - from);
+			}catch (UncheckedIOException e){
+				synchronized (this){ fail(e.getCause()); }
+				this._esql.getMetrics().record("intakeFsync", start, true, 0, 0);
+				return;
+			}
+			synchronized (this){
+				seg.syncedPos = Math.max(seg.syncedPos, to);
+				this._durable = Math.max(this._durable, target);
+				notifyAll();
+			}//end synchronized
+			this._esql.getMetrics().record("intakeFsync", start, false, records, to - from);
+		}//end while
+	}
+
+	/**
+	 * The writer thread: drain the records on disk in batches, waiting a
+	 * little for a partial batch to fill, until close() has nothing left.
+	 */
+	private void drain(){
+		long backoff = RETRY_MILLIS;
+		while (!this._stopped){
+			try{
+				synchronized (this){
+					while (!this._stopped && available() == 0){
+						if (this._closing && this._appended == this._durable) return;
+						wait();
+					}//end while
+					if (!this._closing && available() < this._batch) wait(this._drainMillis);
+				}//end synchronized
+				List<Record> batch = nextBatch();
+				if (batch.isEmpty()) continue;
+				apply(batch);
+				backoff = RETRY_MILLIS;
+			}catch (InterruptedException e){
+				return;
+			}catch (SQLException e){
+				//the database is unreachable: read again from the cursor and retry
+				System.err.println("Unable to drain the intake journal, retrying in " + backoff + "ms: " + e.getMessage());
+				try{
+					Thread.sleep(backoff);
+				}catch (InterruptedException e2){
+					return;
+				}
+				backoff = Math.min(backoff * 2, MAX_RETRY_MILLIS);
+			}catch (IOException | RuntimeException e){
+				System.err.println("The intake journal writer stopped, the rest is replayed at the next start: " + e);
+				return;
+			}
+		}//end while
+	}
+
+	//called with the lock held: records on disk and not yet drained
+	private long available(){
+		return this._durable - this._drained;
+	}
+
+	/**
+	 * Method to read the next records on disk, at most a batch of them,
+	 * without moving the read cursor.
+	 */
+	List<Record> nextBatch() throws IOException {
+		List<Record> batch = new ArrayList<Record>();
+		Segment seg;
+		int pos = this._readPos;
+		List<Segment> segments;
+		synchronized (this){
+			segments = new ArrayList<Segment>(this._segments);
+		}//end synchronized
+		int i = segments.indexOf(this._readSegment);
+		for (seg = this._readSegment; batch.size() < this._batch; ){
+			int synced;
+			synchronized (this){ synced = seg.syncedPos; }
+			Record r = pos < synced ? read(seg, pos, synced) : null;
+			if (r == null){
+				if (pos < synced) throw new IOException("corrupt record at " + pos + " in " + seg.file);
+				if (++i == segments.size()) break;
+				seg = segments.get(i);
+				pos = HEADER_BYTES;
+				continue;
+			}//end if
+			batch.add(r);
+			pos = r.end;
+		}//end for
+		return batch;
+	}
+
+	/**
+	 * Method to decode the record at pos, or return null at the end of the
+	 * records (zero length, past the limit or a bad checksum).
+	 */
+	static Record read(Segment seg, int pos, int limit) throws IOException {
+		if (pos + PREFIX_BYTES > limit) return null;
+		int length = seg.map.getInt(pos);
+		if (length < 9 || pos + PREFIX_BYTES + length > limit) return null;
+		byte[] body = new byte[length];
+		seg.map.get(pos + PREFIX_BYTES, body);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != seg.map.getInt(pos + 4)) return null;
+		ByteBuffer b = ByteBuffer.wrap(body);
+		long seq = b.getLong();
+		byte type = b.get();
+		if (type != OPEN_REQUEST && type != CLOSE_REQUEST) throw new IOException("unknown record type " + type + " in " + seg.file);
+		return new Record(seq, type, decode(body, 9), seg, pos + PREFIX_BYTES + length);
+	}
+
+	/**
+	 * Method to insert a batch in one transaction, then move the read cursor
+	 * past it, record the applied offset and delete the segments left behind.
+	 * When the database rejects the batch, each record is tried on its own
+	 * and the ones it still rejects go to rejects.tsv.
+	 *
+	 * @throws java.sql.SQLException when the database could not be reached; the cursor stays before the records not applied
+	 */
+	void apply(List<Record> batch) throws SQLException, IOException {
+		long start = System.nanoTime();
+		try{
+			this._esql.executeBatch(group(batch));
+			for (Record r : batch) applied(r);
+		}catch (SQLException e){
+			if (!rejected(e)){
+				this._esql.getMetrics().record("intakeDrain", start, true, 0, 0);
+				throw e;
+			}//end if
+			//one at a time, moving past each so a retry does not apply it twice
+			for (Record r : batch){
+				try{
+					this._esql.executeBatch(group(Collections.singletonList(r)));
+					applied(r);
+				}catch (SQLException e2){
+					if (!rejected(e2)){
+						this._esql.getMetrics().record("intakeDrain", start, true, 0, 0);
+						throw e2;
+					}//end if
+					reject(r, e2);
+				}
+				moveTo(r);
+			}//end for
+		}
+		moveTo(batch.get(batch.size() - 1));
+		this._esql.getMetrics().record("intakeDrain", start, false, batch.size(), 0);
+	}
+
+	/**
+	 * Method to move the read cursor past a record that is in the database
+	 * (or rejected), record it in the segment header and delete the segments
+	 * read to the end.
+	 */
+	private synchronized void moveTo(Record r){
+		while (this._segments.peekFirst() != r.segment) drop();
+		this._readSegment = r.segment;
+		this._readPos = r.end;
+		this._drained = r.seq;
+		r.segment.applied(r.end);
+		skipDrained();
+		notifyAll();
+	}
+
+	//called with the lock held: the segments behind the read cursor
+	private void skipDrained(){
+		while (this._readSegment != this._current && this._readPos == this._readSegment.writePos){
+			drop();
+			this._readSegment = this._segments.peekFirst();
+			this._readPos = this._readSegment.applied();
+		}//end while
+	}
+
+	private void drop(){
+		Segment done = this._segments.removeFirst();
+		done.close();
+		done.file.delete();
+	}
+
+	//service requests before closings, so a request closed in the same batch exists
+	private static Map<String, List<Object[]>> group(List<Record> batch){
+		Map<String, List<Object[]>> batches = new LinkedHashMap<String, List<Object[]>>();
+		batches.put(ShopOperations.JOURNAL_SERVICE_REQUEST, new ArrayList<Object[]>());
+		batches.put(ShopOperations.JOURNAL_CLOSED_REQUEST, new ArrayList<Object[]>());
+		for (Record r : batch) batches.get(r.sql()).add(r.params);
+		return batches;
+	}
+
+	//data errors (class 22) and constraint violations (class 23) are the record's fault, anything else the connection's
+	private static boolean rejected(SQLException e){
+		String state = e.getSQLState();
+		return state != null && (state.startsWith("22") || state.startsWith("23"));
+	}
+
+	private void applied(Record r){
+		ShopOperations.committed(this._esql, r.committedAs(), r.params);
+		forget(r);
+	}
+
+	private void forget(Record r){
+		if (r.type == OPEN_REQUEST) this._opened.remove((Integer) r.params[0]);
+		else this._closed.remove((Integer) r.params[1]);
+	}
+
+	private void reject(Record r, SQLException e) throws IOException {
+		forget(r);
+		StringBuilder line = new StringBuilder();
+		line.append(r.seq).append('\t').append(r.type == OPEN_REQUEST ? "Service_Request" : "Closed_Request")
+			.append('\t').append(e.getSQLState()).append(": ").append(e.getMessage().replace('\n', ' '));
+		for (Object p : r.params) line.append('\t').append(p);
+		try (Writer out = new BufferedWriter(new FileWriter(new File(this._dir, "rejects.tsv"), true))){
+			out.write(line.append('\n').toString());
+		}
+		System.err.println("Journaled request rejected by the database (see rejects.tsv): " + e.getMessage());
+	}
+
+	static byte[] encode(Object... params) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(params.length);
+		for (Object p : params){
+			if (p == null) out.writeByte('n');
+			else if (p instanceof Integer){
+				out.writeByte('i');
+				out.writeInt((Integer) p);
+			}else {
+				out.writeByte('s');
+				out.writeUTF(p.toString());
+			}//end if
+		}//end for
+		return bytes.toByteArray();
+	}
+
+	static Object[] decode(byte[] body, int offset) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, body.length - offset));
+		Object[] params = new Object[in.readUnsignedByte()];
+		for (int i = 0; i < params.length; ++i){
+			switch (in.readByte()){
+				case 'n': params[i] = null; break;
+				case 'i': params[i] = in.readInt(); break;
+				case 's': params[i] = in.readUTF(); break;
+				default: throw new IOException("corrupt parameter in record");
+			}//end switch
+		}//end for
+		return params;
+	}
+
+	/**
+	 * Method to stop taking records, let the writer drain what is left (for
+	 * up to CLOSE_MILLIS) and stop the threads.  Whatever is not drained by
+	 * then stays in the journal for the next start.
+	 */
+	public void close(){
+		synchronized (this){
+			if (this._closing) return;
+			this._closing = true;
+			notifyAll();
+		}//end synchronized
+		try{
+			if (this._flusher != null) this._flusher.join();
+			if (this._writer != null){
+				this._writer.join(CLOSE_MILLIS);
+				this._stopped = true;
+				this._writer.interrupt();
+				this._writer.join();
+			}//end if
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this){
+			long left = getBacklog();
+			if (left > 0) System.err.println(left + " journaled requests are not in the database yet, they are replayed at the next start");
+		}//end synchronized
+		release();
+	}
+
+	private synchronized void release(){
+		this._stopped = true;
+		for (Segment seg : this._segments) seg.close();
+		try{
+			this._lock.release();
+			this._lockChannel.close();
+		}catch (IOException e){
+			//closing the channel releases the lock anyway
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a lock-free latency histogram with log-linear buckets, in
+ * the manner of HdrHistogram: every power of two is split into 32 equal
+ * sub-buckets, so any recorded value is reported within about 3% while
+ * the whole range of a long takes under 2000 counters.  Recording is one
+ * bucket computation and two atomic increments.
+ *
+ */
+
+public class LatencyHistogram{
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one value, e.g. a latency in nanoseconds.  Negative
+	 * values are recorded as 0.
+	 */
+	public void record(long value){
+		if (value < 0) value = 0;
+		this._counts.incrementAndGet(bucket(value));
+		this._count.increment();
+		this._sum.add(value);
+		long max;
+		while (value > (max = this._max.get()) && !this._max.compareAndSet(max, value));
+	}
+
+	public long getCount(){ return this._count.sum(); }
+	public long getSum(){ return this._sum.sum(); }
+	public long getMax(){ return this._max.get(); }
+
+	public double getMean(){
+		long count = getCount();
+		return count == 0 ? 0.0 : (double) getSum() / count;
+	}
+
+	/**
+	 * Method to estimate a quantile from the buckets.  Values recorded while
+	 * it runs may or may not be counted.
+	 *
+	 * @param quantile between 0 and 1, e.g. 0.99
+	 * @return the middle of the bucket holding the quantile, or 0 when nothing was recorded
+	 */
+	public long getQuantile(double quantile){
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			counts[i] = this._counts.get(i);
+			total += counts[i];
+		}//end for
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += counts[i];
+			if (seen >= rank) return Math.min(middle(i), getMax());
+		}//end for
+		return getMax();
+	}
+
+	static int bucket(long value){
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long middle(int bucket){
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long width = 1L << (exponent - SUB_BITS);
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+		return lower + width / 2;
+	}
+}
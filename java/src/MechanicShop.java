@@ -13,17 +13,24 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Properties;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,86 +39,415 @@ import java.util.Scanner;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections, borrowed once per operation
+	private ConnectionPool _pool = null;
+	//ids reserved in blocks from the sequences in sql/create.sql
+	private final IdAllocator _ids = new IdAllocator(this);
+	//request counts per car for the top-k report, built on first use
+	private ServiceCountIndex _serviceCounts = null;
+	//report results, until a table they read is written
+	private final ReportCache _reports = new ReportCache();
+	//every VIN in Car, built on first use
+	private VinFilter _vins = null;
+	//latency histograms and counters of every data-access call and menu operation
+	private final Metrics _metrics = new Metrics(true);
+	//statements over the slow-query threshold, logged with their plans
+	private SlowQueryLog _slowQueries = null;
+	//creates the date partitions of the request tables ahead of time
+	private final PartitionManager _partitions = PartitionManager.fromProperties(this);
+	//new and closed requests acknowledged from a local journal, when -Dintake.journal is set
+	private IntakeJournal _journal = null;
+	//read replica for reports and listings, when -Dreplica.port is set
+	private ReplicaRouter _replica = null;
+	//rows looked up by key over and over at the counter
+	private final EntityCache<Integer, QueryResult> _customers =
+		new EntityCache<Integer, QueryResult>("customers", EntityCache.DEFAULT_CAPACITY, id -> row(ShopOperations.FIND_CUSTOMER, id));
+	private final EntityCache<Integer, QueryResult> _mechanics =
+		new EntityCache<Integer, QueryResult>("mechanics", EntityCache.DEFAULT_CAPACITY, id -> row(ShopOperations.FIND_MECHANIC, id));
+	private final EntityCache<String, QueryResult> _cars =
+		new EntityCache<String, QueryResult>("cars", EntityCache.DEFAULT_CAPACITY, vin -> row(ShopOperations.FIND_CAR, vin));
+	//rows fetched per round trip when streaming results to the terminal
+	private int _fetchSize = DEFAULT_FETCH_SIZE;
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	public static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	public static final int MAX_COLUMN_WIDTH = 32;
+	//rows per page in PrintCustomerList and PrintMechanicList
+	public static final int LIST_PAGE_SIZE = 20;
+	//metric names of the main menu choices, indexed by choice
+	static final String[] MENU_OPERATIONS = {null, "AddCustomer", "AddMechanic", "AddCar", "InsertServiceRequest",
+		"CloseServiceRequest", "ListCustomersWithBillLessThan100", "ListCustomersWithMoreThan20Cars",
+		"ListCarsBefore1995With50000Miles", "ListKCarsWithTheMostServices", "ListCustomersInDescendingOrderOfTheirTotalBill",
+		"Exit", "PrintCustomerList", "PrintMechanicList", "ExportToFile"};
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
-		System.out.print("Connecting to database...");
+		this(dbname, dbport, user, passwd, ConnectionPool.DEFAULT_MAX_SIZE);
+	}
+
+	public MechanicShop(String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
+		//progress goes to stderr so subcommand output on stdout stays machine-readable
+		System.err.print("Connecting to database...");
 		try{
 			// constructs the connection URL
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-			System.out.println ("Connection URL: " + url + "\n");
+			System.err.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
+			// server-prepare a statement the first time it is reused
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			props.setProperty("prepareThreshold", "1");
+			// send batched INSERTs as multi-row INSERTs
+			props.setProperty("reWriteBatchedInserts", "true");
+
+			// obtain a pool of physical connections and check that one opens
+	        this._pool = new ConnectionPool(url, props, poolSize, ConnectionPool.DEFAULT_MAX_WAIT_MILLIS,
+	        	ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, ConnectionPool.DEFAULT_MAX_LIFETIME_MILLIS);
+	        this._pool.release(this._pool.borrow());
+	        this._slowQueries = SlowQueryLog.fromProperties(this._pool);
+	        this._replica = ReplicaRouter.fromProperties(dbname, props, poolSize);
+	        System.err.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
-	        System.out.println("Make sure you started postgres on this machine");
+	        System.err.println("Make sure you started postgres on this machine");
 	        System.exit(-1);
 		}
+		//replays what a previous run left in the journal before anything reads the tables
+		try{
+			this._journal = IntakeJournal.fromProperties(this);
+		}catch(IOException | SQLException e){
+			System.err.println("Error - Unable to open the intake journal: " + e.getMessage());
+			System.exit(-1);
+		}
 	}
 	
+	/**
+	 * Method to bind positional parameters to a prepared statement.  Strings,
+	 * integers and dates are bound with their matching JDBC types; null is
+	 * bound as a SQL NULL.
+	 * 
+	 * @param stmt the prepared statement
+	 * @param params the values for each '?' placeholder, in order
+	 * @throws java.sql.SQLException when a value could not be bound
+	 */
+	static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			Object value = params[i];
+			if (value == null) stmt.setNull (i + 1, Types.VARCHAR);
+			else if (value instanceof String) stmt.setString (i + 1, (String) value);
+			else if (value instanceof Integer) stmt.setInt (i + 1, (Integer) value);
+			else if (value instanceof java.sql.Date) stmt.setDate (i + 1, (java.sql.Date) value);
+			else stmt.setObject (i + 1, value);
+		}//end for
+	}
+
+	/**
+	 * Method to flag a pooled connection whose failure means the socket is
+	 * gone, so the pool replaces it instead of handing it out again.
+	 * 
+	 * @param pc the borrowed connection
+	 * @param e the error raised while using it
+	 */
+	private static void checkBroken (ConnectionPool.PooledConnection pc, SQLException e) {
+		String state = e.getSQLState ();
+		try{
+			if ((state != null && state.startsWith ("08")) || pc.connection.isClosed ())
+				pc.markBroken ();
+		}catch (SQLException e2){
+			pc.markBroken ();
+		}//end try
+	}
+
+	/**
+	 * Method to record a finished statement in the metrics and, when it ran
+	 * over the threshold, the slow-query log.
+	 * 
+	 * @param method the execute method, as the metric name
+	 * @param params the bound values, or null when the statement cannot be explained
+	 * @param write true when the statement writes, so it is explained without running it
+	 */
+	private void finished (String method, String sql, Object[] params, boolean write, long start, boolean failed, long rows, long bytes){
+		this._metrics.record (method, start, failed, rows, bytes);
+		if (this._slowQueries != null) this._slowQueries.check (sql, params, write, start, rows, failed);
+	}
+
+	/**
+	 * Method to record, after a write committed, where the primary's WAL
+	 * stands, so reads from the replica wait until it has replayed that far.
+	 * It asks on the connection that wrote; without a replica it does nothing.
+	 * 
+	 * @param pc the connection the write committed on
+	 */
+	private void wrote (ConnectionPool.PooledConnection pc){
+		ReplicaRouter replica = this._replica;
+		if (replica == null) return;
+		long asked = System.nanoTime ();
+		try{
+			PreparedStatement stmt = pc.statements.prepare (ReplicaRouter.CURRENT_LSN);
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (rs.next ()){
+					replica.wrote (rs.getLong (1), asked);
+					return;
+				}//end if
+			}finally{
+				rs.close ();
+			}
+		}catch (SQLException e){
+			checkBroken (pc, e);
+		}
+		replica.writeUnknown ();
+	}
+
+	/**
+	 * Method to note a write that failed, and so may or may not have
+	 * committed: reads stay on the primary until the next write's position
+	 * is known.
+	 */
+	private void writeUnknown (){
+		if (this._replica != null) this._replica.writeUnknown ();
+	}
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public void executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		int rows = -1;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			// fetches the cached statement object
+			PreparedStatement stmt = pc.statements.prepare (sql);
+
+			// issues the update instruction
+			bind (stmt, params);
+			rows = stmt.executeUpdate ();
+			this._reports.written (sql);
+			wrote (pc);
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			writeUnknown ();
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			finished ("executeUpdate", sql, params, true, start, rows < 0, Math.max (rows, 0), 0);
+		}
+	}//end executeUpdate
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	/**
+	 * Method to execute a statement that writes and returns rows, e.g. a call
+	 * of one of the compound-write functions in sql/create.sql.  It runs in
+	 * its own transaction like executeUpdate.  The slow-query log explains it
+	 * without ANALYZE, since running it again would repeat the write.
+	 * 
+	 * @param sql the input SQL string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
+	 * @return the rows it returned
+	 * @throws java.sql.SQLException when the statement failed; nothing was applied
+	 */
+	public QueryResult executeWrite (String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		QueryResult result = null;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = pc.statements.prepare (sql);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			result = QueryResult.from (rs);
+			rs.close ();
+			this._reports.written (sql);
+			wrote (pc);
+			return result;
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			writeUnknown ();
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			finished ("executeWrite", sql, params, true, start, result == null, result == null ? 0 : result.getRowCount (), 0);
+		}
+	}//end executeWrite
 
-		// close the instruction
-	    stmt.close ();
-	}//end executeUpdate
+	/**
+	 * Method to execute many update statements in one transaction.  The rows
+	 * of each statement are sent with JDBC batching, statement by statement in
+	 * the map's iteration order, and committed together: either every row is
+	 * applied or, on an error, none is.
+	 * 
+	 * @param batches the rows (bound parameters) to run for each SQL string
+	 * @throws java.sql.SQLException when a statement failed; nothing was applied
+	 */
+	public void executeBatch (Map<String, List<Object[]>> batches) throws SQLException {
+		long start = System.nanoTime ();
+		boolean failed = true;
+		long rows = 0;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			//the pool rolls back and restores autocommit on release if we fail before the commit
+			pc.connection.setAutoCommit (false);
+			for (Map.Entry<String, List<Object[]>> batch : batches.entrySet ()){
+				if (batch.getValue ().isEmpty ()) continue;
+				PreparedStatement stmt = pc.statements.prepare (batch.getKey ());
+				for (Object[] params : batch.getValue ()){
+					bind (stmt, params);
+					stmt.addBatch ();
+				}//end for
+				stmt.executeBatch ();
+				rows += batch.getValue ().size ();
+			}//end for
+			pc.connection.commit ();
+			failed = false;
+			for (Map.Entry<String, List<Object[]>> batch : batches.entrySet ())
+				if (!batch.getValue ().isEmpty ()) this._reports.written (batch.getKey ());
+			wrote (pc);
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			writeUnknown ();
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			finished ("executeBatch", String.join ("\n", batches.keySet ()), null, true, start, failed, failed ? 0 : rows, 0);
+		}
+	}//end executeBatch
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out.  Rows are streamed through a server-side cursor, fetchSize
+	 * at a time, and written through one large buffer in fixed-width columns,
+	 * so memory use does not grow with the size of the result.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		long bytes = 0;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			//the driver only uses a cursor inside a transaction; the pool rolls it back on release
+			pc.connection.setAutoCommit (false);
+
+			//fetches the cached statement object
+			PreparedStatement stmt = pc.statements.prepare (query);
+			stmt.setFetchSize (this._fetchSize);
+
+			//issues the query instruction
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			int rows = 0;
+			int[] width = new int[numCol + 1];
+			for (int i = 1; i <= numCol; ++i)
+				width[i] = Math.max (rsmd.getColumnName (i).length (), Math.min (rsmd.getColumnDisplaySize (i), MAX_COLUMN_WIDTH));
+
+			//iterates through the result set and output them to standard out.
+			Writer out = new BufferedWriter (new OutputStreamWriter (System.out), OUTPUT_BUFFER_SIZE);
+			boolean outputHeader = true;
+			while (rs.next()){
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						writeColumn (out, rsmd.getColumnName (i), width[i]);
+				    }
+				    out.write ('\n');
+				    outputHeader = false;
+				}
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					if (value != null) bytes += value.length ();
+					writeColumn (out, value, width[i]);
+				}//end for
+				out.write ('\n');
+				++rows;
+			}//end while
+			out.flush ();
+			rs.close ();
+			rowCount = rows;
+			return rowCount;
+		}catch (IOException e){
+			throw new SQLException ("Unable to write query result: " + e.getMessage (), e);
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			finished ("executeQueryAndPrintResult", query, params, false, start, rowCount < 0, Math.max (rowCount, 0), bytes);
+		}
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to write one cell left-aligned in a fixed-width column.  Trailing
+	 * CHAR(n) padding is trimmed first; values wider than the column are
+	 * written in full followed by a single space.
+	 * 
+	 * @param out the buffered output
+	 * @param value the cell value, possibly null
+	 * @param width the column width
+	 * @throws java.io.IOException when the output fails
+	 */
+	private static void writeColumn (Writer out, String value, int width) throws IOException {
+		if (value == null) value = "null";
+		int end = value.length ();
+		while (end > 0 && value.charAt (end - 1) == ' ') --end;
+		out.write (value, 0, end);
+		for (int pad = Math.max (width - end, 0) + 1; pad > 0; --pad)
+			out.write (' ');
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to print rows computed in memory in the same layout as
+	 * executeQueryAndPrintResult.
+	 * 
+	 * @param names the column names
+	 * @param rows the cells of each row
+	 * @return the number of rows printed
+	 */
+	public static int printRows (String[] names, List<String[]> rows){
+		if (rows.isEmpty ()) return 0;
+		int[] width = new int[names.length];
+		for (int i = 0; i < names.length; ++i){
+			for (String[] row : rows)
+				width[i] = Math.max (width[i], row[i] == null ? 4 : row[i].length ());
+			width[i] = Math.max (names[i].length (), Math.min (width[i], MAX_COLUMN_WIDTH));
+		}//end for
+		try{
+			Writer out = new BufferedWriter (new OutputStreamWriter (System.out), OUTPUT_BUFFER_SIZE);
+			for (int i = 0; i < names.length; ++i)
+				writeColumn (out, names[i], width[i]);
+			out.write ('\n');
+			for (String[] row : rows){
+				for (int i = 0; i < names.length; ++i)
+					writeColumn (out, row[i], width[i]);
+				out.write ('\n');
+			}//end for
+			out.flush ();
+		}catch (IOException e){
+			System.err.println ("Unable to write result: " + e.getMessage ());
+		}
+		return rows.size ();
+	}
+
+	/**
+	 * Method to set how many rows the print path fetches per round trip.
+	 * 
+	 * @param fetchSize rows per fetch, at least 1
+	 */
+	public void setFetchSize (int fetchSize){
+		this._fetchSize = Math.max (1, fetchSize);
 	}
 	
 	/**
@@ -119,67 +455,215 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		List<List<String>> result = null;
+		long bytes = 0;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			//fetches the cached statement object 
+			PreparedStatement stmt = pc.statements.prepare (query); 
+			
+			//issues the query instruction 
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			List<List<String>> rows  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					if (value != null) bytes += value.length ();
+					record.add(value); 
+				}//end for
+				rows.add(record); 
+			}//end while 
+			rs.close (); 
+			result = rows;
+			return result; 
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			finished ("executeQueryAndReturnResult", query, params, false, start, result == null, result == null ? 0 : result.size (), bytes);
+		}
 	}//end executeQueryAndReturnResult
-	
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the results column by
+	 * column: integers and dates as primitive arrays, text trimmed of its
+	 * CHAR(n) padding.  Prefer this over executeQueryAndReturnResult, which
+	 * allocates a String and a List for every value and row.
+	 * 
+	 * @param query the input query string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
+	 * @return the query result with typed getters
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException {
+		return executeQueryAndReturnColumns (this._pool, "executeQueryAndReturnColumns", query, params);
+	}
+
+	private QueryResult executeQueryAndReturnColumns (ConnectionPool pool, String method, String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		QueryResult result = null;
+		ConnectionPool.PooledConnection pc = pool.borrow ();
+		try{
+			//fetches the cached statement object
+			PreparedStatement stmt = pc.statements.prepare (query);
+
+			//issues the query instruction and reads every row into columns
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			result = QueryResult.from (rs);
+			rs.close ();
+			return result;
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			throw e;
+		}finally{
+			pool.release (pc);
+			if (result == null) finished (method, query, params, false, start, true, 0, 0);
+			else finished (method, query, params, false, start, false, result.getRowCount (), result.estimateBytes ());
+		}
+	}//end executeQueryAndReturnColumns
+
+	/**
+	 * Method to execute a read-only query (a report, a listing or a lookup
+	 * that need not see the latest write) on the read replica when there is
+	 * one and it has replayed this instance's last write, and on the
+	 * primary otherwise.  A read the replica fails for lack of a connection,
+	 * or cancels for a conflict with recovery, runs again on the primary.
+	 * 
+	 * @param query the input query string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
+	 * @return the query result with typed getters
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeReadOnly (String query, Object... params) throws SQLException {
+		ReplicaRouter replica = this._replica;
+		if (replica == null || !replica.route ())
+			return executeQueryAndReturnColumns (query, params);
+		try{
+			return executeQueryAndReturnColumns (replica.getPool (), "executeReadOnly", query, params);
+		}catch (SQLException e){
+			if (!replica.fallBack (e)) throw e;
+			return executeQueryAndReturnColumns (query, params);
+		}
+	}//end executeReadOnly
+	
+	/**
+	 * Method to run a report query through the report cache: the result is
+	 * reused until a table it reads is written through this instance (or
+	 * the cache entry expires).  A miss is read with executeReadOnly, so
+	 * from the replica when there is one.
+	 * 
+	 * @param query the input query string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
+	 * @return the query result; callers must not modify it
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeReport (String query, Object... params) throws SQLException {
+		QueryResult result = this._reports.get (query, params);
+		if (result != null) return result;
+		ReportCache.Ticket ticket = this._reports.begin (query, params);
+		result = executeReadOnly (query, params);
+		this._reports.put (ticket, result);
+		return result;
+	}
+
+	/**
+	 * Method to run a report query through the report cache and print it in
+	 * the same layout as executeQueryAndPrintResult.
 	 * 
-	 * @param query the input query string
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeReportAndPrintResult (String query, Object... params) throws SQLException {
+		return printResult (executeReport (query, params));
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to print a result in the same layout as executeQueryAndPrintResult.
+	 * 
+	 * @return the number of rows printed
+	 */
+	public static int printResult (QueryResult result){
+		String[] names = new String[result.getColumnCount ()];
+		for (int c = 0; c < names.length; ++c) names[c] = result.getColumnName (c);
+		List<String[]> rows = new ArrayList<String[]>(result.getRowCount ());
+		for (int r = 0; r < result.getRowCount (); ++r){
+			String[] row = new String[names.length];
+			for (int c = 0; c < names.length; ++c) row[c] = result.getString (r, c);
+			rows.add (row);
+		}//end for
+		return printRows (names, rows);
+	}
 
-		int rowCount = 0;
+	public ReportCache getReportCache(){
+		return this._reports;
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 * 
+	 * @param query the input query string, using '?' for bound parameters
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			//fetches the cached statement object
+			PreparedStatement stmt = pc.statements.prepare (query);
+
+			//issues the query instruction
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+
+			int rows = 0;
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rows++;
+			}//end while
+			rs.close ();
+			rowCount = rows;
+			return rowCount;
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			finished ("executeQuery", query, params, false, start, rowCount < 0, Math.max (rowCount, 0), 0);
+		}
 	}
 	
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  currval is per session,
+	 * so with pooled connections this only sees nextval calls made on the
+	 * same physical connection.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -187,41 +671,207 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = pc.statements.prepare ("SELECT currval(?)");
+			
+			bind (stmt, sequence);
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			}finally{
+				rs.close ();
+			}
+		}catch (SQLException e){
+			checkBroken (pc, e);
+			throw e;
+		}finally{
+			this._pool.release (pc);
+		}
+	}
+
+	/**
+	 * Method to access the connection pool, e.g. to report its wait-time
+	 * metrics or share it with background jobs.
+	 * 
+	 * @return the pool backing this instance
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to access the per-operation latency histograms and counters,
+	 * e.g. to time a caller's own operations or export them.
+	 * 
+	 * @return the metrics registry of this instance
+	 */
+	public Metrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * Method to access the slow-query log, e.g. to change its threshold.
+	 * 
+	 * @return the slow-query log of this instance
+	 */
+	public SlowQueryLog getSlowQueryLog(){
+		return this._slowQueries;
+	}
+
+	/**
+	 * Method to access the partition manager, e.g. to start it in a
+	 * long-running process.
+	 * 
+	 * @return the partition manager of this instance
+	 */
+	public PartitionManager getPartitions(){
+		return this._partitions;
+	}
+
+	/**
+	 * Method to access the intake journal, which ShopOperations appends new
+	 * and closed requests to instead of inserting them.
+	 * 
+	 * @return the journal, or null when -Dintake.journal is not set
+	 */
+	public IntakeJournal getJournal(){
+		return this._journal;
+	}
+
+	/**
+	 * Method to access the read replica router, e.g. to report its lag.
+	 * 
+	 * @return the router, or null when -Dreplica.port is not set
+	 */
+	public ReplicaRouter getReplica(){
+		return this._replica;
+	}
+
+	/**
+	 * Method to access the in-memory request counts per car, scanning the
+	 * database once on first use.
+	 * 
+	 * @return the index, kept up to date by the insert paths in ShopOperations
+	 * @throws java.sql.SQLException when the bootstrap scan failed
+	 */
+	public synchronized ServiceCountIndex getServiceCounts() throws SQLException {
+		if (this._serviceCounts == null)
+			this._serviceCounts = ServiceCountIndex.bootstrap (this);
+		return this._serviceCounts;
+	}
+
+	/**
+	 * Method to access the request counts without building them.
+	 * 
+	 * @return the index, or null when nothing has used it yet
+	 */
+	public synchronized ServiceCountIndex peekServiceCounts(){
+		return this._serviceCounts;
+	}
+
+	/**
+	 * Method to access the Bloom filter over the VINs, scanning Car once on
+	 * first use.
+	 * 
+	 * @return the filter, kept up to date by the car insert paths in ShopOperations
+	 * @throws java.sql.SQLException when the scan failed
+	 */
+	public synchronized VinFilter getVinFilter() throws SQLException {
+		if (this._vins == null)
+			this._vins = VinFilter.build (this);
+		return this._vins;
+	}
+
+	/**
+	 * Method to access the VIN filter without building it.
+	 * 
+	 * @return the filter, or null when nothing has used it yet
+	 */
+	public synchronized VinFilter peekVinFilter(){
+		return this._vins;
+	}
+
+	public EntityCache<Integer, QueryResult> getCustomers(){ return this._customers; }
+	public EntityCache<Integer, QueryResult> getMechanics(){ return this._mechanics; }
+	public EntityCache<String, QueryResult> getCars(){ return this._cars; }
+
+	/**
+	 * Method to drop every cached row, e.g. after rows were deleted.
+	 */
+	public void clearEntityCaches(){
+		this._customers.clear ();
+		this._mechanics.clear ();
+		this._cars.clear ();
+	}
+
+	/**
+	 * Method to summarize the entity cache counters.
+	 * 
+	 * @return one line per cache
+	 */
+	public String getEntityCacheStats(){
+		return this._customers.getStats () + "\n" + this._mechanics.getStats () + "\n" + this._cars.getStats ();
+	}
+
+	/**
+	 * Method to read the single row a primary key lookup returns.
+	 * 
+	 * @return the row, or null when there is none
+	 */
+	private QueryResult row (String query, Object key) throws SQLException {
+		QueryResult r = executeQueryAndReturnColumns (query, key);
+		return r.getRowCount () == 0 ? null : r.trimToSize ();
+	}
+
+	/**
+	 * Method to close the pooled physical connections if they are open.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		//drains the journal while the pool is still open
+		if (this._journal != null) this._journal.close ();
+		this._metrics.close ();
+		this._partitions.close ();
+		if (this._slowQueries != null) this._slowQueries.close ();
+		if (this._replica != null) this._replica.close ();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
 	 * The main execution method
 	 * 
-	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>,
+	 *             optionally followed by a subcommand (see ShopCommands) to run instead of the menu
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
-			return;
+		            " <dbname> <port> <user> [<command> [--option value ...] | batch <file|->]");
+			System.err.print (ShopCommands.USAGE);
+			System.exit (ShopCommands.EXIT_USAGE);
 		}//end if
 		
 		MechanicShop esql = null;
 		
+		if (args.length > 3) {
+			// non-interactive: run one subcommand (or a batch file of them) and exit with its status
+			int status = ShopCommands.EXIT_FAILED;
+			try{
+				esql = new MechanicShop (args[0], args[1], args[2], "");
+				esql._metrics.startExports ();
+				status = new ShopCommands (esql, System.out).run (Arrays.copyOfRange (args, 3, args.length));
+			}catch(SQLException e){
+				System.err.println (e.getMessage ());
+			}finally{
+				if (esql != null) esql.cleanup ();
+			}
+			System.exit (status);
+		}//end if
+		
 		try{
 			System.out.println("(1)");
 			
@@ -240,6 +890,21 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			esql._metrics.startExports ();
+			esql._partitions.start ();
+			
+			//one scan up front so report 9 never groups Service_Request
+			try{
+				esql.getServiceCounts ();
+			}catch(SQLException e){
+				System.err.println ("Unable to load service counts, report 9 will retry: " + e.getMessage ());
+			}
+			//and one of the VINs so new cars are checked without a query
+			try{
+				esql.getVinFilter ();
+			}catch(SQLException e){
+				System.err.println ("Unable to load the VIN filter, adding a car will retry: " + e.getMessage ());
+			}
 			
 			boolean keepon = true;
 			while(keepon){
@@ -258,24 +923,38 @@ public class MechanicShop{
 				System.out.println("11. < EXIT");
 				System.out.println("12. PrintCustomerList");
 				System.out.println("13. PrintMechanicList");
+				System.out.println("14. ExportToFile");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
 				 */
-				switch (readChoice()){
-					case 1: AddCustomer(esql); break;
-					case 2: AddMechanic(esql); break;
-					case 3: AddCar(esql); break;
-					case 4: InsertServiceRequest(esql); break;
-					case 5: CloseServiceRequest(esql); break;
-					case 6: ListCustomersWithBillLessThan100(esql); break;
-					case 7: ListCustomersWithMoreThan20Cars(esql); break;
-					case 8: ListCarsBefore1995With50000Miles(esql); break;
-					case 9: ListKCarsWithTheMostServices(esql); break;
-					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
-					case 12: PrintCustomerList(esql); break;
-					case 13: PrintMechanicList(esql); break;
+				int choice = readChoice();
+				//each operation is timed from the choice to its return, prompts included
+				long start = System.nanoTime();
+				boolean failed = true;
+				String previous = SlowQueryLog.setOperation(choice > 0 && choice < MENU_OPERATIONS.length ? MENU_OPERATIONS[choice] : null);
+				try{
+					switch (choice){
+						case 1: AddCustomer(esql); break;
+						case 2: AddMechanic(esql); break;
+						case 3: AddCar(esql); break;
+						case 4: InsertServiceRequest(esql); break;
+						case 5: CloseServiceRequest(esql); break;
+						case 6: ListCustomersWithBillLessThan100(esql); break;
+						case 7: ListCustomersWithMoreThan20Cars(esql); break;
+						case 8: ListCarsBefore1995With50000Miles(esql); break;
+						case 9: ListKCarsWithTheMostServices(esql); break;
+						case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
+						case 11: keepon = false; break;
+						case 12: PrintCustomerList(esql); break;
+						case 13: PrintMechanicList(esql); break;
+						case 14: ExportToFile(esql); break;
+					}
+					failed = false;
+				}finally{
+					SlowQueryLog.setOperation(previous);
+					if (choice > 0 && choice < MENU_OPERATIONS.length && choice != 11)
+						esql._metrics.record("menu." + MENU_OPERATIONS[choice], start, failed, 0, 0);
 				}
 			}
 		}catch(Exception e){
@@ -298,8 +977,9 @@ public class MechanicShop{
 		// returns only if a correct value is given.
 		do {
 			System.out.print("Please make your choice: ");
-			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+			String line = readLine();
+			try { // parse the integer and break.
+				input = Integer.parseInt(line.trim());
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
@@ -308,6 +988,43 @@ public class MechanicShop{
 		}while (true);
 		return input;
 	}//end readChoice
+
+	/**
+	 * Method to read one line of user input.  Every prompt reads through the
+	 * shared reader "in", so input piped into the program is never split
+	 * between several buffers.
+	 *
+	 * @return the line, without its terminator
+	 * @throws IllegalStateException at the end of the input
+	 */
+	public static String readLine() {
+		String line = null;
+		try {
+			line = in.readLine();
+		}catch (IOException e) {
+			// treated like the end of the input
+		}//end try
+		if (line == null) throw new IllegalStateException("End of input");
+		return line;
+	}//end readLine
+
+	/**
+	 * Method to read a whole line of user input as an integer, asking again
+	 * until one is given.
+	 *
+	 * @return the integer
+	 * @throws IllegalStateException at the end of the input
+	 */
+	public static int readInt() {
+		do {
+			String line = readLine();
+			try {
+				return Integer.parseInt(line.trim());
+			}catch (NumberFormatException e) {
+				System.out.print("Your input is invalid! Please enter a number: ");
+			}//end try
+		}while (true);
+	}//end readInt
 	
 	/* ADD CUSTOMER FUNCTION DESCRIPTION
 	 *	Function: 	AddCustomer
@@ -316,41 +1033,26 @@ public class MechanicShop{
 	 *	Output: 	void
 	 *	Summary: 	Function that executes the pSQL query for adding an item to the Customer table.
 	 *	Code Flow:
-	 *			Line 1-4) Instantiating necessary variables
-	 *			Line 5) Tries to insert the information "customerInfo" into the customer table
-	 *			Line 6) If an error is caught it will prompt the user with the possible error
-	 *			Line 7) Instantiates carInfo with data input by the user
-	 *			Line 8) Sets the VIN# for use in the Owns table
-	 *			Line 9) Tries to insert the information "carInfo" into the Car table
-	 *			Line 10) Tries to insert the information on the relationship between car and owner
-	 *			Line 11) If an error is caught it will prompt the user with the possible error 
+	 *			Line 1-2) Instantiates customerInfo and carInfo with data input by the user
+	 *			Line 3) Tries to insert the customer, the car and the relationship between car and owner
+	 *			in one call (ShopOperations.addCustomerWithCar): either all three rows are added or none is
+	 *			Line 4) If an error is caught it will prompt the user with the possible error
 	*/
 	public static void AddCustomer(MechanicShop esql) throws SQLException, Exception {//1
 		/* PSQL CUSTOMER TABLE DATA INSERTION */
-		String customerInfo = GetCustomerInfo(esql),
-				customerID = customerInfo.substring(0, customerInfo.indexOf(',')),
-				 carInfo = "",
-				  vin = "";
-
-		try	{ esql.executeUpdate("INSERT INTO Customer (id, fname, lname, phone, address) VALUES (" + customerInfo + ");"); }
-		catch (SQLException e) { 
-			System.out.println("Invalid Input: " + e.toString()); 
-			System.out.println("Hit Enter To Continue...");
-			try { System.in.read(); } catch(Exception e2) {}
-			ClearScreen();
-			return;
+		String[] customerInfo = GetCustomerInfo(esql);
+		Object[] carInfo = GetCarInfo(esql);
+
+		try	{
+			int[] ids = ShopOperations.addCustomerWithCar(esql, customerInfo[0], customerInfo[1], customerInfo[2], customerInfo[3],
+				(String) carInfo[0], (String) carInfo[1], (String) carInfo[2], (Integer) carInfo[3]);
+			System.out.println("New Customer ID:" + Integer.toString(ids[0]));
+			System.out.println("New Ownership ID:" + Integer.toString(ids[1]));
 		}
-
-		carInfo = GetCarInfo(esql);
-		vin = carInfo.substring(0,18);
-		try {
-			esql.executeUpdate("INSERT INTO Car (vin, make, model, year) VALUES (" + carInfo + ");"); 
-			esql.executeUpdate("INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (" + (GetHighestID(esql, "Owns", "ownership_id") + 1) + "," + customerID + "," + vin + ");"); 
-		}
-		catch(SQLException e) { System.out.println("Error processing car request: " + e.toString() + "\nTry adding the car again."); }
+		catch (SQLException e) { System.out.println("Invalid Input: " + e.toString() + "\nNeither the customer nor the car was added."); }
 		
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	
@@ -361,20 +1063,21 @@ public class MechanicShop{
 	 * 	Output: 	void
 	 *  	Summary:	Function that executes the pSQL query for adding an item to the Customer table.
 	 *  	Code Flow: 	
-	 * 			Line 1) Function is called and tries to perform execute function passing the string "INSERT INTO
-	 * 			the Mechanic table with values (id, first name, last name, years of experience" plus the input
-	 * 			data obtained from the user from the GetMechanicInfo function.
+	 * 			Line 1) Function is called and tries to add a Mechanic (first name, last name, years of experience)
+	 * 			through ShopOperations.addMechanic using the input data obtained from the user from the GetMechanicInfo
+	 * 			function. The new ID is printed.
 	 * 			Line 2) If the pSQL query fails the user will be prompted with "Invalid input:" plus the pSQL
 	 * 			error message. Otherwise, the function skips this line signaling successful addition of new item
 	 * 			into the Mechanic table.
 	*/
 	public static void AddMechanic(MechanicShop esql) throws SQLException, Exception {//2
 		/* PSQL MECHANIC DATA INSERTION */
-		try { esql.executeUpdate("INSERT INTO Mechanic (id, fname, lname, experience) VALUES (" + GetMechanicInfo(esql) + ");"); }
+		Object[] mechanicInfo = GetMechanicInfo(esql);
+		try { System.out.println("New Mechanic ID:" + Integer.toString(ShopOperations.addMechanic(esql, (String) mechanicInfo[0], (String) mechanicInfo[1], (Integer) mechanicInfo[2]))); }
 		catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
 
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	
@@ -399,52 +1102,50 @@ public class MechanicShop{
 	*/
 	public static void AddCar(MechanicShop esql) throws SQLException, Exception {//3
 		/* VARIABLES USED: SEARCH CUSTOMER */
-		Scanner input = new Scanner(System.in);
 		String fname = "",
-				lname = "",
-				 carInfo = GetCarInfo(esql),
-				  vin = carInfo.substring(0,18);
+				lname = "";
+		Object[] carInfo = GetCarInfo(esql);
+		String vin = (String) carInfo[0], make = (String) carInfo[1], model = (String) carInfo[2];
+		int year = (Integer) carInfo[3];
 		int choiceInput = 0, c_id = 0;
-		List<List<String>> customerList = null;
+		QueryResult customerList = null;
 
 		/* PSQL CAR DATA INSERTION */
 		//try { esql.executeUpdate("INSERT INTO Car (vin, make, model, year) VALUES (" + GetCarInfo(esql) + ");"); }
 		//catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
 
-		System.out.print("Enter the owner's first name: "); fname = input.nextLine();
-		System.out.print("Enter the owner's last name: ");  lname = input.nextLine();
+		System.out.print("Enter the owner's first name: "); fname = readLine();
+		System.out.print("Enter the owner's last name: ");  lname = readLine();
 
 		try{
-			customerList = esql.executeQueryAndReturnResult("SELECT id, fname, lname, phone FROM Customer WHERE fname = \'" + fname + "\' AND lname = \'" + lname + "\';");
-			if(customerList.size() == 0) { System.out.println("Customer does not exist. Add customer to the database before trying again."); }
-			else if(customerList.size() == 1) {
-				esql.executeUpdate("INSERT INTO Car (vin, make, model, year) VALUES (" + carInfo + ");");
-				esql.executeUpdate("INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (" + (GetHighestID(esql, "Owns", "ownership_id") + 1) + "," + customerList.get(0).get(0) + "," + vin + ");");
+			customerList = ShopOperations.findCustomersByName(esql, fname, lname);
+			if(customerList.getRowCount() == 0) { System.out.println("Customer does not exist. Add customer to the database before trying again."); }
+			else if(customerList.getRowCount() == 1) {
+				ShopOperations.addCarForCustomer(esql, customerList.getInt(0, 0), vin, make, model, year);
 			}
 			else {
 				System.out.println("Select a customer:");
-				for (int pos = 0; pos < customerList.size(); pos++){ 
-					String phone = customerList.get(pos).get(3).replaceAll("\\s",""); //
-					String ln = customerList.get(pos).get(2).replaceAll("\\s",""); //remove whitespace with regex
-					String fn = customerList.get(pos).get(1).replaceAll("\\s",""); //remove whitespace with regex
+				for (int pos = 0; pos < customerList.getRowCount(); pos++){ 
+					String phone = customerList.getString(pos, 3); //CHAR padding is already trimmed
+					String ln = customerList.getString(pos, 2);
+					String fn = customerList.getString(pos, 1);
 					System.out.println(Integer.toString(pos) + ". " + ln + ", " + fn + ", " + phone);
 				}
 				//Wait for userinput to choose a customer
 				do {
 					choiceInput = readChoice();
-					if ( choiceInput < customerList.size() & ( choiceInput > -1) ) break;
+					if ( choiceInput < customerList.getRowCount() & ( choiceInput > -1) ) break;
 				} while (true);
 
-				c_id = Integer.parseInt(customerList.get(choiceInput).get(0));
+				c_id = customerList.getInt(choiceInput, 0);
 
-				esql.executeUpdate("INSERT INTO Car (vin, make, model, year) VALUES (" + GetCarInfo(esql) + ");");
-				esql.executeUpdate("INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES " + (GetHighestID(esql, "Owns", "ownership_id") + 1) + "," + Integer.toString(c_id) + "," + vin + ");");
+				ShopOperations.addCarForCustomer(esql, c_id, vin, make, model, year);
 			}
 		}
 		catch(SQLException e) { System.out.println("Error Processing: " + e.toString()); }
 
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	
@@ -456,10 +1157,11 @@ public class MechanicShop{
 	 * 		Summary: Starts a service request 
 	 * 		Code Flow:
 	 * 			Phase 1) We collect the necessary information needed to initiate the service request.
-	 * 					 This starts by determining the customer. If they are not in the database, the user is prompted to add them. The respective query wil then be ran.
-	 * 					 We then determine the customer's car. If it is not in the database, the user is prompted to add it. The respective query will then be ran.
+	 * 					 This starts by determining the customer. If they are not in the database, the user is prompted to enter them.
+	 * 					 We then determine the customer's car. If it is not in the database, the user is prompted to enter it.
 	 * 			Phase 2) We collect the information for the service request we would like to insert.
 	 * 			Phase 3) Using the Customer's ID, the Car's VIN, and the Service Request information. Run the insertion query.
+	 * 					 A new customer and/or car is inserted by the same call, so either every row is added or none is.
 	 * 					 We include error handling for if the query fails. 
 	*/
 	public static void InsertServiceRequest(MechanicShop esql) throws SQLException, Exception {//4
@@ -467,14 +1169,15 @@ public class MechanicShop{
 
 		//VARIABLES: Customer
 		String lname = "";
-		String catchTest;
-		int ownership_id = -1;
+
+		//VARIABLES: a new customer and/or car, added together with the request
+		String[] newCustomer = null;
+		Object[] newCar = null;
 
 		//VARIABLES: UI;
-		Scanner input = new Scanner (System.in);
 		int choiceInput; //used in number-choices;
-		List<List<String>> customerList = null;
-		List<List<String>> carList = null;
+		QueryResult customerList = null;
+		QueryResult carList = null;
 		int c_id = -1; String vin = null;
 
 		//VARIABLES: Service Request
@@ -484,15 +1187,15 @@ public class MechanicShop{
 		String complain = null;
  
 		//Initialize Variables
-		System.out.print("Enter Customer Last Name: "); lname = input.nextLine();
+		System.out.print("Enter Customer Last Name: "); lname = readLine();
 
 		//Run Customer Query
-		try { customerList = esql.executeQueryAndReturnResult("SELECT * FROM Customer WHERE lname = \'" + lname + "\';"); }
+		try { customerList = ShopOperations.findCustomersByLastName(esql, lname); }
 		catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
 
 		//Acquire Customer Data
-		if (customerList != null){ //if the query returned a List<List<String>>
-			switch ( customerList.size() ){
+		if (customerList != null){ //if the query returned a result
+			switch ( customerList.getRowCount() ){
 
 				case 0: //no customer shows up. proceed to add a customer
 					System.out.print("There is no customer with the last name of \'" + lname + "\'. \nWould you like to initiate Add Customer procedure? <1 - Yes/ 2 - No>\n");
@@ -501,58 +1204,57 @@ public class MechanicShop{
 						choiceInput = readChoice();
 						switch (choiceInput){
 							case 1:
-								c_id = Integer.parseInt(esql.AddAndReturnCustomer(esql).get(0));
+								newCustomer = GetCustomerInfo(esql);
 								break;
 							case 2: return; //just exit
 							default: continue;
 						}
-					} while (c_id == -1);
+					} while (newCustomer == null);
 
 					break;
 				case 1: //only one customer shows up. 
-					c_id = Integer.parseInt(customerList.get(0).get(0));
+					c_id = customerList.getInt(0, 0);
 					break;
 				default: //more than one customer shows up. prompt for which customer;
 					System.out.println("Select a customer:");
-					for (int i = 0; i < customerList.size(); i ++){ //print customers
-						String ln = customerList.get(i).get(2).replaceAll("\\s",""); //remove whitespace with regex
-						String fn = customerList.get(i).get(1).replaceAll("\\s",""); //remove whitespace with regex
+					for (int i = 0; i < customerList.getRowCount(); i ++){ //print customers
+						String ln = customerList.getString(i, 2); //CHAR padding is already trimmed
+						String fn = customerList.getString(i, 1);
 						System.out.println(Integer.toString(i) + ". " + ln + ", " + fn);
 					}
 					//Wait for userinput to choose a customer
 					do {choiceInput = readChoice();
-						if ( choiceInput < customerList.size() & ( choiceInput > -1) ){break;}
+						if ( choiceInput < customerList.getRowCount() & ( choiceInput > -1) ){break;}
 					} while (true);
-					c_id = Integer.parseInt(customerList.get(choiceInput).get(0));
+					c_id = customerList.getInt(choiceInput, 0);
 					
 					break;
 			}
 
+			//A new customer has no cars yet
+			if (newCustomer != null){
+				System.out.println("Enter the new customer's car.");
+				newCar = GetCarInfo(esql);
+				vin = (String) newCar[0];
+			}
 			//Run Car Query.
-			try { carList = esql.executeQueryAndReturnResult("SELECT * FROM Owns WHERE customer_id = \'" + c_id + "\';"); }
-			catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
+			else {
+				try { carList = ShopOperations.findCarsOfCustomer(esql, c_id); }
+				catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
+			}
 
 			//Acquire Car Data (NOTE: this is very similar to the procedure for getting customer data)
-			if (carList != null){ //if the query returned a List<List<String>>
-				switch ( carList.size() ) {
+			if (carList != null){ //if the query returned a result
+				switch ( carList.getRowCount() ) {
 					case 0: //no cars showed up
 						System.out.print("There is no cars associated with this customer.\n Would you like to initiate Add Car procedure? <1 - Yes/ 2 - No>\n");
 						do {
 							choiceInput = readChoice();
 							switch (choiceInput){
 								case 1:
-									vin = esql.AddAndReturnCar(esql).get(0);
-									//create a unique ownership id
-									try{ownership_id = GetHighestID(esql,"Owns", "ownership_id") + 1;}
-									catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
-									System.out.println("New Ownership ID:" + Integer.toString(ownership_id));
-
-									String q = Integer.toString(ownership_id) + ", " + Integer.toString(c_id) + ",\'" + vin +"\'";
-
-									//run a new query adding the C_ID and VIN to the Owns table
-									try { esql.executeUpdate("INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (" + q + ");"); }
-									catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
-									
+									//the car and its ownership are added with the request
+									newCar = GetCarInfo(esql);
+									vin = (String) newCar[0];
 									break;
 								case 2: return; //just exit
 								default: continue;
@@ -561,21 +1263,24 @@ public class MechanicShop{
 						} while (vin == null );
 						break;
 					case 1: //only one car showed up
-						vin = carList.get(0).get(2);
+						vin = carList.getString(0, 2);
 						break;
 					default: //multiple cars showed up
 
 						System.out.println("Select a car VIN:");
-						for (int i = 0; i < carList.size(); i ++){ //print cars
-							String car_vin = carList.get(i).get(2).replaceAll("\\s",""); //remove whitespace with regex
+						for (int i = 0; i < carList.getRowCount(); i ++){ //print cars
+							String car_vin = carList.getString(i, 2);
+							QueryResult car = null;
+							try { car = ShopOperations.findCar(esql, car_vin); } //the customer's cars are usually cached from earlier visits
+							catch(SQLException e) { }
 							
-							System.out.println(Integer.toString(i) + ". VIN: " + car_vin);
+							System.out.println(Integer.toString(i) + ". VIN: " + car_vin + (car == null ? "" : " (" + car.getString(0, 3) + " " + car.getString(0, 1) + " " + car.getString(0, 2) + ")"));
 						}
 						//Wait for userinput to choose a car
 						do {choiceInput = readChoice();
-							if ( choiceInput < carList.size() & ( choiceInput > -1) ){break;}
+							if ( choiceInput < carList.getRowCount() & ( choiceInput > -1) ){break;}
 						} while (true);
-						vin = carList.get(choiceInput).get(2);
+						vin = carList.getString(choiceInput, 2);
 					
 						break;
 				}
@@ -584,24 +1289,35 @@ public class MechanicShop{
 			//---------Phase 2: Collect Service Request Details---------
 
 			//Prompt for Query Information
-			try{rid = GetHighestID(esql,"Service_Request", "rid") + 1;}
-			catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
-			System.out.println("New Request ID:" + Integer.toString(rid));
-			System.out.print("Enter Date (MM/DD/YYYY): ");  date = input.nextLine();
-			System.out.print("Enter Odometer Reading: "); odometer = input.nextInt(); catchTest = input.nextLine();
-			System.out.print("Enter Complaint: ");  complain = input.nextLine();
+			System.out.print("Enter Date (MM/DD/YYYY): ");  date = readLine();
+			System.out.print("Enter Odometer Reading: "); odometer = readInt();
+			System.out.print("Enter Complaint: ");  complain = readLine();
 			
 			
 			//---------Phase 3: Run Service Request Query---------
-			//Run Insertion Query for Service Request
-			String q = "\'" + rid + "\',\'" + c_id + "\',\'"  + vin + "\',\'"+ date + "\',\'" + odometer + "\',\'" + complain + "\'"; 
+			//Run Insertion Query for Service Request, with the new customer and/or car in the same transaction
 			/* PSQL CAR DATA INSERTION */
-			try { esql.executeUpdate("INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (" + q + ");"); }
-			catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
+			try {
+				if (newCustomer != null){
+					int[] ids = ShopOperations.openRequestForNewCustomer(esql, newCustomer[0], newCustomer[1], newCustomer[2], newCustomer[3],
+						vin, (String) newCar[1], (String) newCar[2], (Integer) newCar[3], date, odometer, complain);
+					rid = ids[0];
+					System.out.println("New Customer ID:" + Integer.toString(ids[1]));
+					System.out.println("New Ownership ID:" + Integer.toString(ids[2]));
+				}
+				else if (newCar != null){
+					int[] ids = ShopOperations.openRequestForNewCar(esql, c_id, vin, (String) newCar[1], (String) newCar[2], (Integer) newCar[3], date, odometer, complain);
+					rid = ids[0];
+					System.out.println("New Ownership ID:" + Integer.toString(ids[1]));
+				}
+				else rid = ShopOperations.insertServiceRequest(esql, c_id, vin, date, odometer, complain);
+				System.out.println("New Request ID:" + Integer.toString(rid));
+			}
+			catch(SQLException e) { System.out.println("Invalid Input: " + e.toString() + (newCar == null ? "" : "\nNothing was added.")); }
 		}
 		
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	/* CloseServiceRequest FUNCTION DESCRIPTION
@@ -622,19 +1338,16 @@ public class MechanicShop{
 	//---------Phase 1: Collect and Validate RID & Mechanic ID---------
 		
 		//VARIABLES: existing request
-		int rid; int mid; List<List<String>> record = null;
+		int rid; int mid; QueryResult record = null;
 
 		//VARIABLES: closing request
 		String date; int wid = -1;
 		String comment; int bill;
-
-		String catchTest;
-		Scanner input = new Scanner(System.in);
 		
 		//Given an RID
-		System.out.print("Enter Request ID #: ");  rid = input.nextInt(); catchTest = input.nextLine();
+		System.out.print("Enter Request ID #: ");  rid = readInt();
 		//And a mechanic ID
-		System.out.print("Enter Mechanic ID #: "); mid = input.nextInt(); catchTest = input.nextLine();
+		System.out.print("Enter Mechanic ID #: "); mid = readInt();
 		
 		//(check if both IDs are valid)
 		/* 
@@ -646,47 +1359,45 @@ public class MechanicShop{
 			Service_Request,
 			Mechanic
 		WHERE
-			Service_Request.rid = " + Integer.toString(rid) + "
+			Service_Request.rid = ?
 			AND
-			Mechanic.id = " + Integer.toString(mid) + "
+			Mechanic.id = ?
 			AND
-			Service_Request.rid NOT IN (
-				SELECT
-				closed_request.rid
-				FROM
-				Closed_Request
+			NOT EXISTS (
+				SELECT 1
+				FROM Closed_Request
+				WHERE Closed_Request.rid = Service_Request.rid
 			);
 		*/
-		try {record = esql.executeQueryAndReturnResult("SELECT Service_Request.rid, Service_Request.date, Mechanic.id FROM Service_Request, Mechanic WHERE Service_Request.rid = " + Integer.toString(rid) + " AND Mechanic.id = " + Integer.toString(mid) + " AND Service_Request.rid NOT IN (SELECT closed_request.rid FROM Closed_Request);"); }
+		//an unknown mechanic is rejected from the entity cache without querying the request
+		try {
+			if (ShopOperations.findMechanic(esql, mid) != null) record = ShopOperations.findOpenRequest(esql, rid, mid);
+		}
 		catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
 		System.out.println(record);
 		
 	//---------Phase 2: Validate Date and collect Closure Information---------
 		
-	if (record.size() == 1){ //only 1 record should show up, which contains a real rid and its date, additionally, a real mechanic id
+	if (record != null && record.getRowCount() == 1){ //only 1 record should show up, which contains a real rid and its date, additionally, a real mechanic id
 			//create a closing record
 
 			//prompt for date
-			System.out.print("Enter Request Closing Date (YYYY-MM-DD): "); date = input.nextLine();
+			System.out.print("Enter Request Closing Date (YYYY-MM-DD): "); date = readLine();
 			//check if inputed date is after the request's opening date
-			if ( Integer.parseInt(date.replaceAll("\\-","")) > Integer.parseInt(record.get(0).get(1).replaceAll("\\-","")) ){
-				//get unique WID
-				try{wid = GetHighestID(esql,"Closed_Request", "wid") + 1;}
-				catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
-				System.out.println("New Closed_Request ID:" + Integer.toString(wid));
-
+			if ( QueryResult.epochDay(date) > record.getEpochDay(0, 1) ){
 				//prompt for comment
-				System.out.print("Enter comment: "); comment = input.nextLine();
+				System.out.print("Enter comment: "); comment = readLine();
 				//prompt for bill
-				System.out.print("Enter bill: "); bill = input.nextInt(); catchTest = input.nextLine();
+				System.out.print("Enter bill: "); bill = readInt();
 		
 
 	//---------Phase 3: Run Query---------
 				if (bill > 0){
 					//run query
-					String q = wid + "," + rid + ", " + mid + ", \'" + date + "\', \'" + comment + "\'," + bill;
-					
-					try{esql.executeUpdate("INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) VALUES (" + q + ");");}
+					try{
+						wid = ShopOperations.closeServiceRequest(esql, rid, mid, date, comment, bill);
+						System.out.println("New Closed_Request ID:" + Integer.toString(wid));
+					}
 					catch(SQLException e) {System.out.println("Invalid Input: " + e.toString()); }
 				
 				}
@@ -699,7 +1410,7 @@ public class MechanicShop{
 	}
 
 	System.out.println("Hit Enter To Continue...");
-	try { System.in.read(); } catch(Exception e) {}
+	readLine();
 	ClearScreen();
 }
 	/* ListCustomersWithBillLessThan100 FUNCTION DESCRIPTION
@@ -722,18 +1433,18 @@ public class MechanicShop{
 				Closed_Request.comment, 
 				Customer.fname, 
 				Customer.lname 
-			FROM Customer 
-				FULL JOIN Service_Request ON Customer.id = Service_Request.customer_id
-				FULL JOIN Closed_Request ON Closed_Request.rid = Service_Request.rid
-			WHERE  Closed_Request.bill < 100;
+			FROM Closed_Request
+				JOIN Service_Request ON Closed_Request.rid = Service_Request.rid
+				JOIN Customer ON Customer.id = Service_Request.customer_id
+			WHERE Closed_Request.bill < 100;
 			*/
-			esql.executeQueryAndPrintResult("SELECT Closed_Request.date, Closed_Request.bill, Closed_Request.comment, Customer.fname, Customer.lname FROM Customer FULL JOIN Service_Request ON Customer.id = Service_Request.customer_id FULL JOIN Closed_Request ON Closed_Request.rid = Service_Request.rid WHERE  Closed_Request.bill < 100;");
+			esql.executeReportAndPrintResult(ShopOperations.REPORT_BILL_LESS_THAN_100);
 		} catch (SQLException e){
 			System.out.println("Error with Request: " + e.toString());
 		}
 
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	
@@ -745,20 +1456,19 @@ public class MechanicShop{
 	 *  	Summary:	Function that executes the pSQL query to print all customers in the table with more than 20 cars.
 	 *  	Code Flow: 	 
 	 * 			Line 1) Function tries to execute and print the results of the following pSQL query:
-	 * 			SELECT fname, lname
-	 * 			FROM Customer C
-	 * 			WHERE 20 < (SELECT COUNT(O.customer_id)
-	 * 				    FROM OWNS O
-	 * 				    WHERE C.id = O.customer_id).
+	 * 			SELECT C.fname, C.lname
+	 * 			FROM Customer_Summary S JOIN Customer C ON C.id = S.customer_id
+	 * 			WHERE S.cars_owned > 20.
+	 * 			(Customer_Summary.cars_owned is kept equal to the number of Owns rows of each customer by a trigger.)
 	 * 			Line 2) If the pSQL query fails the user will be prompted with "Error with request" plus the pSQL
 	 * 			error message. Otherwise, the function displays all customers that fit the relational query criteria.
 	*/
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql) throws SQLException, Exception {//7
-		try { esql.executeQueryAndPrintResult("SELECT fname, lname FROM Customer C WHERE 20 < (SELECT COUNT(O.customer_id) FROM OWNS O WHERE C.id = O.customer_id);"); }
+		try { esql.executeReportAndPrintResult(ShopOperations.REPORT_MORE_THAN_20_CARS); }
 		catch(SQLException e) { System.out.println("Error With Request: " + e.toString()); }
 
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	
@@ -780,11 +1490,11 @@ public class MechanicShop{
 	 * 			50000 miles on the odometer.
 	 */
 	public static void ListCarsBefore1995With50000Miles(MechanicShop esql) throws SQLException, Exception {//8
-		try { esql.executeQueryAndPrintResult("SELECT C.make, C.model, C.year FROM Car C, Service_Request S WHERE C.vin = S.car_vin AND C.year < 1995 AND S.odometer < 50000;"); }
+		try { esql.executeReportAndPrintResult(ShopOperations.REPORT_CARS_BEFORE_1995_UNDER_50000); }
 		catch(SQLException e) { System.out.println("Error With Request: " + e.toString()); }
 
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	/* ListKCarsWithTheMostServices FUNCTION DESCRIPTION
@@ -796,7 +1506,7 @@ public class MechanicShop{
 	 * 		Code Flow: 
 	 * 			-Commented below is the SQL query ran.
 	 * 			-Prompts the User for the number of cars.
-	 * 			-Executes the SQL query
+	 * 			-Reads the top k from the in-memory ServiceCountIndex, which gives the same rows without running the query
 	 * 			-Includes error handling
 	*/
 	public static void ListKCarsWithTheMostServices(MechanicShop esql) throws SQLException, Exception {//9
@@ -816,23 +1526,25 @@ public class MechanicShop{
 			car.year,
 			Service_Request.car_vin
 		ORDER BY requests DESC
-		LIMIT " + Integer.toString(k) + ";"
+		LIMIT ?;
 		*/
 		
-		int k; String catchTest;
-		Scanner input = new Scanner (System.in);
+		int k;
 
-		System.out.println("How many cars do you want to find?: "); k = input.nextInt();  catchTest = input.nextLine();
+		System.out.println("How many cars do you want to find?: "); k = readInt();
 		if (k > 0){
 			try {
-				esql.executeQueryAndPrintResult("SELECT Car.make, Car.model, Car.year, Service_Request.car_vin, COUNT(Service_Request.car_vin) as requests FROM Car, Service_Request WHERE Car.vin = Service_Request.car_vin GROUP BY car.make, car.model, car.year, Service_Request.car_vin ORDER BY requests DESC LIMIT " + Integer.toString(k) + ";");
+				List<String[]> rows = new ArrayList<String[]>();
+				for (ServiceCountIndex.Entry car : ShopOperations.topServicedCars(esql, k))
+					rows.add(new String[] {car.make, car.model, Integer.toString(car.year), car.vin, Integer.toString(car.requests)});
+				MechanicShop.printRows(new String[] {"make", "model", "year", "car_vin", "requests"}, rows);
 			} catch (SQLException e){
 				System.out.println("Error with Request: " + e.toString());
 			}
 		}
 		
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 
@@ -851,30 +1563,25 @@ public class MechanicShop{
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql) throws SQLException, Exception {//10
 		/*
 			SELECT
-				Customer.fname,
-				Customer.lname,
-				Customer.id as c_id,
-				SUM(Closed_Request_bill) as total_bill
-			FROM Customer,Service_Request, Closed_Request
-			WHERE
-				Customer.id = Service_Request.customer_id
-				AND
-				Closed_Request.rid = Service_Request.rid
-			GROUP BY
-				Customer.fname,
-				Customer.lname,
-				Customer.id
-			ORDER BY total_bill DESC
+				C.fname,
+				C.lname,
+				C.id as c_id,
+				S.total_bill
+			FROM Customer_Summary S JOIN Customer C ON C.id = S.customer_id
+			WHERE S.total_bill > 0
+			ORDER BY S.total_bill DESC
 			LIMIT 10;
+
+			(Customer_Summary.total_bill is the sum of the customer's Closed_Request bills, kept up to date by triggers)
 		*/
 		try {
-			esql.executeQueryAndPrintResult("SELECT Customer.fname, Customer.lname, Customer.id as c_id, SUM(Closed_Request.bill) as total_bill FROM Customer,Service_Request, Closed_Request WHERE Customer.id = Service_Request.customer_id AND Closed_Request.rid = Service_Request.rid GROUP BY Customer.fname, Customer.lname, Customer.id ORDER BY total_bill DESC LIMIT 10;");
+			esql.executeReportAndPrintResult(ShopOperations.REPORT_TOTAL_BILL_DESC);
 		} catch (SQLException e){
 			System.out.println("Error with Request: " + e.toString());
 		}
 		
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 	
@@ -886,110 +1593,95 @@ public class MechanicShop{
 	 *	Function: 	GetCustomerInfo
 	 *	Author: 	Dominic Renales, Krischin Layon
 	 *	Input:		void
-	 * 	Output:		String
-	 *  	Summary:	Function that returns a string from the user input for Customer table
+	 * 	Output:		String[]
+	 *  	Summary:	Function that returns the parameters from the user input for Customer table
 	 *  	Code Flow: 	
 	 * 			Line 1-7) Necessary variables for the customer table are declared and initialized. 
-	 * 			Line 8-10) Collects the highest used ID in the Customer table and assigns the "id" variable to 1 above it for a unique ID. 
+	 * 			(The new ID is assigned by ShopOperations.addCustomer when the row is inserted.)
 	 * 			Line 11) Prompts user to input the customer's first name and assigns that input to the "fname" variable.
 	 * 			Line 12) Prompts user to input the customer's last name and assigns that input to the "lname" variable.
 	 * 			Line 13) Prompts the user to input the customer's phone number and assigns that input to the "phone" variable.
 	 * 			Line 14) Prompts the user to input the customer's address and assigns that input to the "address" variable.
-	 * 			Line 15) Returns the string in the following format: "(id),'(fname)','(lname)','(phone)','(address)'".
+	 * 			Line 15) Returns the parameters in the following order: {fname, lname, phone, address}.
 	*/
-	public static String GetCustomerInfo(MechanicShop esql) {
+	public static String[] GetCustomerInfo(MechanicShop esql) {
 		/* VARIABLES USED: CUSTOMER */
-		int id = 0;
 		String fname = "",
 		        lname = "",
 		         phone = "",
-				  address = "",
-				   catchTest = "";
-		Scanner input = new Scanner(System.in);
+				  address = "";
 		
-		/* VARIABLE INITIALIZATION <:NOTES:> *catchTest variable used after nextInt to catch '\n' (hooray for brute force)* */
-		try{id = GetHighestID(esql,"Customer", "id") + 1;}
-		catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
-		System.out.println("New Customer ID:" + Integer.toString(id));
-		System.out.print("Enter Customer First Name: "); fname = input.nextLine();
-		System.out.print("Enter Customer Last Name: ");	 lname = input.nextLine();
-		System.out.print("Enter Customer Phone #: ");    phone = input.nextLine();
-		System.out.print("Enter Customer Address: ");    address = input.nextLine();
+		/* VARIABLE INITIALIZATION <:NOTES:> every prompt reads a whole line from the shared reader */
+		System.out.print("Enter Customer First Name: "); fname = readLine();
+		System.out.print("Enter Customer Last Name: ");	 lname = readLine();
+		System.out.print("Enter Customer Phone #: ");    phone = readLine();
+		System.out.print("Enter Customer Address: ");    address = readLine();
 
-		return Integer.toString(id) + ',' + '\'' + fname + '\'' + ',' + '\'' + lname + '\'' + ',' + '\'' + phone + '\'' + ',' + '\'' + address + "\'";
+		return new String[] { fname, lname, phone, address };
 	}
 
 	/* GETMECHANICINFO FUNCTION DESCRIPTION
 	 *	Function: 	GetMechanicInfo
 	 *	Author: 	Dominic Renales, Krischin Layon
 	 *	Input:		MechanicShop esql
-	 * 	Output:		void
-	 *  	Summary:	Function that returns a string from the user input for Mechanic table
+	 * 	Output:		Object[]
+	 *  	Summary:	Function that returns the parameters from the user input for Mechanic table
 	 *  	Code Flow: 	 
 	 * 			Line 1-6) Necessary info for the Mechanic table are declared and initialized.
-	 * 			Line 7-9) Gets the highest used ID in the Mechanic table and assigns the "id" to 1+ that value for a unique value.
+	 * 			(The new ID is assigned by ShopOperations.addMechanic when the row is inserted.)
 	 * 			Line 10) Prompts the user to input the Mechanic's first name and assigns that to the "fname" variable.
 	 * 			Line 11) Prompts the user to input the Mechanic's last name and assigns that to the "lname" variable.
 	 * 			Line 12) Prompts the user to input the Mechanic's years of experience and assigns that to the "years" variable.
-	 * 			Line 13) Returns the string in the following format: "(id),'(fname)','(lname)',years".
+	 * 			Line 13) Returns the parameters in the following order: {fname, lname, years}.
 	*/
-	public static String GetMechanicInfo(MechanicShop esql) {
+	public static Object[] GetMechanicInfo(MechanicShop esql) {
 		/* VARIABLES USED: MECHANIC */
-		int id = 0,
-			 years = 0;
+		int years = 0;
 		String fname = "",
-				lname = "",
-				 catchTest = "";
-		Scanner input = new Scanner(System.in);
+				lname = "";
 		
-		/* VARIABLE INITIALIZATION <:NOTES:> refer to catchTest notes in Customer comment */
-		//System.out.print("Enter Mechanic ID: ");                  id = input.nextInt(); catchTest = input.nextLine();
-		try{id = GetHighestID(esql,"Mechanic", "id") + 1;}
-		catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
-		System.out.println("New Mechanic ID:" + Integer.toString(id));
-
-		System.out.print("Enter Mechanic First Name: ");          fname = input.nextLine();
-		System.out.print("Enter Mechanic Last Name: ");           lname = input.nextLine();
-		System.out.print("Enter Mechanic Years of Experience: "); years = input.nextInt();
+		/* VARIABLE INITIALIZATION <:NOTES:> refer to notes in Customer comment */
+		System.out.print("Enter Mechanic First Name: ");          fname = readLine();
+		System.out.print("Enter Mechanic Last Name: ");           lname = readLine();
+		System.out.print("Enter Mechanic Years of Experience: "); years = readInt();
 
-		return Integer.toString(id) + ",\'" + fname + "\',\'" + lname + "\'," + years;
+		return new Object[] { fname, lname, years };
 	}
 
 	/* GETCARINFO FUNCTION DESCRIPTION
 	 *	Function: 	GetCarInfo
 	 *	Author: 	Dominic Renales, Krischin Layon
 	 *	Input:		void
-	 * 	Output:		String
-	 *  	Summary:	Function that returns a string from the user input for Car table 
+	 * 	Output:		Object[]
+	 *  	Summary:	Function that returns the parameters from the user input for Car table 
 	 *  	Code Flow: 	 
 	 * 			Line 1-6) Necessary info for Car table are declared and initialized.
 	 * 			Line 7-11) Prompts the user to input a unique VIN for the car. If it is unique, Assigns that to the "vin" variable. 
 	 * 			Line 12) Prompts the user to input the Car's make and assigns that to the "make" variable.
 	 * 			Line 13) Prompts the user to input the Car's model and assigns that to the "model" variable.
 	 * 			Line 14) Prompts the user to input the Car's year and assigns that to the "year" variable.
-	 * 			Line 15) Returns a string in the following format: "'(vin)','(make)','(model)',(year)". 
+	 * 			Line 15) Returns the parameters in the following order: {vin, make, model, year}. 
 	*/
-	public static String GetCarInfo(MechanicShop esql) {
+	public static Object[] GetCarInfo(MechanicShop esql) {
 		/* VARIABLES USED: CAR */
 		String vin = "",
 				make = "",
 				 model = "";
 		int year = 0;
-		Scanner input = new Scanner(System.in);
 		boolean IsUniqueVIN = false;
 
 		/* VARIABLE INITIALIZATION <:NOTES:> */
 		do{System.out.print("Enter Car VIN#: ");  
-		   vin = input.nextLine();
+		   vin = readLine();
 		   try{IsUniqueVIN = IsUniqueVIN(esql,vin);}
 		   catch(SQLException e){System.out.println("Invalid Input: " + e.toString()); }
 		} while(IsUniqueVIN == false);
 		
-		System.out.print("Enter Car Make: ");  make = input.nextLine();
-		System.out.print("Enter Car Model: "); model = input.nextLine();
-		System.out.print("Enter Car Year: ");  year = input.nextInt();
+		System.out.print("Enter Car Make: ");  make = readLine();
+		System.out.print("Enter Car Model: "); model = readLine();
+		System.out.print("Enter Car Year: ");  year = readInt();
 
-		return "\'" + vin + "\',\'" + make + "\',\'" + model + "\'," + Integer.toString(year);
+		return new Object[] { vin, make, model, year };
 	}
 	
 	/*
@@ -997,43 +1689,140 @@ public class MechanicShop{
 	 * Author: Dominic Renales
 	 * Input: MechanicShop
 	 * Output: None
-	 * Summary: Prints the id number and name of all customers
+	 * Summary: Pages through the id number and name of all customers in order of last name, first name
 	 * Code Flow:
-	 * 			Line 1) Tries to execute the following pSQL query
-	 * 				SELECT id, fname, lname
-	 * 				FROM Customer
-	 * 			Line 2) If an error is caught it will prompt the user
+	 * 			Line 1) Browses the Customer table page by page (see BrowseList)
 	*/
 	public static void PrintCustomerList(MechanicShop esql) throws SQLException, Exception {
-		try { esql.executeQueryAndPrintResult("SELECT id, fname, lname FROM Customer;"); }
-		catch(SQLException e) { System.out.println("Error With Request: " + e.toString()); }
-
-		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		BrowseList(esql, true);
 		ClearScreen();
 	}
 
 	/*
-	 * Function: PrintCustomerList
+	 * Function: PrintMechanicList
 	 * Author: Dominic Renales
 	 * Input: MechanicShop
 	 * Output: None
-	 * Summary: Prints the id number and name of all customers
+	 * Summary: Pages through the id number and name of all mechanics in order of last name, first name
 	 * Code Flow:
-	 * 			Line 1) Tries to execute the following pSQL query
-	 * 				SELECT id, fname, lname
-	 * 				FROM Mechanic
-	 * 			Line 2) If an error is caught it will prompt the user
+	 * 			Line 1) Browses the Mechanic table page by page (see BrowseList)
 	*/
 	public static void PrintMechanicList(MechanicShop esql) throws SQLException, Exception {
-		try { esql.executeQueryAndPrintResult("SELECT id, fname, lname FROM Mechanic;"); }
-		catch(SQLException e) { System.out.println("Error With Request: " + e.toString()); }
+		BrowseList(esql, false);
+		ClearScreen();
+	}
+
+	/* ExportToFile FUNCTION DESCRIPTION
+	 *	Function: 	ExportToFile
+	 *	Input:		MechanicShop esql
+	 * 	Output:		void
+	 * 		Summary: Writes a report or a whole table to a CSV file instead of the screen, for results too large to copy
+	 * 				 off the terminal.  The query runs as COPY (...) TO STDOUT and its bytes stream into the file
+	 * 				 (see CopyExport); a file name ending in .gz is gzip compressed.
+	 * 		Code Flow:
+	 * 			-Lists the reports and tables and prompts for one
+	 * 			-Prompts for k when the report is top-cars, then for the file name
+	 * 			-Runs the export and prints the number of rows written
+	 * 			-Includes error handling
+	*/
+	public static void ExportToFile(MechanicShop esql) throws SQLException, Exception {
+		System.out.println("Reports: " + String.join(", ", CopyExport.REPORTS));
+		System.out.println("Tables:  " + String.join(", ", CopyExport.TABLES.keySet()));
+		System.out.print("Enter report or table: "); String name = readLine().trim();
+		try {
+			String copy;
+			if (CopyExport.TABLES.containsKey(name)) copy = CopyExport.table(name);
+			else {
+				int k = 10;
+				if (name.equals("top-cars")) { System.out.print("How many cars do you want to find?: "); k = readInt(); }
+				copy = CopyExport.report(name, k, null, null);
+			}
+			System.out.print("Enter file name (.csv, or .csv.gz to compress): "); File file = new File(readLine().trim());
+			long rows = CopyExport.export(esql, copy, file);
+			System.out.println(rows + " rows written to " + file.getPath() + " (" + file.length() + " bytes)");
+		} catch (IllegalArgumentException e){
+			System.out.println("Invalid Input: " + e.getMessage());
+		} catch (SQLException | IOException e){
+			System.out.println("Error With Request: " + e.toString());
+		}
 
 		System.out.println("Hit Enter To Continue...");
-		try { System.in.read(); } catch(Exception e) {}
+		readLine();
 		ClearScreen();
 	}
 
+	/* BrowseList FUNCTION DESCRIPTION
+	 *	Function: 	BrowseList
+	 *	Input:		MechanicShop esql
+	 *				boolean customers - true for the Customer table, false for Mechanic
+	 * 	Output:		void
+	 * 		Summary: Prints the table one page at a time, ordered by (lname, fname, id), with next/previous paging
+	 * 				 and jump-to-name.  Pages are read with keyset predicates instead of OFFSET:
+	 * 					SELECT id, fname, lname FROM Customer
+	 * 					WHERE (lname, fname, id) > (<last row of this page>)
+	 * 					ORDER BY lname, fname, id LIMIT <page size>;
+	 * 				 so every page is one seek on the (lname, fname, id) index, however deep it is.
+	 * 		Code Flow:
+	 * 			-Prompts for the page size and prints the first page
+	 * 			-n reads the page after the last row shown, p the page before the first row shown
+	 * 			-j prompts for a last name and shows the page starting at the first name >= it
+	 * 			-q returns to the menu
+	*/
+	public static void BrowseList(MechanicShop esql, boolean customers) {
+		System.out.print("Enter page size (blank for " + LIST_PAGE_SIZE + "): ");
+		String input = readLine().trim();
+		int pageSize = LIST_PAGE_SIZE;
+		try { if (!input.isEmpty()) pageSize = Math.max(1, Integer.parseInt(input)); }
+		catch (NumberFormatException e) { System.out.println("Using " + LIST_PAGE_SIZE + " rows per page."); }
+
+		QueryResult page = null;
+		int pageNumber = 1;
+		try { page = ListPage(esql, customers, true, "", "", Integer.MIN_VALUE, pageSize); }
+		catch (SQLException e) { System.out.println("Error With Request: " + e.toString()); return; }
+
+		while (true){
+			if (page.getRowCount() == 0) System.out.println("(no rows)");
+			else {
+				System.out.println("Page " + pageNumber + ":");
+				printResult(page);
+			}
+			System.out.print("n = next page, p = previous page, j = jump to last name, q = back to menu: ");
+			String command = readLine().trim().toLowerCase();
+			if (command.equals("q")) return;
+			try {
+				QueryResult next = null;
+				int last = page.getRowCount() - 1;
+				switch (command){
+					case "n":
+						if (last < 0) break;
+						next = ListPage(esql, customers, true, page.getString(last, 2), page.getString(last, 1), page.getInt(last, 0), pageSize);
+						if (next.getRowCount() == 0) { System.out.println("This is the last page."); next = null; }
+						else ++pageNumber;
+						break;
+					case "p":
+						if (last < 0) break;
+						next = ListPage(esql, customers, false, page.getString(0, 2), page.getString(0, 1), page.getInt(0, 0), pageSize);
+						if (next.getRowCount() == 0) { System.out.println("This is the first page."); next = null; }
+						else --pageNumber;
+						break;
+					case "j":
+						System.out.print("Enter last name (or its first letters): ");
+						next = ListPage(esql, customers, true, readLine().trim(), "", Integer.MIN_VALUE, pageSize);
+						//the page number is unknown after a jump; count from there
+						pageNumber = 1;
+						break;
+				}
+				if (next != null) page = next;
+			}
+			catch (SQLException e) { System.out.println("Error With Request: " + e.toString()); }
+		}
+	}
+
+	private static QueryResult ListPage(MechanicShop esql, boolean customers, boolean forward, String lname, String fname, int id, int pageSize) throws SQLException {
+		if (customers) return forward ? ShopOperations.customersAfter(esql, lname, fname, id, pageSize) : ShopOperations.customersBefore(esql, lname, fname, id, pageSize);
+		return forward ? ShopOperations.mechanicsAfter(esql, lname, fname, id, pageSize) : ShopOperations.mechanicsBefore(esql, lname, fname, id, pageSize);
+	}
+
 	public static void ClearScreen() {   
 		System.out.print("\033[H\033[2J");   
 		System.out.flush();
@@ -1060,27 +1849,23 @@ public class MechanicShop{
 				make = "",
 				 model = "";
 		int year = 0;
-		Scanner input = new Scanner(System.in);
 		List<String> record = new ArrayList<String>();
 		boolean IsUniqueVIN = false;
 
 		/* VARIABLE INITIALIZATION <:NOTES:> */
 		do{System.out.print("Enter Car VIN#: ");  
-		   vin = input.nextLine();
+		   vin = readLine();
 		   try{IsUniqueVIN = IsUniqueVIN(esql,vin);}
 		   catch(SQLException e){System.out.println("Invalid Input: " + e.toString()); }
 		} while(IsUniqueVIN == false);
 		record.add(vin);
 
-		System.out.print("Enter Car Make: ");  make = input.nextLine(); record.add(make);
-		System.out.print("Enter Car Model: "); model = input.nextLine(); record.add(model);
-		System.out.print("Enter Car Year: ");  year = input.nextInt(); record.add(Integer.toString(year));
-
-		/* PSQL QUERY STRING */
-		String q = "\'" + vin + "\',\'" + make + "\',\'" + model + "\'," + Integer.toString(year); 
+		System.out.print("Enter Car Make: ");  make = readLine(); record.add(make);
+		System.out.print("Enter Car Model: "); model = readLine(); record.add(model);
+		System.out.print("Enter Car Year: ");  year = readInt(); record.add(Integer.toString(year));
 
 		/* PSQL CAR DATA INSERTION */
-		try { esql.executeUpdate("INSERT INTO Car (vin, make, model, year) VALUES (" + q + ");"); }
+		try { ShopOperations.addCar(esql, vin, make, model, year); }
 		catch(SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
 		
 		return record;
@@ -1095,36 +1880,25 @@ public class MechanicShop{
 	 * 				 This is needed for when a Customer is not in the database and we need to access the new entry's C_ID
 	 * 		Code Flow:
 	 * 				A combination of AddCustomer() and GetCustomerInfo().
-	 * 				There is a new List<String> called record which is appeneded to for every user input.
+	 * 				The new ID followed by every user input is put in a List<String> called record.
 	 * 				This record is returned. Note that it is in the same format as the records returned when Selection Queries are ran.
+	 * 				If the insertion fails the ID is "-1".
 	*/
 	public static List<String> AddAndReturnCustomer(MechanicShop esql) throws SQLException {//1
 		/* VARIABLES USED: CUSTOMER */
-		int id = 0;
-		String fname = "",
-		        lname = "",
-		         phone = "",
-				  address = "",
-				   catchTest = "";
-		Scanner input = new Scanner(System.in);
+		int id = -1;
+		String[] customerInfo = GetCustomerInfo(esql);
 		List<String> record = new ArrayList<String>();
-		
-		/* VARIABLE INITIALIZATION <:NOTES:> *catchTest variable used after nextInt to catch '\n' (hooray for brute force)* */
-		try{id = GetHighestID(esql,"Customer", "id") + 1;}
-		catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
-		System.out.println("New Customer ID:" + Integer.toString(id));
-		record.add(Integer.toString(id));
-		System.out.print("Enter Customer First Name: "); fname = input.nextLine(); record.add(fname);
-		System.out.print("Enter Customer Last Name: ");	 lname = input.nextLine(); record.add(lname);
-		System.out.print("Enter Customer Phone #: ");    phone = input.nextLine(); record.add(phone);
-		System.out.print("Enter Customer Address: ");    address = input.nextLine(); record.add(address);
 
-		String q = Integer.toString(id) + ',' + '\'' + fname + '\'' + ',' + '\'' + lname + '\'' + ',' + '\'' + phone + '\'' + ',' + '\'' + address + "\'";
-		
 		/* PSQL CUSTOMER TABLE DATA INSERTION */
-		try	{ esql.executeUpdate("INSERT INTO Customer (id, fname, lname, phone, address) VALUES (" + q + ");"); }
+		try	{
+			id = ShopOperations.addCustomer(esql, customerInfo[0], customerInfo[1], customerInfo[2], customerInfo[3]);
+			System.out.println("New Customer ID:" + Integer.toString(id));
+		}
 		catch (SQLException e) { System.out.println("Invalid Input: " + e.toString()); }
 
+		record.add(Integer.toString(id));
+		for (String value : customerInfo) record.add(value);
 		return record;
 	}
 
@@ -1138,42 +1912,67 @@ public class MechanicShop{
 	 * 				 This is useful for finding new unique values for C_ID, ownership_id, RID, MID, and WID, which are all incremental.
 	*/
 	public static int GetHighestID(MechanicShop esql, String tableName, String columnName) throws SQLException {
+		long start = System.nanoTime();
 		int id = -1;
 		/*
 			SELECT MAX(" + columnName + ")
 			FROM " + tableName + ";
 
+			(identifiers cannot be bound, but both come from our own code rather than the user)
 		*/
-		try{id = Integer.parseInt( esql.executeQueryAndReturnResult("SELECT MAX(" + columnName + ") FROM " + tableName + ";").get(0).get(0)) ; }
+		try{
+			QueryResult max = esql.executeQueryAndReturnColumns("SELECT MAX(" + columnName + ") FROM " + tableName + ";");
+			if (!max.isNull(0, 0)) id = max.getInt(0, 0);
+		}
 		catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
 
 		if (id == -1){
 			System.out.println("Query didn't return an integer.");
 		}
 
+		esql._metrics.record("GetHighestID", start, id == -1, 0, 0);
 		return id;
 	}
 
+	/* NextID FUNCTION DESCRIPTION
+	 *	Function:   NextID
+	 *	Input:		String tableName - the name of the table the new row goes into
+	 				String columnName - the name of the ID column
+	 * 	Output:		int
+	 * 		Summary: Returns a new unique ID for the specified table and column from the "<table>_<column>_seq" sequence.
+	 * 				 IDs are reserved from the database in blocks, so most calls are answered from memory and two clerks
+	 * 				 adding rows at the same time never receive the same ID (which could happen with GetHighestID() + 1).
+	*/
+	public static int NextID(MechanicShop esql, String tableName, String columnName) throws SQLException {
+		return esql._ids.next((tableName + "_" + columnName + "_seq").toLowerCase());
+	}
+
 	/* IsUniqueVIN FUNCTION DESCRIPTION
 	 *	Function:   GetHighestID
 	 *	Author: 	Krischin Layon
 	 *	Input:		String VIN - VIN to test.
 	 * 	Output:		bool
 	 * 		Summary: Since VIN is a 16-char string and VINs are not incremental, we have to test to see if the VIN is in the database
-	 * 				 We do this by running a selection query with the provided VIN 
-	 * 				 Returns False if a record is returned.
-	 * 				 Returns True if a record isn't returned.
+	 * 				 A Bloom filter over every VIN answers most new VINs without a query; a VIN it may contain
+	 * 				 is confirmed with a cheap EXISTS query (see ShopOperations.vinExists)
+	 * 				 Returns False if the car exists.
+	 * 				 Returns True if it doesn't.
 	*/
 	public static boolean IsUniqueVIN(MechanicShop esql, String VIN) throws SQLException {
 		/*
-			SELECT * FROM Car WHERE vin = \'" + VIN + "\';
+			SELECT 1 WHERE EXISTS (SELECT 1 FROM Car WHERE vin = ?);
+
+			(only run when the VIN filter may contain the VIN and the car is not cached)
 		*/
 
-		List<List<String>> record = null;
-		try{record = esql.executeQueryAndReturnResult("SELECT * FROM Car WHERE vin=\'" + VIN + "\';"); }
-		catch(SQLException e){ System.out.println("Invalid Input: " + e.toString()); }
+		long start = System.nanoTime();
+		boolean exists = false;
+		boolean failed = false;
+		try{exists = ShopOperations.vinExists(esql, VIN); }
+		catch(SQLException e){ failed = true; System.out.println("Invalid Input: " + e.toString()); }
+		esql._metrics.record("IsUniqueVIN", start, failed, 0, 0);
 
-		if (record.size() > 0){
+		if (exists){
 			System.out.println("\'" + VIN + "\' is not a unique VIN");
 			return false;
 		}
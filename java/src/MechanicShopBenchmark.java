@@ -0,0 +1,451 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class benchmarks the data-access core of every MechanicShop menu
+ * operation (see ShopOperations) against a live database.  Each operation is
+ * warmed up and then measured for a fixed time on a number of threads; the
+ * run reports throughput, latency percentiles and bytes allocated per
+ * operation, and writes the results as JSON or CSV so runs can be compared.
+ *
+ * Rows created by the insert benchmarks are marked ("bench" names and
+ * comments, "BN" VINs) and deleted at the end of the run unless --keep is
+ * given.  Use a scratch database all the same.
+ *
+ */
+
+public class MechanicShopBenchmark{
+	public static final int DEFAULT_WARMUP_SECONDS = 5;
+	public static final int DEFAULT_MEASURE_SECONDS = 10;
+	public static final int DEFAULT_K = 10;
+	public static final int SAMPLE_SIZE = 1000;
+
+	/**
+	 * One benchmarked operation.  prepare() runs outside the timed section and
+	 * builds the argument for run(), e.g. a fresh VIN or an open request.
+	 */
+	private interface Operation{
+		Object prepare(Fixture f, Random r) throws SQLException;
+		void run(MechanicShop esql, Object arg) throws SQLException;
+	}
+
+	/**
+	 * Existing keys sampled from the database once, before any benchmark runs.
+	 */
+	private static class Fixture{
+		final MechanicShop esql;
+		final int[] customerIds;
+		final int[] mechanicIds;
+		final String[] vins;
+		final int k;
+		//prefix for generated VINs, unique per run
+		final long vinBase = (System.currentTimeMillis() % 100000000L) * 100000L;
+		final AtomicLong counter = new AtomicLong();
+
+		Fixture(MechanicShop esql, int k) throws SQLException {
+			this.esql = esql;
+			this.k = k;
+			this.customerIds = ints(esql.executeQueryAndReturnColumns("SELECT id FROM Customer ORDER BY random() LIMIT ?;", SAMPLE_SIZE));
+			this.mechanicIds = ints(esql.executeQueryAndReturnColumns("SELECT id FROM Mechanic ORDER BY random() LIMIT ?;", SAMPLE_SIZE));
+			QueryResult cars = esql.executeQueryAndReturnColumns("SELECT vin FROM Car ORDER BY random() LIMIT ?;", SAMPLE_SIZE);
+			this.vins = new String[cars.getRowCount()];
+			for (int i = 0; i < this.vins.length; ++i) this.vins[i] = cars.getString(i, 0);
+			if (this.customerIds.length == 0 || this.mechanicIds.length == 0 || this.vins.length == 0)
+				throw new SQLException("The benchmark needs a loaded database (Customer, Mechanic and Car are empty)");
+		}
+
+		private static int[] ints(QueryResult r){
+			int[] values = new int[r.getRowCount()];
+			for (int i = 0; i < values.length; ++i) values[i] = r.getInt(i, 0);
+			return values;
+		}
+
+		String newVIN(){
+			return String.format("BN%014d", this.vinBase + this.counter.incrementAndGet());
+		}
+
+		int customer(Random r){ return this.customerIds[r.nextInt(this.customerIds.length)]; }
+		int mechanic(Random r){ return this.mechanicIds[r.nextInt(this.mechanicIds.length)]; }
+		String vin(Random r){ return this.vins[r.nextInt(this.vins.length)]; }
+	}
+
+	/**
+	 * Latencies and allocation of one thread during one measurement.
+	 */
+	private static class Recorder{
+		long[] latencies = new long[1 << 12];
+		int count = 0;
+		long allocated = 0;
+		long errors = 0;
+		SQLException lastError = null;
+
+		void record(long nanos){
+			if (this.count == this.latencies.length) this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+			this.latencies[this.count++] = nanos;
+		}
+	}
+
+	private static final Map<String, Operation> OPERATIONS = new LinkedHashMap<String, Operation>();
+	static {
+		OPERATIONS.put("add-customer", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.addCustomer(esql, "bench", "Bench", "(555)555-0100", "bench address");
+			}
+		});
+		OPERATIONS.put("add-mechanic", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.addMechanic(esql, "bench", "Bench", 10);
+			}
+		});
+		OPERATIONS.put("add-car", new Operation(){
+			public Object prepare(Fixture f, Random r){ return f.newVIN(); }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.addCar(esql, (String) arg, "Bench", "Bench", 2000);
+			}
+		});
+		OPERATIONS.put("add-car-for-customer", new Operation(){
+			public Object prepare(Fixture f, Random r){ return new Object[] {f.customer(r), f.newVIN()}; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				Object[] a = (Object[]) arg;
+				ShopOperations.addCarForCustomer(esql, (Integer) a[0], (String) a[1], "Bench", "Bench", 2000);
+			}
+		});
+		OPERATIONS.put("insert-service-request", new Operation(){
+			public Object prepare(Fixture f, Random r){ return new Object[] {f.customer(r), f.vin(r)}; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				Object[] a = (Object[]) arg;
+				ShopOperations.insertServiceRequest(esql, (Integer) a[0], (String) a[1], "2020-01-01", 1000, "bench");
+			}
+		});
+		OPERATIONS.put("close-service-request", new Operation(){
+			//opening the request is setup; the timed part is the lookup and the close, as in the menu
+			public Object prepare(Fixture f, Random r) throws SQLException {
+				int rid = ShopOperations.insertServiceRequest(f.esql, f.customer(r), f.vin(r), "2020-01-01", 1000, "bench");
+				return new int[] {rid, f.mechanic(r)};
+			}
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				int[] a = (int[]) arg;
+				QueryResult open = ShopOperations.findOpenRequest(esql, a[0], a[1]);
+				if (open.getRowCount() == 0) throw new SQLException("request " + a[0] + " is not open");
+				ShopOperations.closeServiceRequest(esql, a[0], a[1], "2020-01-02", "bench", 100);
+			}
+		});
+		OPERATIONS.put("is-unique-vin", new Operation(){
+			//a VIN that is not in the database, as when a clerk adds a car (a taken VIN would print a warning)
+			public Object prepare(Fixture f, Random r){ return f.newVIN(); }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				MechanicShop.IsUniqueVIN(esql, (String) arg);
+			}
+		});
+		OPERATIONS.put("get-highest-id", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				MechanicShop.GetHighestID(esql, "Service_Request", "rid");
+			}
+		});
+		OPERATIONS.put("bill-less-than-100", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.customersWithBillLessThan100(esql);
+			}
+		});
+		OPERATIONS.put("more-than-20-cars", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.customersWithMoreThan20Cars(esql);
+			}
+		});
+		OPERATIONS.put("cars-before-1995", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.carsBefore1995With50000Miles(esql);
+			}
+		});
+		OPERATIONS.put("k-most-serviced-cars", new Operation(){
+			public Object prepare(Fixture f, Random r){ return f.k; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.kCarsWithTheMostServices(esql, (Integer) arg);
+			}
+		});
+		OPERATIONS.put("k-most-serviced-cars-index", new Operation(){
+			//the bootstrap scan happens on the first (untimed) prepare
+			public Object prepare(Fixture f, Random r) throws SQLException {
+				f.esql.getServiceCounts();
+				return f.k;
+			}
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.topServicedCars(esql, (Integer) arg);
+			}
+		});
+		OPERATIONS.put("total-bill-desc", new Operation(){
+			public Object prepare(Fixture f, Random r){ return null; }
+			public void run(MechanicShop esql, Object arg) throws SQLException {
+				ShopOperations.customersInDescendingOrderOfTotalBill(esql);
+			}
+		});
+	}
+
+	private final MechanicShop _esql;
+	private final Fixture _fixture;
+	private final int _threads;
+	private final com.sun.management.ThreadMXBean _mx;
+
+	public MechanicShopBenchmark(MechanicShop esql, int threads, int k) throws SQLException {
+		this._esql = esql;
+		this._threads = threads;
+		this._fixture = new Fixture(esql, k);
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (mx instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()){
+			this._mx = (com.sun.management.ThreadMXBean) mx;
+			this._mx.setThreadAllocatedMemoryEnabled(true);
+		}
+		else this._mx = null;
+	}
+
+	/**
+	 * Method to run one operation on every thread for the given time.
+	 *
+	 * @return one recorder per thread
+	 * @throws java.lang.InterruptedException when interrupted while waiting for the threads
+	 */
+	private Recorder[] runFor(final Operation op, final long seconds) throws InterruptedException {
+		final Recorder[] recorders = new Recorder[this._threads];
+		Thread[] workers = new Thread[this._threads];
+		final long deadline = System.nanoTime() + seconds * 1000000000L;
+		for (int t = 0; t < this._threads; ++t){
+			final Recorder rec = recorders[t] = new Recorder();
+			final Random random = new Random(t);
+			workers[t] = new Thread(new Runnable(){
+				public void run(){
+					long tid = Thread.currentThread().getId();
+					while (System.nanoTime() < deadline){
+						try{
+							Object arg = op.prepare(_fixture, random);
+							long alloc = _mx == null ? 0 : _mx.getThreadAllocatedBytes(tid);
+							long start = System.nanoTime();
+							op.run(_esql, arg);
+							long elapsed = System.nanoTime() - start;
+							if (_mx != null) rec.allocated += _mx.getThreadAllocatedBytes(tid) - alloc;
+							rec.record(elapsed);
+						}
+						catch(SQLException e){
+							++rec.errors;
+							rec.lastError = e;
+						}
+					}//end while
+				}
+			}, "bench-" + t);
+			workers[t].start();
+		}//end for
+		for (Thread w : workers) w.join();
+		return recorders;
+	}
+
+	/**
+	 * Method to warm up and measure one operation.
+	 *
+	 * @return the result columns, in the order of RESULT_COLUMNS
+	 * @throws java.lang.InterruptedException when interrupted while waiting for the threads
+	 */
+	public Object[] measure(String name, int warmupSeconds, int measureSeconds) throws InterruptedException {
+		Operation op = OPERATIONS.get(name);
+		if (warmupSeconds > 0) runFor(op, warmupSeconds);
+		Recorder[] recorders = runFor(op, measureSeconds);
+
+		int count = 0;
+		long allocated = 0, errors = 0;
+		for (Recorder r : recorders){
+			count += r.count;
+			allocated += r.allocated;
+			errors += r.errors;
+			if (r.lastError != null) System.err.println(name + ": " + r.lastError.getMessage());
+		}//end for
+		long[] all = new long[count];
+		int at = 0;
+		for (Recorder r : recorders){
+			System.arraycopy(r.latencies, 0, all, at, r.count);
+			at += r.count;
+		}//end for
+		Arrays.sort(all);
+
+		return new Object[] {
+			name, this._threads, count, errors,
+			count / (double) measureSeconds,
+			micros(all, 0.50), micros(all, 0.90), micros(all, 0.99), micros(all, 0.999),
+			count == 0 ? 0.0 : all[count - 1] / 1000.0,
+			this._mx == null || count == 0 ? -1.0 : allocated / (double) count
+		};
+	}
+
+	public static final String[] RESULT_COLUMNS = {
+		"operation", "threads", "ops", "errors", "ops_per_sec",
+		"p50_us", "p90_us", "p99_us", "p999_us", "max_us", "alloc_bytes_per_op"
+	};
+
+	private static double micros(long[] sorted, double quantile){
+		if (sorted.length == 0) return 0.0;
+		int i = (int) Math.ceil(quantile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1000.0;
+	}
+
+	/**
+	 * Method to delete the rows the insert benchmarks created, in foreign key order.
+	 *
+	 * @throws java.sql.SQLException when a delete failed
+	 */
+	public void cleanup() throws SQLException {
+		this._esql.executeUpdate("DELETE FROM Closed_Request WHERE comment = 'bench' OR rid IN (SELECT rid FROM Service_Request WHERE complain = 'bench');");
+		this._esql.executeUpdate("DELETE FROM Service_Request WHERE complain = 'bench';");
+		this._esql.executeUpdate("DELETE FROM Owns WHERE car_vin LIKE 'BN%';");
+		this._esql.executeUpdate("DELETE FROM Car WHERE vin LIKE 'BN%';");
+		this._esql.executeUpdate("DELETE FROM Customer WHERE fname = 'bench';");
+		this._esql.executeUpdate("DELETE FROM Mechanic WHERE fname = 'bench';");
+		//the deleted rows may be cached
+		this._esql.clearEntityCaches();
+	}
+
+	private static void writeJSON(Writer out, String scale, List<Object[]> results) throws java.io.IOException {
+		out.write("[\n");
+		for (int r = 0; r < results.size(); ++r){
+			Object[] row = results.get(r);
+			out.write("  {\"scale\": \"" + scale.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+			for (int c = 0; c < row.length; ++c){
+				out.write(", \"" + RESULT_COLUMNS[c] + "\": ");
+				out.write(row[c] instanceof String ? "\"" + row[c] + "\"" : format(row[c]));
+			}//end for
+			out.write(r + 1 < results.size() ? "},\n" : "}\n");
+		}//end for
+		out.write("]\n");
+	}
+
+	private static void writeCSV(Writer out, String scale, List<Object[]> results) throws java.io.IOException {
+		out.write("scale," + String.join(",", RESULT_COLUMNS) + "\n");
+		for (Object[] row : results){
+			out.write(scale);
+			for (Object v : row) out.write("," + format(v));
+			out.write("\n");
+		}//end for
+	}
+
+	private static String format(Object v){
+		return v instanceof Double ? String.format("%.3f", (Double) v) : String.valueOf(v);
+	}
+
+	/**
+	 * The benchmark entry point
+	 *
+	 * @param args <dbname> <port> <user> [--ops a,b,...] [--threads N] [--warmup S] [--measure S] [--k K]
+	 *             [--data DIR [--scale LABEL]] [--format json|csv] [--out FILE] [--keep] [--report-cache]
+	 */
+	public static void main(String[] args){
+		if (args.length < 3){
+			System.err.println(
+				"Usage: java [-classpath <classpath>] " + MechanicShopBenchmark.class.getName() +
+				" <dbname> <port> <user> [--ops a,b,...] [--threads N] [--warmup S] [--measure S] [--k K]" +
+				" [--data DIR [--scale LABEL]] [--format json|csv] [--out FILE] [--keep] [--report-cache]");
+			System.err.println("Operations: " + String.join(", ", OPERATIONS.keySet()));
+			System.exit(2);
+		}//end if
+
+		List<String> ops = new ArrayList<String>(OPERATIONS.keySet());
+		int threads = 1, warmup = DEFAULT_WARMUP_SECONDS, measure = DEFAULT_MEASURE_SECONDS, k = DEFAULT_K;
+		String data = null, scale = null, format = "json", outFile = null;
+		boolean keep = false, reportCache = false;
+		for (int i = 3; i < args.length; ++i){
+			switch (args[i]){
+				case "--ops": ops = Arrays.asList(args[++i].split(",")); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+				case "--measure": measure = Integer.parseInt(args[++i]); break;
+				case "--k": k = Integer.parseInt(args[++i]); break;
+				case "--data": data = args[++i]; break;
+				case "--scale": scale = args[++i]; break;
+				case "--format": format = args[++i]; break;
+				case "--out": outFile = args[++i]; break;
+				case "--keep": keep = true; break;
+				case "--report-cache": reportCache = true; break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(2);
+			}//end switch
+		}//end for
+		for (String op : ops){
+			if (!OPERATIONS.containsKey(op)){
+				System.err.println("Unknown operation: " + op);
+				System.exit(2);
+			}//end if
+		}//end for
+		if (scale == null) scale = data == null ? "current" : new File(data).getName();
+
+		MechanicShop esql = null;
+		int status = 0;
+		try{
+			//one pooled connection per worker plus one for the setup done in prepare()
+			esql = new MechanicShop(args[0], args[1], args[2], "", Math.max(threads + 1, ConnectionPool.DEFAULT_MAX_SIZE));
+
+			if (data != null){
+				System.err.println("Loading " + data + " ...");
+				PrintWriter rejects = new PrintWriter(System.err);
+				BulkLoader loader = new BulkLoader(esql.getPool(), new File(data), rejects, Runtime.getRuntime().availableProcessors());
+				loader.load(true);
+				rejects.flush();
+				System.err.println("Loaded " + loader.getLoaded() + " rows (" + loader.getRejected() + " rejected)");
+			}//end if
+
+			//report operations measure the queries unless asked to measure the cache
+			esql.getReportCache().setEnabled(reportCache);
+
+			MechanicShopBenchmark bench = new MechanicShopBenchmark(esql, threads, k);
+			List<Object[]> results = new ArrayList<Object[]>();
+			for (String op : ops){
+				Object[] row = bench.measure(op, warmup, measure);
+				results.add(row);
+				System.err.println(String.format("%-24s %10.1f ops/s  p50 %9.1f us  p99 %9.1f us  %10.0f B/op",
+					row[0], (Double) row[4], (Double) row[5], (Double) row[7], (Double) row[10]));
+			}//end for
+			System.err.println(esql.getEntityCacheStats());
+			if (reportCache) System.err.println(esql.getReportCache().getStats());
+			if (!keep) bench.cleanup();
+
+			Writer out = new BufferedWriter(outFile == null ? new OutputStreamWriter(System.out) : new FileWriter(outFile));
+			if (format.equals("csv")) writeCSV(out, scale, results);
+			else writeJSON(out, scale, results);
+			out.flush();
+			if (outFile != null) out.close();
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+		System.exit(status);
+	}
+}
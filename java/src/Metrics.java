@@ -0,0 +1,302 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class counts the calls, errors, rows and bytes of every instrumented
+ * operation (the data-access methods of MechanicShop, the menu operations
+ * and the HTTP routes) and keeps a latency histogram of each.  Recording is
+ * lock-free: LongAdder counters and a LatencyHistogram per operation, found
+ * in a ConcurrentHashMap by name.
+ *
+ * The numbers are published as one JMX MBean per operation
+ * (MechanicShop:type=Operation,name=...) and as a Prometheus text dump,
+ * which can be written to a file or served on a local port:
+ *
+ *   -Dmetrics.file=metrics.prom   rewritten every metrics.interval seconds (default 10) and at exit
+ *   -Dmetrics.port=9400           served at http://localhost:9400/metrics
+ *
+ */
+
+public class Metrics{
+	public static final String JMX_DOMAIN = "MechanicShop";
+	public static final long DEFAULT_INTERVAL_SECONDS = 10;
+	static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	/**
+	 * The JMX view of one operation.  Latencies are in microseconds.
+	 */
+	public interface OperationMBean{
+		long getCalls();
+		long getErrors();
+		long getRows();
+		long getBytes();
+		double getMeanMicros();
+		double getP50Micros();
+		double getP99Micros();
+		double getP999Micros();
+		double getMaxMicros();
+	}
+
+	/**
+	 * The counters of one operation.
+	 */
+	public static class Operation implements OperationMBean{
+		final String name;
+		final LongAdder calls = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		Operation(String name){
+			this.name = name;
+		}
+
+		public long getCalls(){ return this.calls.sum(); }
+		public long getErrors(){ return this.errors.sum(); }
+		public long getRows(){ return this.rows.sum(); }
+		public long getBytes(){ return this.bytes.sum(); }
+		public double getMeanMicros(){ return this.latency.getMean() / 1e3; }
+		public double getP50Micros(){ return this.latency.getQuantile(0.5) / 1e3; }
+		public double getP99Micros(){ return this.latency.getQuantile(0.99) / 1e3; }
+		public double getP999Micros(){ return this.latency.getQuantile(0.999) / 1e3; }
+		public double getMaxMicros(){ return this.latency.getMax() / 1e3; }
+	}
+
+	private final ConcurrentHashMap<String, Operation> _operations = new ConcurrentHashMap<String, Operation>();
+	private final boolean _jmx;
+	//the local /metrics server, if one was started
+	private HttpServer _server = null;
+
+	/**
+	 * @param jmx true to register an MBean for every operation
+	 */
+	public Metrics(boolean jmx){
+		this._jmx = jmx;
+	}
+
+	/**
+	 * Method to find (or create) the counters of an operation.
+	 */
+	public Operation operation(String name){
+		Operation op = this._operations.get(name);
+		if (op != null) return op;
+		Operation created = new Operation(name);
+		op = this._operations.putIfAbsent(name, created);
+		if (op != null) return op;
+		if (this._jmx) register(created);
+		return created;
+	}
+
+	/**
+	 * Method to record one call.
+	 *
+	 * @param name the operation
+	 * @param startNanos System.nanoTime() when the call started
+	 * @param failed true when the call threw
+	 * @param rows rows returned or written, or 0
+	 * @param bytes approximate bytes read, or 0
+	 */
+	public void record(String name, long startNanos, boolean failed, long rows, long bytes){
+		Operation op = operation(name);
+		op.latency.record(System.nanoTime() - startNanos);
+		op.calls.increment();
+		if (failed) op.errors.increment();
+		if (rows != 0) op.rows.add(rows);
+		if (bytes != 0) op.bytes.add(bytes);
+	}
+
+	private static void register(Operation op){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Operation,name=" + ObjectName.quote(op.name));
+			if (!server.isRegistered(name)) server.registerMBean(new StandardMBean(op, OperationMBean.class), name);
+		}catch (JMException e){
+			System.err.println("Unable to register the metrics MBean of " + op.name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to write every operation in the Prometheus text exposition
+	 * format.  Latencies are a summary in seconds.
+	 *
+	 * @throws java.io.IOException when the output fails
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+		Map<String, Operation> sorted = new TreeMap<String, Operation>(this._operations);
+		out.write("# HELP mechanicshop_operation_seconds Latency of each operation.\n");
+		out.write("# TYPE mechanicshop_operation_seconds summary\n");
+		for (Operation op : sorted.values()){
+			String label = "operation=\"" + escape(op.name) + "\"";
+			for (double q : QUANTILES)
+				out.write("mechanicshop_operation_seconds{" + label + ",quantile=\"" + q + "\"} " + op.latency.getQuantile(q) / 1e9 + "\n");
+			out.write("mechanicshop_operation_seconds_sum{" + label + "} " + op.latency.getSum() / 1e9 + "\n");
+			out.write("mechanicshop_operation_seconds_count{" + label + "} " + op.latency.getCount() + "\n");
+		}//end for
+		counter(out, sorted, "errors", "Calls that threw.");
+		counter(out, sorted, "rows", "Rows returned or written.");
+		counter(out, sorted, "bytes", "Approximate bytes of result data read.");
+		out.flush();
+	}
+
+	/**
+	 * @return the Prometheus text dump
+	 */
+	public String toPrometheus(){
+		StringWriter out = new StringWriter();
+		try{
+			writePrometheus(out);
+		}catch (IOException e){
+			// a StringWriter does not fail.
+		}
+		return out.toString();
+	}
+
+	private static void counter(Writer out, Map<String, Operation> operations, String what, String help) throws IOException {
+		out.write("# HELP mechanicshop_operation_" + what + "_total " + help + "\n");
+		out.write("# TYPE mechanicshop_operation_" + what + "_total counter\n");
+		for (Operation op : operations.values()){
+			long value = what.equals("errors") ? op.getErrors() : what.equals("rows") ? op.getRows() : op.getBytes();
+			out.write("mechanicshop_operation_" + what + "_total{operation=\"" + escape(op.name) + "\"} " + value + "\n");
+		}//end for
+	}
+
+	private static String escape(String label){
+		return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Method to write the dump to a file, replacing it atomically so a
+	 * scraper never reads half a file.
+	 *
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public void writeFile(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try{
+			writePrometheus(out);
+		}finally{
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Method to start the exports asked for with -Dmetrics.file and
+	 * -Dmetrics.port.  Both run on daemon threads; the file is written once
+	 * more when the JVM exits.
+	 */
+	public void startExports(){
+		String file = System.getProperty("metrics.file");
+		String port = System.getProperty("metrics.port");
+		if (file != null){
+			long interval = Long.getLong("metrics.interval", DEFAULT_INTERVAL_SECONDS);
+			File target = new File(file);
+			ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "metrics-file");
+				t.setDaemon(true);
+				return t;
+			});
+			writer.scheduleWithFixedDelay(() -> writeQuietly(target), interval, interval, TimeUnit.SECONDS);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> writeQuietly(target)));
+		}//end if
+		if (port != null){
+			try{
+				serve(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)));
+			}catch (IOException | NumberFormatException e){
+				System.err.println("Unable to serve metrics on port " + port + ": " + e.getMessage());
+			}
+		}//end if
+	}
+
+	/**
+	 * Method to serve the dump at /metrics on the given address.
+	 *
+	 * @throws java.io.IOException when the port could not be bound
+	 */
+	public synchronized void serve(InetSocketAddress address) throws IOException {
+		if (this._server != null) throw new IOException("metrics are already served on " + this._server.getAddress());
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/metrics", exchange -> {
+			byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		});
+		server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "metrics-http");
+			t.setDaemon(true);
+			return t;
+		}));
+		server.start();
+		this._server = server;
+	}
+
+	/**
+	 * Method to stop the /metrics server; its dispatcher thread would
+	 * otherwise keep the JVM running after the menu exits.
+	 */
+	public synchronized void close(){
+		if (this._server != null){
+			this._server.stop(0);
+			this._server = null;
+		}//end if
+	}
+
+	private void writeQuietly(File file){
+		try{
+			writeFile(file);
+		}catch (IOException e){
+			System.err.println("Unable to write metrics to " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the names of the operations recorded so far
+	 */
+	public List<String> getOperationNames(){
+		return new ArrayList<String>(new TreeMap<String, Operation>(this._operations).keySet());
+	}
+}
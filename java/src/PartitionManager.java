@@ -0,0 +1,105 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps partitions of Service_Request and Closed_Request ready
+ * ahead of the dates being inserted, by calling ensure_request_partitions()
+ * from sql/create.sql at startup and then every few hours.  A request
+ * dated past the last partition is not lost, it goes to the default
+ * partition and the next call moves it out, but until then every query
+ * scans the default partition too.
+ *
+ * Settings are system properties:
+ *
+ *   -Dpartitions.ahead=3     periods (months or years, see create.sql) created ahead of today
+ *   -Dpartitions.hours=6     hours between calls; 0 or less only calls once
+ *
+ */
+
+public class PartitionManager{
+	public static final int DEFAULT_AHEAD = 3;
+	public static final long DEFAULT_INTERVAL_HOURS = 6;
+	public static final String ENSURE = "SELECT ensure_request_partitions(?);";
+
+	private final MechanicShop _esql;
+	private final int _ahead;
+	private ScheduledExecutorService _timer = null;
+
+	public PartitionManager(MechanicShop esql, int ahead){
+		this._esql = esql;
+		this._ahead = ahead;
+	}
+
+	/**
+	 * Method to create the manager from the partitions.* system properties.
+	 */
+	public static PartitionManager fromProperties(MechanicShop esql){
+		return new PartitionManager(esql, ahead());
+	}
+
+	/**
+	 * @return the periods to create ahead of today, from -Dpartitions.ahead
+	 */
+	public static int ahead(){
+		return Integer.getInteger("partitions.ahead", DEFAULT_AHEAD);
+	}
+
+	/**
+	 * Method to create every missing partition now.
+	 *
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when the call failed
+	 */
+	public int ensure() throws SQLException {
+		return this._esql.executeWrite(ENSURE, this._ahead).getInt(0, 0);
+	}
+
+	/**
+	 * Method to call ensure() now and then on a daemon thread every
+	 * -Dpartitions.hours.  Failures are reported and retried at the next
+	 * call.
+	 */
+	public synchronized void start(){
+		ensureQuietly();
+		long hours = Long.getLong("partitions.hours", DEFAULT_INTERVAL_HOURS);
+		if (hours <= 0 || this._timer != null) return;
+		this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "partition-manager");
+			t.setDaemon(true);
+			return t;
+		});
+		this._timer.scheduleWithFixedDelay(this::ensureQuietly, hours, hours, TimeUnit.HOURS);
+	}
+
+	private void ensureQuietly(){
+		try{
+			int created = ensure();
+			if (created > 0) System.err.println("Created " + created + " request partitions");
+		}catch (SQLException e){
+			System.err.println("Unable to create request partitions: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to stop the timer.
+	 */
+	public synchronized void close(){
+		if (this._timer != null) this._timer.shutdownNow();
+		this._timer = null;
+	}
+}
@@ -0,0 +1,366 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class runs EXPLAIN (ANALYZE, BUFFERS) for every query MechanicShop
+ * issues and records the plans and timings, so that a missing index or a
+ * plan change shows up before it reaches the clerks.
+ *
+ * Each query runs several times with parameters sampled from the loaded data;
+ * statements that write are rolled back.  A query is flagged when its plan
+ * sequentially scans a large table it is expected to reach through an index,
+ * when its median execution time passes an absolute threshold, or when it is
+ * slower than in a baseline file written by an earlier run.  The exit code is
+ * 1 when anything was flagged.
+ *
+ */
+
+public class PlanHarness{
+	public static final int DEFAULT_RUNS = 5;
+	public static final double DEFAULT_SLOW_MILLIS = 100.0;
+	public static final double DEFAULT_REGRESSION_FACTOR = 1.5;
+	//tables smaller than this may be scanned; the planner rightly prefers that for a few pages
+	public static final long DEFAULT_MIN_SCAN_ROWS = 10000;
+
+	private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	private static final Pattern EXECUTION = Pattern.compile("Execution [Tt]ime: ([0-9.]+) ms");
+	private static final Pattern PLANNING = Pattern.compile("Planning [Tt]ime: ([0-9.]+) ms");
+	private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+
+	/**
+	 * One query as MechanicShop issues it, the parameters to run it with and
+	 * the tables it may scan sequentially at any size (e.g. a report that
+	 * aggregates a whole table).
+	 */
+	static class Query{
+		final String name;
+		final String sql;
+		final Object[] params;
+		final Set<String> scanAllowed;
+
+		Query(String name, String sql, Object[] params, String... scanAllowed){
+			this.name = name;
+			this.sql = sql;
+			this.params = params;
+			this.scanAllowed = new HashSet<String>(Arrays.asList(scanAllowed));
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final int _runs;
+	private final double _slowMillis, _regressionFactor;
+	private final long _minScanRows;
+	private final Map<String, Long> _tableRows = new HashMap<String, Long>();
+	private final Map<String, String> _parents = new HashMap<String, String>();
+
+	public PlanHarness(MechanicShop esql, int runs, double slowMillis, double regressionFactor, long minScanRows){
+		this._esql = esql;
+		this._runs = runs;
+		this._slowMillis = slowMillis;
+		this._regressionFactor = regressionFactor;
+		this._minScanRows = minScanRows;
+	}
+
+	/**
+	 * Method to build the query catalog with sample parameters from the
+	 * database.  Rows inserted by the write queries use negative ids and are
+	 * rolled back.
+	 *
+	 * @return every query MechanicShop issues
+	 * @throws java.sql.SQLException when the samples could not be read
+	 */
+	List<Query> catalog() throws SQLException {
+		QueryResult c = this._esql.executeQueryAndReturnColumns("SELECT id, fname, lname FROM Customer ORDER BY random() LIMIT 1;");
+		QueryResult o = this._esql.executeQueryAndReturnColumns("SELECT customer_id, car_vin FROM Owns ORDER BY random() LIMIT 1;");
+		QueryResult m = this._esql.executeQueryAndReturnColumns("SELECT id FROM Mechanic ORDER BY random() LIMIT 1;");
+		QueryResult r = this._esql.executeQueryAndReturnColumns(
+			"SELECT rid, CAST(date AS TEXT), CAST(date + 1 AS TEXT) FROM Service_Request S WHERE NOT EXISTS (SELECT 1 FROM Closed_Request C WHERE C.rid = S.rid) LIMIT 1;");
+		//any request will do for the plan when every request is closed
+		if (r.getRowCount() == 0) r = this._esql.executeQueryAndReturnColumns(
+			"SELECT rid, CAST(date AS TEXT), CAST(date + 1 AS TEXT) FROM Service_Request ORDER BY rid LIMIT 1;");
+		if (c.getRowCount() == 0 || o.getRowCount() == 0 || m.getRowCount() == 0 || r.getRowCount() == 0)
+			throw new SQLException("The harness needs a loaded database");
+		int customer = c.getInt(0, 0), mechanic = m.getInt(0, 0);
+		String fname = c.getString(0, 1), lname = c.getString(0, 2);
+		int owner = o.getInt(0, 0);
+		String vin = o.getString(0, 1);
+		//the closing is dated the day after its request, which closed_request_rid requires
+		int rid = r.getInt(0, 0);
+		String opened = r.getString(0, 1), closed = r.getString(0, 2);
+
+		List<Query> q = new ArrayList<Query>();
+		q.add(new Query("insert-customer", ShopOperations.INSERT_CUSTOMER, new Object[] {-1, "plan", "Harness", "(555)555-0100", "1 Plan St"}));
+		q.add(new Query("insert-mechanic", ShopOperations.INSERT_MECHANIC, new Object[] {-1, "plan", "Harness", 10}));
+		q.add(new Query("insert-car", ShopOperations.INSERT_CAR, new Object[] {"PLANHARNESS00001", "Plan", "Harness", 2000}));
+		q.add(new Query("insert-owns", ShopOperations.INSERT_OWNS, new Object[] {-1, owner, vin}));
+		q.add(new Query("insert-service-request", ShopOperations.INSERT_SERVICE_REQUEST, new Object[] {-1, owner, vin, opened, 1000, "plan"}));
+		q.add(new Query("insert-closed-request", ShopOperations.INSERT_CLOSED_REQUEST, new Object[] {-1, rid, mechanic, closed, "plan", 100}));
+		q.add(new Query("find-customer-by-name", ShopOperations.FIND_CUSTOMER_BY_NAME, new Object[] {fname, lname}));
+		q.add(new Query("find-customer-by-last-name", ShopOperations.FIND_CUSTOMER_BY_LAST_NAME, new Object[] {lname}));
+		q.add(new Query("find-cars-of-customer", ShopOperations.FIND_CARS_OF_CUSTOMER, new Object[] {customer}));
+		q.add(new Query("find-open-request", ShopOperations.FIND_OPEN_REQUEST, new Object[] {rid, mechanic}));
+		q.add(new Query("find-customer", ShopOperations.FIND_CUSTOMER, new Object[] {customer}));
+		q.add(new Query("find-mechanic", ShopOperations.FIND_MECHANIC, new Object[] {mechanic}));
+		q.add(new Query("find-car", ShopOperations.FIND_CAR, new Object[] {vin}));
+		q.add(new Query("is-unique-vin", ShopOperations.VIN_EXISTS, new Object[] {vin}));
+		q.add(new Query("service-count-load-car", ServiceCountIndex.LOAD_CAR, new Object[] {vin}));
+		q.add(new Query("get-highest-id", "SELECT MAX(rid) FROM Service_Request;", new Object[0]));
+		q.add(new Query("bill-less-than-100", ShopOperations.REPORT_BILL_LESS_THAN_100, new Object[0], "closed_request"));
+		q.add(new Query("more-than-20-cars", ShopOperations.REPORT_MORE_THAN_20_CARS, new Object[0], "customer"));
+		q.add(new Query("cars-before-1995", ShopOperations.REPORT_CARS_BEFORE_1995_UNDER_50000, new Object[0], "car"));
+		q.add(new Query("k-most-serviced-cars", ShopOperations.REPORT_K_MOST_SERVICED_CARS, new Object[] {10}, "car", "service_request"));
+		q.add(new Query("total-bill-desc", ShopOperations.REPORT_TOTAL_BILL_DESC, new Object[0]));
+		//the bounded reports over the last 30 days of requests, which should touch one or two partitions
+		QueryResult w = this._esql.executeQueryAndReturnColumns(
+			"SELECT CAST(MAX(date) - 30 AS TEXT), CAST(MAX(date) + 1 AS TEXT) FROM Service_Request;");
+		String from = w.isNull(0, 0) ? ShopOperations.BEGINNING : w.getString(0, 0), to = w.isNull(0, 1) ? ShopOperations.END : w.getString(0, 1);
+		q.add(new Query("bill-less-than-100-window", ShopOperations.REPORT_BILL_LESS_THAN_100_BETWEEN, new Object[] {from, to, to}));
+		q.add(new Query("cars-before-1995-window", ShopOperations.REPORT_CARS_BEFORE_1995_UNDER_50000_BETWEEN, new Object[] {from, to}, "car"));
+		q.add(new Query("k-most-serviced-cars-window", ShopOperations.REPORT_K_MOST_SERVICED_CARS_BETWEEN, new Object[] {from, to, 10}, "car"));
+		q.add(new Query("total-bill-desc-window", ShopOperations.REPORT_TOTAL_BILL_DESC_BETWEEN, new Object[] {from, to, to}));
+		q.add(new Query("customer-page", ShopOperations.PAGE_CUSTOMERS_AFTER, new Object[] {lname, fname, customer, MechanicShop.LIST_PAGE_SIZE}));
+		q.add(new Query("customer-page-before", ShopOperations.PAGE_CUSTOMERS_BEFORE, new Object[] {lname, fname, customer, MechanicShop.LIST_PAGE_SIZE}));
+		q.add(new Query("mechanic-page", ShopOperations.PAGE_MECHANICS_AFTER, new Object[] {"", "", Integer.MIN_VALUE, MechanicShop.LIST_PAGE_SIZE}));
+		return q;
+	}
+
+	/**
+	 * The outcome of one query: the last plan, median timings and flags.
+	 */
+	static class Result{
+		String name;
+		String plan;
+		double executionMillis, planningMillis;
+		long sharedHit, sharedRead;
+		List<String> seqScans = new ArrayList<String>();
+		List<String> flags = new ArrayList<String>();
+	}
+
+	/**
+	 * Method to explain one query runs times on a single connection, rolling
+	 * back after each run.
+	 *
+	 * @return the last plan with the median timings
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	Result explain(Query q) throws SQLException {
+		Result result = new Result();
+		result.name = q.name;
+		double[] execution = new double[this._runs], planning = new double[this._runs];
+		ConnectionPool.PooledConnection pc = this._esql.getPool().borrow();
+		try{
+			pc.connection.setAutoCommit(false);
+			PreparedStatement stmt = pc.connection.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + q.sql);
+			try{
+				for (int run = 0; run < this._runs; ++run){
+					for (int i = 0; i < q.params.length; ++i) stmt.setObject(i + 1, q.params[i]);
+					StringBuilder plan = new StringBuilder();
+					ResultSet rs = stmt.executeQuery();
+					while (rs.next()) plan.append(rs.getString(1)).append('\n');
+					rs.close();
+					pc.connection.rollback();
+
+					result.plan = plan.toString();
+					execution[run] = number(EXECUTION, result.plan);
+					planning[run] = number(PLANNING, result.plan);
+				}//end for
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			//rolls back and restores autocommit
+			this._esql.getPool().release(pc);
+		}
+		Arrays.sort(execution);
+		Arrays.sort(planning);
+		result.executionMillis = execution[this._runs / 2];
+		result.planningMillis = planning[this._runs / 2];
+
+		//the first Buffers line belongs to the top node and includes its children
+		Matcher b = BUFFERS.matcher(result.plan);
+		if (b.find()){
+			if (b.group(1) != null) result.sharedHit = Long.parseLong(b.group(1));
+			if (b.group(2) != null) result.sharedRead = Long.parseLong(b.group(2));
+		}//end if
+		Matcher s = SEQ_SCAN.matcher(result.plan);
+		while (s.find()){
+			String table = s.group(1).toLowerCase();
+			result.seqScans.add(table);
+			//a partition is allowed when its table is; its own size decides the flag
+			if (!q.scanAllowed.contains(table) && !q.scanAllowed.contains(parent(table)) && rows(table) >= this._minScanRows)
+				result.flags.add("seq scan on " + table + " (" + rows(table) + " rows)");
+		}//end while
+		if (result.executionMillis > this._slowMillis)
+			result.flags.add(String.format("median %.2f ms over %.2f ms", result.executionMillis, this._slowMillis));
+		return result;
+	}
+
+	private static double number(Pattern p, String plan){
+		Matcher m = p.matcher(plan);
+		return m.find() ? Double.parseDouble(m.group(1)) : 0.0;
+	}
+
+	private long rows(String table) throws SQLException {
+		Long rows = this._tableRows.get(table);
+		if (rows == null){
+			QueryResult r = this._esql.executeQueryAndReturnColumns(
+				"SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE relname = ? AND relkind IN ('r', 'p');", table);
+			rows = r.getRowCount() == 0 ? 0L : r.getLong(0, 0);
+			this._tableRows.put(table, rows);
+		}//end if
+		return rows;
+	}
+
+	/**
+	 * @return the partitioned table a partition belongs to, or the table itself
+	 */
+	private String parent(String table) throws SQLException {
+		String parent = this._parents.get(table);
+		if (parent == null){
+			QueryResult r = this._esql.executeQueryAndReturnColumns(
+				"SELECT p.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE c.relname = ?;", table);
+			parent = r.getRowCount() == 0 ? table : r.getString(0, 0);
+			this._parents.put(table, parent);
+		}//end if
+		return parent;
+	}
+
+	/**
+	 * Method to flag results that are slower than in the baseline.
+	 *
+	 * @param baseline median execution milliseconds by query name
+	 */
+	void compare(List<Result> results, Map<String, Double> baseline){
+		for (Result r : results){
+			Double before = baseline.get(r.name);
+			//sub-millisecond queries are mostly noise
+			if (before != null && r.executionMillis > 1.0 && r.executionMillis > before * this._regressionFactor)
+				r.flags.add(String.format("%.2f ms is %.1fx the baseline %.2f ms", r.executionMillis, r.executionMillis / before, before));
+		}//end for
+	}
+
+	static final String HEADER = "query\tscale\texecution_ms\tplanning_ms\tshared_hit\tshared_read\tseq_scans\tflags";
+
+	static Map<String, Double> readBaseline(File file) throws IOException {
+		Map<String, Double> baseline = new HashMap<String, Double>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try{
+			String line = in.readLine();
+			if (line == null || !line.equals(HEADER)) throw new IOException(file + " is not a plan harness result file");
+			while ((line = in.readLine()) != null){
+				String[] f = line.split("\t", -1);
+				baseline.put(f[0], Double.parseDouble(f[2]));
+			}//end while
+		}finally{
+			in.close();
+		}
+		return baseline;
+	}
+
+	static void write(File dir, String scale, List<Result> results) throws IOException {
+		Writer tsv = new BufferedWriter(new FileWriter(new File(dir, "plans.tsv")));
+		Writer plans = new BufferedWriter(new FileWriter(new File(dir, "plans.txt")));
+		try{
+			tsv.write(HEADER + "\n");
+			for (Result r : results){
+				tsv.write(r.name + "\t" + scale + "\t" + String.format("%.3f\t%.3f", r.executionMillis, r.planningMillis) +
+					"\t" + r.sharedHit + "\t" + r.sharedRead + "\t" + String.join(",", r.seqScans) + "\t" + String.join("; ", r.flags) + "\n");
+				plans.write("== " + r.name + (r.flags.isEmpty() ? "" : "  [FLAGGED: " + String.join("; ", r.flags) + "]") + "\n");
+				plans.write(r.plan + "\n");
+			}//end for
+		}finally{
+			tsv.close();
+			plans.close();
+		}
+	}
+
+	/**
+	 * The harness entry point
+	 *
+	 * @param args <dbname> <port> <user> [--out DIR] [--scale LABEL] [--baseline plans.tsv] [--runs N]
+	 *             [--slow-ms MS] [--regression FACTOR] [--min-scan-rows N]
+	 */
+	public static void main(String[] args){
+		if (args.length < 3){
+			System.err.println(
+				"Usage: java [-classpath <classpath>] " + PlanHarness.class.getName() +
+				" <dbname> <port> <user> [--out DIR] [--scale LABEL] [--baseline plans.tsv] [--runs N]" +
+				" [--slow-ms MS] [--regression FACTOR] [--min-scan-rows N]");
+			System.exit(2);
+		}//end if
+
+		String out = ".", scale = "current", baselineFile = null;
+		int runs = DEFAULT_RUNS;
+		double slow = DEFAULT_SLOW_MILLIS, regression = DEFAULT_REGRESSION_FACTOR;
+		long minScanRows = DEFAULT_MIN_SCAN_ROWS;
+		for (int i = 3; i < args.length; ++i){
+			switch (args[i]){
+				case "--out": out = args[++i]; break;
+				case "--scale": scale = args[++i]; break;
+				case "--baseline": baselineFile = args[++i]; break;
+				case "--runs": runs = Math.max(1, Integer.parseInt(args[++i])); break;
+				case "--slow-ms": slow = Double.parseDouble(args[++i]); break;
+				case "--regression": regression = Double.parseDouble(args[++i]); break;
+				case "--min-scan-rows": minScanRows = Long.parseLong(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(2);
+			}//end switch
+		}//end for
+
+		MechanicShop esql = null;
+		int status = 0;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			PlanHarness harness = new PlanHarness(esql, runs, slow, regression, minScanRows);
+			List<Result> results = new ArrayList<Result>();
+			for (Query q : harness.catalog()) results.add(harness.explain(q));
+			if (baselineFile != null) harness.compare(results, readBaseline(new File(baselineFile)));
+
+			File dir = new File(out);
+			if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+			write(dir, scale, results);
+			for (Result r : results){
+				System.out.println(String.format("%-28s %10.3f ms %s", r.name, r.executionMillis,
+					r.flags.isEmpty() ? "ok" : "FLAGGED: " + String.join("; ", r.flags)));
+				if (!r.flags.isEmpty()) status = 1;
+			}//end for
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+			status = 2;
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+		System.exit(status);
+	}
+}
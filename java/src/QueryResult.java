@@ -0,0 +1,327 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class holds a query result column by column.  Integer columns are
+ * stored in int[] (or long[] for bigint aggregates such as COUNT and SUM),
+ * dates as epoch days in int[], and everything else as Strings with the
+ * CHAR(n) padding already trimmed.  Rows and columns are numbered from 0.
+ *
+ */
+
+public class QueryResult{
+	public static final char INT = 'i';
+	public static final char LONG = 'l';
+	public static final char DATE = 'd';
+	public static final char TEXT = 't';
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final String[] _names;
+	private final char[] _types;
+	//int[], long[] or String[] per column
+	private final Object[] _columns;
+	private final BitSet[] _nulls;
+	private int _rows = 0;
+	private int _capacity;
+
+	private QueryResult(String[] names, char[] types, int capacity){
+		this._names = names;
+		this._types = types;
+		this._capacity = capacity;
+		this._columns = new Object[names.length];
+		this._nulls = new BitSet[names.length];
+		for (int c = 0; c < names.length; ++c){
+			this._nulls[c] = new BitSet();
+			switch (types[c]){
+				case INT: case DATE: this._columns[c] = new int[capacity]; break;
+				case LONG: this._columns[c] = new long[capacity]; break;
+				default: this._columns[c] = new String[capacity];
+			}//end switch
+		}//end for
+	}
+
+	/**
+	 * Method to read every row of a result set into a new columnar result.
+	 *
+	 * @param rs the open result set, positioned before the first row
+	 * @return the result
+	 * @throws java.sql.SQLException when a value could not be read
+	 */
+	public static QueryResult from(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		String[] names = new String[numCol];
+		char[] types = new char[numCol];
+		for (int c = 0; c < numCol; ++c){
+			names[c] = rsmd.getColumnLabel(c + 1);
+			switch (rsmd.getColumnType(c + 1)){
+				case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: types[c] = INT; break;
+				case Types.BIGINT: types[c] = LONG; break;
+				case Types.DATE: types[c] = DATE; break;
+				default: types[c] = TEXT;
+			}//end switch
+		}//end for
+
+		QueryResult result = new QueryResult(names, types, INITIAL_CAPACITY);
+		while (rs.next()){
+			int row = result._rows;
+			if (row == result._capacity) result.grow();
+			for (int c = 0; c < numCol; ++c){
+				switch (types[c]){
+					case INT:
+						((int[]) result._columns[c])[row] = rs.getInt(c + 1);
+						if (rs.wasNull()) result._nulls[c].set(row);
+						break;
+					case LONG:
+						((long[]) result._columns[c])[row] = rs.getLong(c + 1);
+						if (rs.wasNull()) result._nulls[c].set(row);
+						break;
+					case DATE:
+						String d = rs.getString(c + 1);
+						if (d == null) result._nulls[c].set(row);
+						else ((int[]) result._columns[c])[row] = epochDay(d);
+						break;
+					default:
+						String s = rs.getString(c + 1);
+						if (s == null) result._nulls[c].set(row);
+						else ((String[]) result._columns[c])[row] = trim(s);
+				}//end switch
+			}//end for
+			++result._rows;
+		}//end while
+		return result;
+	}
+
+	/**
+	 * Method to create an empty result to be filled with addRow(), for
+	 * results computed outside the database (see SnapshotEngine).
+	 *
+	 * @param names the column names
+	 * @param types INT, LONG, DATE or TEXT per column
+	 */
+	static QueryResult empty(String[] names, char[] types){
+		return new QueryResult(names, types, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Method to append a row.  INT and DATE columns take an Integer (a DATE
+	 * as days since 1970-01-01), LONG columns a Long and TEXT columns a
+	 * String; null is a SQL NULL.
+	 */
+	void addRow(Object... values){
+		int row = this._rows;
+		if (row == this._capacity) grow();
+		for (int c = 0; c < this._names.length; ++c){
+			if (values[c] == null){
+				this._nulls[c].set(row);
+				continue;
+			}//end if
+			switch (this._types[c]){
+				case INT: case DATE: ((int[]) this._columns[c])[row] = (Integer) values[c]; break;
+				case LONG: ((long[]) this._columns[c])[row] = (Long) values[c]; break;
+				default: ((String[]) this._columns[c])[row] = (String) values[c];
+			}//end switch
+		}//end for
+		++this._rows;
+	}
+
+	private void grow(){
+		int capacity = this._capacity * 2;
+		for (int c = 0; c < this._columns.length; ++c){
+			Object col = this._columns[c];
+			if (col instanceof int[]) this._columns[c] = Arrays.copyOf((int[]) col, capacity);
+			else if (col instanceof long[]) this._columns[c] = Arrays.copyOf((long[]) col, capacity);
+			else this._columns[c] = Arrays.copyOf((String[]) col, capacity);
+		}//end for
+		this._capacity = capacity;
+	}
+
+	/**
+	 * Method to shrink the column arrays to the number of rows, for results
+	 * that are kept around (e.g. single rows in an EntityCache).
+	 *
+	 * @return this result
+	 */
+	public QueryResult trimToSize(){
+		if (this._capacity == this._rows) return this;
+		for (int c = 0; c < this._columns.length; ++c){
+			Object col = this._columns[c];
+			if (col instanceof int[]) this._columns[c] = Arrays.copyOf((int[]) col, this._rows);
+			else if (col instanceof long[]) this._columns[c] = Arrays.copyOf((long[]) col, this._rows);
+			else this._columns[c] = Arrays.copyOf((String[]) col, this._rows);
+		}//end for
+		this._capacity = this._rows;
+		return this;
+	}
+
+	/**
+	 * Method to reverse the order of the rows in place, e.g. for a page that
+	 * was read backwards.
+	 *
+	 * @return this result
+	 */
+	public QueryResult reverseRows(){
+		for (int c = 0; c < this._columns.length; ++c){
+			Object col = this._columns[c];
+			BitSet nulls = this._nulls[c], flipped = new BitSet();
+			for (int lo = 0, hi = this._rows - 1; lo < hi; ++lo, --hi){
+				if (col instanceof int[]){ int[] a = (int[]) col; int t = a[lo]; a[lo] = a[hi]; a[hi] = t; }
+				else if (col instanceof long[]){ long[] a = (long[]) col; long t = a[lo]; a[lo] = a[hi]; a[hi] = t; }
+				else { String[] a = (String[]) col; String t = a[lo]; a[lo] = a[hi]; a[hi] = t; }
+			}//end for
+			for (int r = nulls.nextSetBit(0); r >= 0 && r < this._rows; r = nulls.nextSetBit(r + 1))
+				flipped.set(this._rows - 1 - r);
+			this._nulls[c] = flipped;
+		}//end for
+		return this;
+	}
+
+	/**
+	 * Method to estimate the heap used by the values, for caches with a
+	 * memory cap.
+	 *
+	 * @return an approximate size in bytes
+	 */
+	public long estimateBytes(){
+		long bytes = 64;
+		for (int c = 0; c < this._columns.length; ++c){
+			Object col = this._columns[c];
+			if (col instanceof int[]) bytes += 4L * this._capacity;
+			else if (col instanceof long[]) bytes += 8L * this._capacity;
+			else {
+				bytes += 8L * this._capacity;
+				String[] values = (String[]) col;
+				for (int r = 0; r < this._rows; ++r)
+					if (values[r] != null) bytes += 40 + values[r].length();
+			}//end if
+		}//end for
+		return bytes;
+	}
+
+	public int getRowCount(){ return this._rows; }
+	public int getColumnCount(){ return this._names.length; }
+	public String getColumnName(int col){ return this._names[col]; }
+	public char getColumnType(int col){ return this._types[col]; }
+
+	/**
+	 * @return the index of the named column (case-insensitive), or -1
+	 */
+	public int findColumn(String name){
+		for (int c = 0; c < this._names.length; ++c)
+			if (this._names[c].equalsIgnoreCase(name)) return c;
+		return -1;
+	}
+
+	public boolean isNull(int row, int col){
+		return this._nulls[col].get(row);
+	}
+
+	/**
+	 * @return the value as an int; text columns are parsed, null is 0
+	 */
+	public int getInt(int row, int col){
+		switch (this._types[col]){
+			case INT: case DATE: return ((int[]) this._columns[col])[row];
+			case LONG: return (int) ((long[]) this._columns[col])[row];
+			default:
+				String s = ((String[]) this._columns[col])[row];
+				return s == null ? 0 : Integer.parseInt(s.trim());
+		}//end switch
+	}
+
+	/**
+	 * @return the value as a long; text columns are parsed, null is 0
+	 */
+	public long getLong(int row, int col){
+		if (this._types[col] == LONG) return ((long[]) this._columns[col])[row];
+		if (this._types[col] == TEXT){
+			String s = ((String[]) this._columns[col])[row];
+			return s == null ? 0 : Long.parseLong(s.trim());
+		}//end if
+		return getInt(row, col);
+	}
+
+	/**
+	 * @return the date as days since 1970-01-01
+	 */
+	public int getEpochDay(int row, int col){
+		if (this._types[col] == DATE) return ((int[]) this._columns[col])[row];
+		return epochDay(getString(row, col));
+	}
+
+	public LocalDate getDate(int row, int col){
+		return isNull(row, col) ? null : LocalDate.ofEpochDay(getEpochDay(row, col));
+	}
+
+	/**
+	 * @return the value as text (trimmed for CHAR columns), or null
+	 */
+	public String getString(int row, int col){
+		if (isNull(row, col)) return null;
+		switch (this._types[col]){
+			case INT: return Integer.toString(((int[]) this._columns[col])[row]);
+			case LONG: return Long.toString(((long[]) this._columns[col])[row]);
+			case DATE: return LocalDate.ofEpochDay(((int[]) this._columns[col])[row]).toString();
+			default: return ((String[]) this._columns[col])[row];
+		}//end switch
+	}
+
+	/**
+	 * @return the rows in the same "[[a, b], [c, d]]" form a List of records prints as
+	 */
+	public String toString(){
+		StringBuilder sb = new StringBuilder("[");
+		for (int r = 0; r < this._rows; ++r){
+			if (r > 0) sb.append(", ");
+			sb.append('[');
+			for (int c = 0; c < this._names.length; ++c){
+				if (c > 0) sb.append(", ");
+				sb.append(getString(r, c));
+			}//end for
+			sb.append(']');
+		}//end for
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Converts an ISO "YYYY-MM-DD" date to days since 1970-01-01 without
+	 * allocating a LocalDate.
+	 */
+	static int epochDay(String iso){
+		int y = Integer.parseInt(iso.substring(0, 4));
+		int m = Integer.parseInt(iso.substring(5, 7));
+		int d = Integer.parseInt(iso.substring(8, 10));
+		//days-from-civil (proleptic Gregorian)
+		y -= m <= 2 ? 1 : 0;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static String trim(String s){
+		int end = s.length();
+		while (end > 0 && s.charAt(end - 1) == ' ') --end;
+		return end == s.length() ? s : s.substring(0, end);
+	}
+}
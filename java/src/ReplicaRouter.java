@@ -0,0 +1,266 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps a second connection pool on a read replica (a hot
+ * standby of the database) and decides, query by query, whether a read may
+ * go to it.  MechanicShop.executeReadOnly() sends the reports, listings and
+ * name lookups here; writes and the lookups that must see them (entity
+ * cache rows, open requests, ids) always use the primary.
+ *
+ * A daemon thread measures the replica's lag and replay position every
+ * second.  Reads go to the primary while the replica is down or further
+ * behind than the threshold.  They also stay there until the replica has
+ * replayed past the WAL position (LSN) the primary reported after the last
+ * write made through this instance, so a clerk never reads a report older
+ * than their own change.  An instance that is not in recovery counts as
+ * caught up, so a second local instance loaded with the same data can stand
+ * in for a standby when testing.
+ *
+ * Settings are system properties:
+ *
+ *   -Dreplica.port=5433          turns routing on, with the replica on this port
+ *   -Dreplica.host=localhost     host of the replica
+ *   -Dreplica.maxLagMillis=5000  lag over which reads fall back to the primary
+ *   -Dreplica.checkMillis=1000   time between lag checks
+ *
+ */
+
+public class ReplicaRouter{
+	public static final long DEFAULT_MAX_LAG_MILLIS = 5000;
+	public static final long DEFAULT_CHECK_MILLIS = 1000;
+	//whether the replica is a standby, the milliseconds its replay is behind (0 when it has replayed all it
+	//received, NULL when not known yet) and the WAL position it has replayed, for the lag threshold
+	public static final String LAG = "SELECT pg_is_in_recovery(), CASE WHEN pg_last_wal_receive_lsn() IS NOT DISTINCT FROM pg_last_wal_replay_lsn() THEN 0 ELSE CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS BIGINT) END, CAST(pg_last_wal_replay_lsn() - '0/0' AS BIGINT);";
+	//the primary's WAL position, asked after each write on the connection that made it
+	public static final String CURRENT_LSN = "SELECT CAST(pg_current_wal_lsn() - '0/0' AS BIGINT);";
+
+	private final ConnectionPool _pool;
+	private final String _url;
+	private final long _maxLagMillis;
+	private final long _checkMillis;
+	private ScheduledExecutorService _timer = null;
+
+	private volatile boolean _up = false;
+	private volatile long _lagMillis = -1;
+	//the WAL position the replica has replayed, at the last check
+	private volatile long _replayed = -1;
+	//the primary's WAL position after the last write, MAX_VALUE while a write's position is unknown
+	private volatile long _written = 0;
+	//when a write's position was lost (System.nanoTime), -1 when none is
+	private long _unknownSince = -1;
+	//whether the last check left the replica usable (null before the first), to report changes once
+	private Boolean _usable = null;
+	private final LongAdder _routed = new LongAdder();
+	private final LongAdder _primary = new LongAdder();
+	private final LongAdder _fallbacks = new LongAdder();
+
+	public ReplicaRouter(String url, Properties props, int poolSize, long maxLagMillis, long checkMillis){
+		//the driver opens every transaction READ ONLY, so a write sent here by mistake fails
+		Properties readOnly = new Properties();
+		readOnly.putAll(props);
+		readOnly.setProperty("readOnly", "true");
+		this._url = url;
+		this._pool = new ConnectionPool(url, readOnly, poolSize, ConnectionPool.DEFAULT_MAX_WAIT_MILLIS,
+			ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, ConnectionPool.DEFAULT_MAX_LIFETIME_MILLIS);
+		this._maxLagMillis = maxLagMillis;
+		this._checkMillis = checkMillis;
+	}
+
+	/**
+	 * Method to create the router from the replica.* system properties and
+	 * start checking the lag.
+	 *
+	 * @param dbname the database, the same name as on the primary
+	 * @param props the connection properties of the primary (user, password, ...)
+	 * @return the router, or null when -Dreplica.port is not set
+	 */
+	public static ReplicaRouter fromProperties(String dbname, Properties props, int poolSize){
+		String port = System.getProperty("replica.port");
+		if (port == null || port.isEmpty()) return null;
+		String url = "jdbc:postgresql://" + System.getProperty("replica.host", "localhost") + ":" + port + "/" + dbname;
+		ReplicaRouter router = new ReplicaRouter(url, props, poolSize,
+			Long.getLong("replica.maxLagMillis", DEFAULT_MAX_LAG_MILLIS),
+			Long.getLong("replica.checkMillis", DEFAULT_CHECK_MILLIS));
+		router.start();
+		return router;
+	}
+
+	/**
+	 * Method to check the lag now and then on a daemon thread every
+	 * checkMillis.
+	 */
+	public synchronized void start(){
+		check();
+		if (this._timer != null) return;
+		this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "replica-lag");
+			t.setDaemon(true);
+			return t;
+		});
+		this._timer.scheduleWithFixedDelay(this::check, this._checkMillis, this._checkMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to measure the lag and record how far the replica has caught up.
+	 */
+	void check(){
+		Long lag = null;
+		long replayed = -1;
+		try{
+			ConnectionPool.PooledConnection pc = this._pool.borrow();
+			try{
+				PreparedStatement stmt = pc.statements.prepare(LAG);
+				ResultSet rs = stmt.executeQuery();
+				if (rs.next()){
+					long value = rs.getLong(2);
+					if (!rs.wasNull()) lag = Math.max(0, value);
+					//a primary standing in for a standby has everything this instance wrote
+					if (!rs.getBoolean(1)) replayed = Long.MAX_VALUE;
+					else {
+						value = rs.getLong(3);
+						if (!rs.wasNull()) replayed = value;
+					}//end if
+				}//end if
+				rs.close();
+			}catch (SQLException e){
+				pc.markBroken();
+				throw e;
+			}finally{
+				this._pool.release(pc);
+			}
+			this._up = true;
+		}catch (SQLException e){
+			this._up = false;
+			changed(false, "unreachable (" + e.getMessage() + ")");
+			return;
+		}
+		if (lag == null){
+			this._lagMillis = -1;
+			changed(false, "waiting for its first replayed transaction");
+			return;
+		}//end if
+		this._lagMillis = lag;
+		this._replayed = replayed;
+		if (lag > this._maxLagMillis) changed(false, lag + "ms behind");
+		else changed(true, lag + "ms behind");
+	}
+
+	private synchronized void changed(boolean usable, String state){
+		if (this._usable != null && usable == this._usable) return;
+		this._usable = usable;
+		if (usable) System.err.println("Reading from the replica " + this._url + " (" + state + ")");
+		else System.err.println("Reading from the primary, the replica " + this._url + " is " + state);
+	}
+
+	/**
+	 * Method to record the primary's WAL position after a write committed.
+	 * Positions only grow, so one asked after a lost position covers that
+	 * write too.
+	 *
+	 * @param lsn the result of CURRENT_LSN
+	 * @param askedNanos System.nanoTime() before CURRENT_LSN was sent
+	 */
+	public synchronized void wrote(long lsn, long askedNanos){
+		if (this._unknownSince < 0) this._written = Math.max(this._written, lsn);
+		else if (askedNanos > this._unknownSince){
+			this._written = lsn;
+			this._unknownSince = -1;
+		}//end if
+	}
+
+	/**
+	 * Method to note a write whose position is unknown (it failed, or the
+	 * position could not be read); reads stay on the primary until a later
+	 * write's position is recorded.
+	 */
+	public synchronized void writeUnknown(){
+		this._written = Long.MAX_VALUE;
+		this._unknownSince = System.nanoTime();
+	}
+
+	/**
+	 * Method to decide whether a read may go to the replica: it is up,
+	 * within the lag threshold and has replayed the last write.
+	 *
+	 * @return true to read from getPool(), false to read from the primary
+	 */
+	public boolean route(){
+		long lag = this._lagMillis;
+		boolean replica = this._up && lag >= 0 && lag <= this._maxLagMillis && this._written <= this._replayed;
+		(replica ? this._routed : this._primary).increment();
+		return replica;
+	}
+
+	/**
+	 * Method to decide what to do with a read the replica failed.  A lost
+	 * connection marks the replica down until the next check succeeds; a
+	 * query cancelled by a conflict with recovery (replay removed rows it
+	 * needed) only retries on the primary.
+	 *
+	 * @return true to run the read again on the primary, false to report the error
+	 */
+	public boolean fallBack(SQLException e){
+		String state = e.getSQLState();
+		boolean lost = state == null || state.startsWith("08") || state.startsWith("57P");
+		if (lost){
+			this._up = false;
+			changed(false, "unreachable (" + e.getMessage() + ")");
+		}//end if
+		if (!lost && !"40001".equals(state)) return false;
+		this._fallbacks.increment();
+		return true;
+	}
+
+	/**
+	 * @return the pool of connections to the replica
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * @return the lag at the last check in milliseconds, or -1 when unknown
+	 */
+	public long getLagMillis(){
+		return this._up ? this._lagMillis : -1;
+	}
+
+	/**
+	 * Method to summarize the replica state and where the reads went.
+	 *
+	 * @return a single line of key=value pairs
+	 */
+	public String getStats(){
+		return String.format("up=%b lagMs=%d maxLagMs=%d replicaReads=%d primaryReads=%d fallbacks=%d",
+			this._up, getLagMillis(), this._maxLagMillis, this._routed.sum(), this._primary.sum(), this._fallbacks.sum());
+	}
+
+	/**
+	 * Method to stop the checks and close the replica's connections.
+	 */
+	public synchronized void close(){
+		if (this._timer != null) this._timer.shutdownNow();
+		this._timer = null;
+		this._pool.close();
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class caches report results (see MechanicShop.executeReport()) until
+ * one of the tables they read is written.  Every table has a version number
+ * that MechanicShop bumps after each committed write to it; an entry keeps
+ * the versions of its tables from before its query ran and is a miss as
+ * soon as any of them moved, so a write that races with the query can never
+ * leave a stale result behind.
+ *
+ * Writes by other processes are not seen, so entries also expire after a
+ * TTL.  Entries are kept in least-recently-used order and evicted once
+ * their estimated size passes the memory cap; a result larger than a
+ * quarter of the cap is not cached at all.
+ *
+ */
+
+public class ReportCache{
+	public static final long DEFAULT_TTL_MILLIS = 60000;
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	//the tables of sql/create.sql, as the version array is indexed
+	static final String[] TABLES = {"customer", "mechanic", "car", "owns", "service_request", "closed_request", "customer_summary"};
+	private static final Pattern TABLE_NAME = Pattern.compile("\\b(" + String.join("|", TABLES) + ")\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern WRITE = Pattern.compile("^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+	//Customer_Summary is kept up to date by triggers on these tables
+	private static final String[] SUMMARY_SOURCES = {"customer", "owns", "service_request", "closed_request"};
+
+	private static class Entry{
+		final QueryResult result;
+		final int[] tables;
+		final long[] versions;
+		final long bytes;
+		final long expires;
+
+		Entry(QueryResult result, int[] tables, long[] versions, long bytes, long expires){
+			this.result = result;
+			this.tables = tables;
+			this.versions = versions;
+			this.bytes = bytes;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * What a caller needs to store a result after running its query: the
+	 * versions of the tables read, taken before the query ran.
+	 */
+	public static class Ticket{
+		final String key;
+		final int[] tables;
+		final long[] versions;
+
+		Ticket(String key, int[] tables, long[] versions){
+			this.key = key;
+			this.tables = tables;
+			this.versions = versions;
+		}
+	}
+
+	private final long _ttlMillis;
+	private final long _maxBytes;
+	private final long[] _versions = new long[TABLES.length];
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	//tables read by each query text, parsed once
+	private final HashMap<String, int[]> _reads = new HashMap<String, int[]>();
+	private long _bytes = 0;
+	private boolean _enabled = true;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _invalidations = 0;
+	private long _evictions = 0;
+
+	public ReportCache(long ttlMillis, long maxBytes){
+		this._ttlMillis = ttlMillis;
+		this._maxBytes = maxBytes;
+	}
+
+	public ReportCache(){
+		this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Returns the cached result of a query.
+	 *
+	 * @return the result, or null on a miss
+	 */
+	public synchronized QueryResult get(String query, Object... params){
+		if (!this._enabled) return null;
+		String key = key(query, params);
+		Entry e = this._entries.get(key);
+		if (e != null){
+			if (System.currentTimeMillis() < e.expires && current(e.tables, e.versions)){
+				++this._hits;
+				return e.result;
+			}//end if
+			++this._invalidations;
+			remove(key);
+		}//end if
+		++this._misses;
+		return null;
+	}
+
+	/**
+	 * Method to record the table versions before a query runs.
+	 *
+	 * @return the ticket to pass to put() with the result
+	 */
+	public synchronized Ticket begin(String query, Object... params){
+		int[] tables = reads(query);
+		long[] versions = new long[tables.length];
+		for (int i = 0; i < tables.length; ++i) versions[i] = this._versions[tables[i]];
+		return new Ticket(key(query, params), tables, versions);
+	}
+
+	/**
+	 * Method to cache a result, unless one of its tables was written while
+	 * the query ran or it is too large.
+	 */
+	public synchronized void put(Ticket ticket, QueryResult result){
+		if (!this._enabled || !current(ticket.tables, ticket.versions)) return;
+		long bytes = result.estimateBytes() + ticket.key.length() * 2L;
+		if (bytes > this._maxBytes / 4) return;
+		remove(ticket.key);
+		this._entries.put(ticket.key, new Entry(result.trimToSize(), ticket.tables, ticket.versions, bytes, System.currentTimeMillis() + this._ttlMillis));
+		this._bytes += bytes;
+		Iterator<Map.Entry<String, Entry>> eldest = this._entries.entrySet().iterator();
+		while (this._bytes > this._maxBytes && eldest.hasNext()){
+			this._bytes -= eldest.next().getValue().bytes;
+			eldest.remove();
+			++this._evictions;
+		}//end while
+	}
+
+	/**
+	 * Method to note a committed write.  INSERT, UPDATE and DELETE move the
+	 * version of their table; any other statement (TRUNCATE, DDL) moves every
+	 * version.
+	 *
+	 * @param sql the statement that was executed
+	 */
+	public synchronized void written(String sql){
+		Matcher m = WRITE.matcher(sql);
+		int table = m.find() ? indexOf(m.group(1)) : -1;
+		if (table < 0){
+			for (int i = 0; i < this._versions.length; ++i) ++this._versions[i];
+			return;
+		}//end if
+		++this._versions[table];
+	}
+
+	/**
+	 * Method to drop every entry, e.g. after a bulk load.
+	 */
+	public synchronized void clear(){
+		for (int i = 0; i < this._versions.length; ++i) ++this._versions[i];
+		this._entries.clear();
+		this._bytes = 0;
+	}
+
+	public synchronized void setEnabled(boolean enabled){
+		this._enabled = enabled;
+		if (!enabled) clear();
+	}
+
+	public synchronized long getHits(){ return this._hits; }
+	public synchronized long getMisses(){ return this._misses; }
+	public synchronized int size(){ return this._entries.size(); }
+
+	/**
+	 * Method to summarize the cache counters.
+	 *
+	 * @return a single line of key=value pairs
+	 */
+	public synchronized String getStats(){
+		return String.format("reports: size=%d bytes=%d maxBytes=%d hits=%d misses=%d invalidations=%d evictions=%d",
+			this._entries.size(), this._bytes, this._maxBytes, this._hits, this._misses, this._invalidations, this._evictions);
+	}
+
+	/**
+	 * Method to find the tables a query reads.  A read of Customer_Summary
+	 * also depends on the tables its triggers follow.
+	 *
+	 * @return indexes into TABLES
+	 */
+	int[] reads(String query){
+		int[] tables = this._reads.get(query);
+		if (tables != null) return tables;
+		boolean[] read = new boolean[TABLES.length];
+		Matcher m = TABLE_NAME.matcher(query);
+		while (m.find()) read[indexOf(m.group(1))] = true;
+		if (read[indexOf("customer_summary")])
+			for (String source : SUMMARY_SOURCES) read[indexOf(source)] = true;
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < read.length; ++i)
+			if (read[i]) list.add(i);
+		tables = new int[list.size()];
+		for (int i = 0; i < tables.length; ++i) tables[i] = list.get(i);
+		this._reads.put(query, tables);
+		return tables;
+	}
+
+	private boolean current(int[] tables, long[] versions){
+		for (int i = 0; i < tables.length; ++i)
+			if (this._versions[tables[i]] != versions[i]) return false;
+		return true;
+	}
+
+	private void remove(String key){
+		Entry e = this._entries.remove(key);
+		if (e != null) this._bytes -= e.bytes;
+	}
+
+	private static int indexOf(String table){
+		return Arrays.asList(TABLES).indexOf(table.toLowerCase(Locale.ROOT));
+	}
+
+	private static String key(String query, Object[] params){
+		return params.length == 0 ? query : query + '\u0000' + Arrays.toString(params);
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class keeps the number of service requests of every car in memory, so
+ * ListKCarsWithTheMostServices does not have to group and sort the whole
+ * Service_Request table.  Counters live in primitive arrays indexed by a slot
+ * per VIN, and an indexed binary max-heap over the slots (the heap position
+ * of every slot is tracked) is fixed up in O(log n) on each new request.
+ * The k largest are read from the heap in O(k log k) without touching the
+ * database.
+ *
+ * The index is filled by one scan of Car and Service_Request and then follows
+ * the requests this process inserts.  Requests inserted or deleted by other
+ * processes are not seen until the next bootstrap; verify() compares the
+ * index with the SQL report to detect such drift.
+ *
+ */
+
+public class ServiceCountIndex{
+	public static final String BOOTSTRAP =
+		"SELECT Car.vin, Car.make, Car.model, Car.year, COUNT(Service_Request.car_vin) FROM Car " +
+		"LEFT JOIN Service_Request ON Service_Request.car_vin = Car.vin GROUP BY Car.vin, Car.make, Car.model, Car.year;";
+	public static final String LOAD_CAR =
+		"SELECT Car.vin, Car.make, Car.model, Car.year, COUNT(Service_Request.car_vin) FROM Car " +
+		"LEFT JOIN Service_Request ON Service_Request.car_vin = Car.vin WHERE Car.vin = ? GROUP BY Car.vin, Car.make, Car.model, Car.year;";
+	public static final int BOOTSTRAP_FETCH_SIZE = 10000;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * One row of the top-k result, in the columns of the SQL report.
+	 */
+	public static class Entry{
+		public final String vin, make, model;
+		public final int year, requests;
+
+		Entry(String vin, String make, String model, int year, int requests){
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.year = year;
+			this.requests = requests;
+		}
+	}
+
+	private final HashMap<String, Integer> _slots = new HashMap<String, Integer>();
+	private String[] _vins = new String[INITIAL_CAPACITY];
+	private String[] _makes = new String[INITIAL_CAPACITY];
+	private String[] _models = new String[INITIAL_CAPACITY];
+	private int[] _years = new int[INITIAL_CAPACITY];
+	private int[] _counts = new int[INITIAL_CAPACITY];
+	//_heap[position] = slot, _position[slot] = position
+	private int[] _heap = new int[INITIAL_CAPACITY];
+	private int[] _position = new int[INITIAL_CAPACITY];
+	private int _size = 0;
+
+	/**
+	 * Method to build the index with one scan of Car joined to Service_Request.
+	 * The scan is streamed through a cursor; make and model strings are shared
+	 * between cars.
+	 *
+	 * @return the filled index
+	 * @throws java.sql.SQLException when the scan failed
+	 */
+	public static ServiceCountIndex bootstrap(MechanicShop esql) throws SQLException {
+		ServiceCountIndex index = new ServiceCountIndex();
+		HashMap<String, String> names = new HashMap<String, String>();
+		ConnectionPool.PooledConnection pc = esql.getPool().borrow();
+		try{
+			//the driver only uses a cursor inside a transaction; the pool rolls it back on release
+			pc.connection.setAutoCommit(false);
+			PreparedStatement stmt = pc.statements.prepare(BOOTSTRAP);
+			stmt.setFetchSize(BOOTSTRAP_FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()){
+				String make = rs.getString(2), model = rs.getString(3);
+				String m = names.putIfAbsent(make, make), n = names.putIfAbsent(model, model);
+				index.append(rs.getString(1), m == null ? make : m, n == null ? model : n, rs.getInt(4), rs.getInt(5));
+			}//end while
+			rs.close();
+		}finally{
+			esql.getPool().release(pc);
+		}
+		//Floyd's heap construction, O(n)
+		for (int pos = index._size / 2 - 1; pos >= 0; --pos) index.siftDown(pos);
+		return index;
+	}
+
+	private void append(String vin, String make, String model, int year, int count){
+		if (this._size == this._vins.length){
+			int capacity = this._size * 2;
+			this._vins = Arrays.copyOf(this._vins, capacity);
+			this._makes = Arrays.copyOf(this._makes, capacity);
+			this._models = Arrays.copyOf(this._models, capacity);
+			this._years = Arrays.copyOf(this._years, capacity);
+			this._counts = Arrays.copyOf(this._counts, capacity);
+			this._heap = Arrays.copyOf(this._heap, capacity);
+			this._position = Arrays.copyOf(this._position, capacity);
+		}//end if
+		int slot = this._size++;
+		this._slots.put(vin, slot);
+		this._vins[slot] = vin;
+		this._makes[slot] = make;
+		this._models[slot] = model;
+		this._years[slot] = year;
+		this._counts[slot] = count;
+		this._heap[slot] = slot;
+		this._position[slot] = slot;
+	}
+
+	/**
+	 * Method to register a new car with no requests.  Known VINs are ignored.
+	 */
+	public void addCar(String vin, String make, String model, int year){
+		addCar(vin, make, model, year, 0);
+	}
+
+	/**
+	 * Method to register a car with the number of requests it already has.
+	 * Known VINs are ignored.
+	 */
+	public synchronized void addCar(String vin, String make, String model, int year, int requests){
+		if (this._slots.containsKey(vin)) return;
+		append(vin, make, model, year, requests);
+		siftUp(this._size - 1);
+	}
+
+	/**
+	 * Method to add a car this index has not seen (e.g. one added by another
+	 * process) with the number of requests the database holds for it.
+	 *
+	 * @return false when the car does not exist
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public boolean load(MechanicShop esql, String vin) throws SQLException {
+		QueryResult car = esql.executeQueryAndReturnColumns(LOAD_CAR, vin);
+		if (car.getRowCount() == 0) return false;
+		addCar(car.getString(0, 0), car.getString(0, 1), car.getString(0, 2), car.getInt(0, 3), car.getInt(0, 4));
+		return true;
+	}
+
+	/**
+	 * Method to count one new service request.
+	 *
+	 * @return false when the VIN is not in the index (the caller should addCar() it first)
+	 */
+	public synchronized boolean increment(String vin){
+		Integer slot = this._slots.get(vin);
+		if (slot == null) return false;
+		++this._counts[slot];
+		siftUp(this._position[slot]);
+		return true;
+	}
+
+	/**
+	 * @return the number of requests counted for the VIN, or -1 when it is unknown
+	 */
+	public synchronized int count(String vin){
+		Integer slot = this._slots.get(vin);
+		return slot == null ? -1 : this._counts[slot];
+	}
+
+	public synchronized int size(){ return this._size; }
+
+	/**
+	 * Method to read the k cars with the most requests, most first.  Only the
+	 * heap positions that can still hold the next largest are visited.  Cars
+	 * without requests are left out, as in the SQL report.
+	 *
+	 * @return at most k entries
+	 */
+	public synchronized List<Entry> top(int k){
+		List<Entry> top = new ArrayList<Entry>(Math.min(k, this._size));
+		if (this._size == 0 || k <= 0) return top;
+		PriorityQueue<Integer> frontier = new PriorityQueue<Integer>(
+			(a, b) -> before(this._heap[a], this._heap[b]) ? -1 : 1);
+		frontier.add(0);
+		while (top.size() < k && !frontier.isEmpty()){
+			int pos = frontier.poll();
+			int slot = this._heap[pos];
+			//every remaining car has no requests either
+			if (this._counts[slot] == 0) break;
+			top.add(new Entry(this._vins[slot], this._makes[slot], this._models[slot], this._years[slot], this._counts[slot]));
+			if (2 * pos + 1 < this._size) frontier.add(2 * pos + 1);
+			if (2 * pos + 2 < this._size) frontier.add(2 * pos + 2);
+		}//end while
+		return top;
+	}
+
+	/**
+	 * Method to compare the index with the SQL report.  Ties may be ordered
+	 * differently, so the request counts are compared rank by rank and the
+	 * count of every VIN the SQL returns is checked against the index.
+	 *
+	 * @return one line per difference; empty when the index agrees
+	 * @throws java.sql.SQLException when the report failed
+	 */
+	public List<String> verify(MechanicShop esql, int k) throws SQLException {
+		//straight from the database, not the report cache
+		QueryResult expected = esql.executeQueryAndReturnColumns(ShopOperations.REPORT_K_MOST_SERVICED_CARS, k);
+		List<Entry> actual = top(k);
+		List<String> drift = new ArrayList<String>();
+		if (expected.getRowCount() != actual.size())
+			drift.add("SQL returned " + expected.getRowCount() + " cars, the index " + actual.size());
+		for (int i = 0; i < Math.min(expected.getRowCount(), actual.size()); ++i){
+			String vin = expected.getString(i, 3);
+			int requests = expected.getInt(i, 4);
+			if (actual.get(i).requests != requests)
+				drift.add("rank " + (i + 1) + ": SQL " + requests + " requests, index " + actual.get(i).requests);
+			int counted = count(vin);
+			if (counted != requests)
+				drift.add(vin + ": SQL " + requests + " requests, index " + (counted < 0 ? "unknown" : Integer.toString(counted)));
+		}//end for
+		return drift;
+	}
+
+	/* ---------- heap ---------- */
+
+	//true when slot a ranks above slot b: more requests, then the older slot
+	private boolean before(int a, int b){
+		return this._counts[a] > this._counts[b] || (this._counts[a] == this._counts[b] && a < b);
+	}
+
+	private void siftUp(int pos){
+		int slot = this._heap[pos];
+		while (pos > 0){
+			int parent = (pos - 1) / 2;
+			if (!before(slot, this._heap[parent])) break;
+			place(this._heap[parent], pos);
+			pos = parent;
+		}//end while
+		place(slot, pos);
+	}
+
+	private void siftDown(int pos){
+		int slot = this._heap[pos];
+		while (true){
+			int child = 2 * pos + 1;
+			if (child >= this._size) break;
+			if (child + 1 < this._size && before(this._heap[child + 1], this._heap[child])) ++child;
+			if (!before(this._heap[child], slot)) break;
+			place(this._heap[child], pos);
+			pos = child;
+		}//end while
+		place(slot, pos);
+	}
+
+	private void place(int slot, int pos){
+		this._heap[pos] = slot;
+		this._position[slot] = pos;
+	}
+}
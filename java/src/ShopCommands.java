@@ -0,0 +1,655 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class runs MechanicShop operations as one-shot subcommands instead of
+ * through the interactive menu, e.g.
+ *
+ *   add-customer --fname Ada --lname Lovelace --phone (555)555-0100 --address "1 Main St"
+ *   close-request --rid 12 --mid 3 --date 2020-01-02 --comment "Fixed!!!" --bill 120
+ *   report top-cars --k 50
+ *   report top-cars --k 50 --verify yes   (also checks the in-memory index against the query)
+ *   report total-bill --from 2024-01-01 --to 2024-04-01   (only requests closed in the window)
+ *   snapshot --dir snap      (exports the tables to a columnar snapshot)
+ *   export total-bill --out total-bill.csv
+ *   export closed-requests --out closed.csv.gz   (streamed with COPY, see CopyExport)
+ *   report total-bill --snapshot snap     (answers from the snapshot, see SnapshotEngine)
+ *   batch nightly.txt        (one subcommand per line; "-" reads standard input)
+ *
+ * Each operation prints one JSON object per line on standard output.  Inserts
+ * from consecutive lines are queued and sent with JDBC batching in a single
+ * transaction, in foreign key order; any line that reads the database sends
+ * the queue first, so later lines always see the rows of earlier ones.  If a
+ * batch fails it is retried one line at a time so each line gets its own
+ * result.  For the same reason a batch checks each add-car VIN against the
+ * VIN filter (and the database when the filter may contain it) before
+ * queueing the car.
+ *
+ * Exit codes: 0 when every operation succeeded, 1 when at least one failed,
+ * 2 for a usage error.
+ *
+ */
+
+public class ShopCommands{
+	public static final int BATCH_SIZE = 1000;
+
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_FAILED = 1;
+	public static final int EXIT_USAGE = 2;
+
+	//the order queued inserts are sent in, so foreign keys always point at rows sent earlier
+	static final String[] INSERT_ORDER = {
+		ShopOperations.INSERT_CUSTOMER, ShopOperations.INSERT_MECHANIC, ShopOperations.INSERT_CAR,
+		ShopOperations.INSERT_OWNS, ShopOperations.INSERT_SERVICE_REQUEST, ShopOperations.INSERT_CLOSED_REQUEST
+	};
+
+	static final String USAGE =
+		"Commands:\n" +
+		"  add-customer --fname F --lname L --phone P --address A\n" +
+		"  add-mechanic --fname F --lname L --experience YEARS\n" +
+		"  add-car --vin V --make M --model M --year Y [--customer ID]\n" +
+		"  add-ownership --customer ID --vin V\n" +
+		"  open-request --customer ID --vin V --date D --odometer N [--complain TEXT]\n" +
+		"  close-request --rid ID --mid ID --date YYYY-MM-DD --bill N [--comment TEXT]\n" +
+		"  report bill-under-100 | more-than-20-cars | cars-before-1995 | top-cars [--k N] [--verify yes] | total-bill [--snapshot DIR]\n" +
+		"  report bill-under-100 | cars-before-1995 | top-cars [--k N] | total-bill [--from YYYY-MM-DD] [--to YYYY-MM-DD]\n" +
+		"  snapshot --dir DIR\n" +
+		"  export REPORT [--k N] [--from D] [--to D] --out FILE[.gz]\n" +
+		"  export customers | mechanics | cars | ownerships | requests | closed-requests --out FILE[.gz]\n" +
+		"  list customers | mechanics\n" +
+		"  batch FILE|-\n";
+
+	/**
+	 * A queued insert and the output line to print once it is committed.
+	 */
+	private static class Pending{
+		final int line;
+		final String command;
+		final String sql;
+		final Object[] params;
+		final String output;
+
+		Pending(int line, String command, String sql, Object[] params, String output){
+			this.line = line;
+			this.command = command;
+			this.sql = sql;
+			this.params = params;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * A usage error in one command line.
+	 */
+	static class UsageException extends Exception{
+		private static final long serialVersionUID = 1L;
+
+		UsageException(String message){ super(message); }
+	}
+
+	private final MechanicShop _esql;
+	private final PrintStream _out;
+	private final List<Pending> _pending = new ArrayList<Pending>();
+	//requests closed by queued, uncommitted inserts
+	private final Set<Integer> _closing = new HashSet<Integer>();
+	//VINs added by queued, uncommitted inserts
+	private final Set<String> _queuedVins = new HashSet<String>();
+	//batches check VINs up front so one duplicate does not fail the whole batch
+	private boolean _checkVins = false;
+	//snapshot engines by directory, mapped once per run
+	private final Map<String, SnapshotEngine> _engines = new HashMap<String, SnapshotEngine>();
+	private int _failed = 0;
+
+	public ShopCommands(MechanicShop esql, PrintStream out){
+		this._esql = esql;
+		this._out = out;
+	}
+
+	/**
+	 * Method to run one subcommand given as program arguments.
+	 *
+	 * @param args the command name followed by its options
+	 * @return the exit code
+	 */
+	public int run(String[] args){
+		try{
+			if (args[0].equals("batch")){
+				if (args.length != 2) throw new UsageException("batch takes one file name (or - for standard input)");
+				runBatch(args[1]);
+			}
+			else execute(0, args);
+			flush();
+		}catch (UsageException e){
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			return EXIT_USAGE;
+		}catch (IOException e){
+			System.err.println("Cannot read input: " + e.getMessage());
+			return EXIT_FAILED;
+		}finally{
+			for (SnapshotEngine engine : this._engines.values()) engine.close();
+		}
+		this._out.flush();
+		return this._failed == 0 ? EXIT_OK : EXIT_FAILED;
+	}
+
+	/**
+	 * Method to run every line of a file as a subcommand.  Blank lines and
+	 * lines starting with '#' are skipped; a line with a usage error is
+	 * reported and counted as failed, and the run goes on.
+	 *
+	 * @throws java.io.IOException when the file could not be read
+	 */
+	private void runBatch(String file) throws IOException {
+		BufferedReader reader = file.equals("-")
+			? new BufferedReader(new InputStreamReader(System.in), 1 << 16)
+			: new BufferedReader(new FileReader(file), 1 << 16);
+		this._checkVins = true;
+		try{
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null){
+				++number;
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+				try{
+					String[] args = tokenize(trimmed);
+					if (args[0].equals("batch")) throw new UsageException("batch files cannot be nested");
+					execute(number, args);
+				}catch (UsageException e){
+					fail(number, args0(trimmed), e.getMessage());
+				}
+			}//end while
+		}finally{
+			reader.close();
+		}
+	}
+
+	private static String args0(String line){
+		int space = line.indexOf(' ');
+		return space < 0 ? line : line.substring(0, space);
+	}
+
+	/**
+	 * Splits a command line into words; double quotes group words and a
+	 * backslash escapes the next character.
+	 */
+	static String[] tokenize(String line) throws UsageException {
+		List<String> words = new ArrayList<String>();
+		StringBuilder word = new StringBuilder();
+		boolean quoted = false, inWord = false;
+		for (int i = 0; i < line.length(); ++i){
+			char c = line.charAt(i);
+			if (c == '\\' && i + 1 < line.length()){ word.append(line.charAt(++i)); inWord = true; }
+			else if (c == '"'){ quoted = !quoted; inWord = true; }
+			else if (Character.isWhitespace(c) && !quoted){
+				if (inWord) words.add(word.toString());
+				word.setLength(0);
+				inWord = false;
+			}
+			else { word.append(c); inWord = true; }
+		}//end for
+		if (quoted) throw new UsageException("unterminated quote");
+		if (inWord) words.add(word.toString());
+		return words.toArray(new String[0]);
+	}
+
+	/**
+	 * Method to run one command.
+	 *
+	 * @param line the line number in a batch file, or 0
+	 * @throws ShopCommands.UsageException when the command or its options are wrong
+	 */
+	void execute(int line, String[] args) throws UsageException {
+		String command = args[0];
+		int first = 1;
+		String what = null;
+		if (command.equals("report") || command.equals("list") || command.equals("export")){
+			if (args.length < 2) throw new UsageException(command + " needs a name");
+			what = args[1];
+			first = 2;
+		}//end if
+		Map<String, String> o = options(args, first);
+
+		String previous = SlowQueryLog.setOperation(what == null ? command : command + " " + what);
+		try{
+			switch (command){
+				case "add-customer": {
+					int id = MechanicShop.NextID(this._esql, "Customer", "id");
+					queue(line, command, ShopOperations.INSERT_CUSTOMER, ok(line, command, "id", id),
+						id, required(o, "fname"), required(o, "lname"), required(o, "phone"), required(o, "address"));
+					break;
+				}
+				case "add-mechanic": {
+					int id = MechanicShop.NextID(this._esql, "Mechanic", "id");
+					queue(line, command, ShopOperations.INSERT_MECHANIC, ok(line, command, "id", id),
+						id, required(o, "fname"), required(o, "lname"), integer(o, "experience"));
+					break;
+				}
+				case "add-car": {
+					String vin = required(o, "vin");
+					Object[] car = {vin, required(o, "make"), required(o, "model"), integer(o, "year")};
+					if (this._checkVins){
+						if (this._queuedVins.contains(vin) || ShopOperations.vinExists(this._esql, vin)){ fail(line, command, "VIN " + vin + " already exists"); break; }
+						this._queuedVins.add(vin);
+					}//end if
+					if (!o.containsKey("customer")){
+						queue(line, command, ShopOperations.INSERT_CAR, ok(line, command, "vin", vin), car);
+						break;
+					}//end if
+					int customer = integer(o, "customer");
+					int id = MechanicShop.NextID(this._esql, "Owns", "ownership_id");
+					//the car row prints nothing; the ownership row reports both
+					queue(line, command, ShopOperations.INSERT_CAR, null, car);
+					queue(line, command, ShopOperations.INSERT_OWNS, ok(line, command, "vin", vin, "ownership_id", id), id, customer, vin);
+					break;
+				}
+				case "add-ownership": {
+					int id = MechanicShop.NextID(this._esql, "Owns", "ownership_id");
+					queue(line, command, ShopOperations.INSERT_OWNS, ok(line, command, "ownership_id", id),
+						id, integer(o, "customer"), required(o, "vin"));
+					break;
+				}
+				case "open-request": {
+					int rid = MechanicShop.NextID(this._esql, "Service_Request", "rid");
+					queue(line, command, ShopOperations.INSERT_SERVICE_REQUEST, ok(line, command, "rid", rid),
+						rid, integer(o, "customer"), required(o, "vin"), required(o, "date"), integer(o, "odometer"), o.get("complain"));
+					break;
+				}
+				case "close-request": closeRequest(line, command, o); break;
+				case "report": report(line, what, o); break;
+				case "snapshot": snapshot(line, command, o); break;
+				case "export": export(line, what, o); break;
+				case "list":
+					if (!what.equals("customers") && !what.equals("mechanics")) throw new UsageException("unknown list: " + what);
+					flush();
+					result(line, command + " " + what, this._esql.executeReadOnly(
+						"SELECT id, fname, lname FROM " + (what.equals("customers") ? "Customer" : "Mechanic") + " ORDER BY id;"));
+					break;
+				default: throw new UsageException("unknown command: " + command);
+			}//end switch
+		}catch (SQLException e){
+			fail(line, command, e.getMessage());
+		}finally{
+			SlowQueryLog.setOperation(previous);
+		}
+	}
+
+	/**
+	 * Validates a closing the same way the menu does (the request exists, is
+	 * still open, the mechanic exists and the date is after the opening date)
+	 * and queues it.
+	 */
+	private void closeRequest(int line, String command, Map<String, String> o) throws UsageException, SQLException {
+		int rid = integer(o, "rid"), mid = integer(o, "mid"), bill = integer(o, "bill");
+		String date = required(o, "date");
+		int day;
+		try{
+			day = QueryResult.epochDay(date);
+		}catch (RuntimeException e){
+			throw new UsageException("--date must be YYYY-MM-DD");
+		}
+		if (bill <= 0){ fail(line, command, "bill must be positive"); return; }
+		if (this._closing.contains(rid)){ fail(line, command, "request " + rid + " is already closed"); return; }
+
+		//the request may have been opened by a queued line
+		if (pendingOtherThan(ShopOperations.INSERT_CLOSED_REQUEST)) flush();
+		if (ShopOperations.findMechanic(this._esql, mid) == null){ fail(line, command, "mechanic " + mid + " does not exist"); return; }
+		QueryResult open = ShopOperations.findOpenRequest(this._esql, rid, mid);
+		if (open.getRowCount() != 1){ fail(line, command, "request " + rid + " or mechanic " + mid + " does not exist, or the request is closed"); return; }
+		if (day <= open.getEpochDay(0, 1)){ fail(line, command, "closing date is not after the request date"); return; }
+
+		int wid = MechanicShop.NextID(this._esql, "Closed_Request", "wid");
+		this._closing.add(rid);
+		queue(line, command, ShopOperations.INSERT_CLOSED_REQUEST, ok(line, command, "wid", wid), wid, rid, mid, date, o.get("comment"), bill);
+	}
+
+	private void report(int line, String name, Map<String, String> o) throws UsageException, SQLException {
+		if (o.containsKey("snapshot")){
+			snapshotReport(line, name, o);
+			return;
+		}//end if
+		if (o.containsKey("from") || o.containsKey("to")){
+			boundedReport(line, name, o);
+			return;
+		}//end if
+		QueryResult result;
+		switch (name){
+			case "bill-under-100": flush(); result = ShopOperations.customersWithBillLessThan100(this._esql); break;
+			case "more-than-20-cars": flush(); result = ShopOperations.customersWithMoreThan20Cars(this._esql); break;
+			case "cars-before-1995": flush(); result = ShopOperations.carsBefore1995With50000Miles(this._esql); break;
+			case "top-cars": {
+				int k = o.containsKey("k") ? integer(o, "k") : 10;
+				if (k <= 0) throw new UsageException("--k must be positive");
+				flush();
+				result = ShopOperations.kCarsWithTheMostServices(this._esql, k);
+				if (o.containsKey("verify") && !verify(line, k)) return;
+				break;
+			}
+			case "total-bill": flush(); result = ShopOperations.customersInDescendingOrderOfTotalBill(this._esql); break;
+			default: throw new UsageException("unknown report: " + name);
+		}//end switch
+		result(line, "report " + name, result);
+	}
+
+	/**
+	 * Method to run a report over a date window, [--from, --to); either end
+	 * may be left open.  bill-under-100 and total-bill take the bills closed
+	 * in the window, cars-before-1995 and top-cars the requests dated in it.
+	 */
+	private void boundedReport(int line, String name, Map<String, String> o) throws UsageException, SQLException {
+		String from = o.containsKey("from") ? date(o, "from") : ShopOperations.BEGINNING;
+		String to = o.containsKey("to") ? date(o, "to") : ShopOperations.END;
+		QueryResult result;
+		switch (name){
+			case "bill-under-100": flush(); result = ShopOperations.customersWithBillLessThan100(this._esql, from, to); break;
+			case "cars-before-1995": flush(); result = ShopOperations.carsBefore1995With50000Miles(this._esql, from, to); break;
+			case "top-cars": {
+				int k = o.containsKey("k") ? integer(o, "k") : 10;
+				if (k <= 0) throw new UsageException("--k must be positive");
+				if (o.containsKey("verify")) throw new UsageException("--verify checks all-time counts; it cannot be used with --from or --to");
+				flush();
+				result = ShopOperations.kCarsWithTheMostServices(this._esql, k, from, to);
+				break;
+			}
+			case "total-bill": flush(); result = ShopOperations.customersInDescendingOrderOfTotalBill(this._esql, from, to); break;
+			case "more-than-20-cars": throw new UsageException("more-than-20-cars counts cars owned, which have no date");
+			default: throw new UsageException("unknown report: " + name);
+		}//end switch
+		result(line, "report " + name, result);
+	}
+
+	/**
+	 * Method to answer a report from a columnar snapshot.  Queued inserts
+	 * are still sent, but the snapshot only has rows up to its export.
+	 */
+	private void snapshotReport(int line, String name, Map<String, String> o) throws UsageException, SQLException {
+		int k = o.containsKey("k") ? integer(o, "k") : 10;
+		if (k <= 0) throw new UsageException("--k must be positive");
+		if (o.containsKey("verify")) throw new UsageException("--verify checks the database; it cannot be used with --snapshot");
+		if (o.containsKey("from") || o.containsKey("to")) throw new UsageException("--from and --to cannot be used with --snapshot");
+		String dir = required(o, "snapshot");
+		flush();
+		SnapshotEngine engine = this._engines.get(dir);
+		if (engine == null){
+			try{
+				engine = new SnapshotEngine(new ColumnarSnapshot(new File(dir)));
+			}catch (IOException e){
+				fail(line, "report " + name, "cannot read snapshot " + dir + ": " + e.getMessage());
+				return;
+			}
+			this._engines.put(dir, engine);
+		}//end if
+		try{
+			result(line, "report " + name, engine.report(name, k));
+		}catch (IllegalArgumentException e){
+			throw new UsageException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to stream a report or a whole table into a CSV file with COPY
+	 * (gzip compressed when --out ends in .gz).
+	 */
+	private void export(int line, String name, Map<String, String> o) throws UsageException, SQLException {
+		String command = "export " + name;
+		File out = new File(required(o, "out"));
+		String copy;
+		try{
+			if (CopyExport.TABLES.containsKey(name)){
+				if (o.containsKey("from") || o.containsKey("to") || o.containsKey("k")) throw new UsageException("a table export takes only --out");
+				copy = CopyExport.table(name);
+			}
+			else {
+				int k = o.containsKey("k") ? integer(o, "k") : 10;
+				if (k <= 0) throw new UsageException("--k must be positive");
+				copy = CopyExport.report(name, k, o.containsKey("from") ? date(o, "from") : null, o.containsKey("to") ? date(o, "to") : null);
+			}//end if
+		}catch (IllegalArgumentException e){
+			throw new UsageException(e.getMessage());
+		}
+		flush();
+		try{
+			long rows = CopyExport.export(this._esql, copy, out);
+			this._out.println(ok(line, command, "file", out.getPath(), "rows", rows, "bytes", out.length()));
+		}catch (IOException e){
+			fail(line, command, "cannot write " + out + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to export the tables to a columnar snapshot for the snapshot
+	 * reports, replacing the one in the directory.
+	 */
+	private void snapshot(int line, String command, Map<String, String> o) throws UsageException, SQLException {
+		File dir = new File(required(o, "dir"));
+		flush();
+		Map<String, Integer> rows;
+		try{
+			rows = ColumnarSnapshot.export(this._esql, dir);
+		}catch (IOException e){
+			fail(line, command, "cannot write snapshot " + dir + ": " + e.getMessage());
+			return;
+		}
+		SnapshotEngine stale = this._engines.remove(dir.getPath());
+		if (stale != null) stale.close();
+		List<Object> fields = new ArrayList<Object>();
+		fields.add("dir");
+		fields.add(dir.getPath());
+		for (Map.Entry<String, Integer> t : rows.entrySet()){
+			fields.add(t.getKey());
+			fields.add(t.getValue());
+		}//end for
+		this._out.println(ok(line, command, fields.toArray()));
+	}
+
+	/**
+	 * Method to compare the in-memory top-k index with the SQL report.
+	 *
+	 * @return true when they agree; otherwise the differences are reported as a failure
+	 */
+	private boolean verify(int line, int k) throws SQLException {
+		List<String> drift = this._esql.getServiceCounts().verify(this._esql, k);
+		if (drift.isEmpty()) return true;
+		fail(line, "report top-cars", "service count index drifted: " + String.join("; ", drift));
+		return false;
+	}
+
+	/* ---------- batching ---------- */
+
+	private void queue(int line, String command, String sql, String output, Object... params){
+		this._pending.add(new Pending(line, command, sql, params, output));
+		if (this._pending.size() >= BATCH_SIZE) flush();
+	}
+
+	private boolean pendingOtherThan(String sql){
+		for (Pending p : this._pending)
+			if (!p.sql.equals(sql)) return true;
+		return false;
+	}
+
+	/**
+	 * Method to send every queued insert in one transaction and print their
+	 * results in input order.  When the batch fails, the lines are sent again
+	 * one at a time, each in its own transaction, so that only the bad lines
+	 * are reported as failed.
+	 */
+	void flush(){
+		if (this._pending.isEmpty()) return;
+		try{
+			this._esql.executeBatch(group(this._pending));
+			committed(this._pending);
+			for (Pending p : this._pending)
+				if (p.output != null) this._out.println(p.output);
+		}catch (SQLException batchError){
+			Iterator<Pending> it = this._pending.iterator();
+			Pending next = it.hasNext() ? it.next() : null;
+			while (next != null){
+				//the rows one line queued (add-car with an owner queues two)
+				List<Pending> rows = new ArrayList<Pending>();
+				int line = next.line;
+				do {
+					rows.add(next);
+					next = it.hasNext() ? it.next() : null;
+				} while (next != null && next.line == line);
+				try{
+					this._esql.executeBatch(group(rows));
+					committed(rows);
+					for (Pending p : rows)
+						if (p.output != null) this._out.println(p.output);
+				}catch (SQLException e){
+					fail(line, rows.get(0).command, e.getMessage());
+				}
+			}//end while
+		}finally{
+			this._pending.clear();
+			this._closing.clear();
+			this._queuedVins.clear();
+		}
+	}
+
+	private void committed(List<Pending> rows){
+		for (Pending p : rows) ShopOperations.committed(this._esql, p.sql, p.params);
+	}
+
+	private static Map<String, List<Object[]>> group(List<Pending> pending){
+		Map<String, List<Object[]>> batches = new LinkedHashMap<String, List<Object[]>>();
+		for (String sql : INSERT_ORDER) batches.put(sql, new ArrayList<Object[]>());
+		for (Pending p : pending) batches.get(p.sql).add(p.params);
+		return batches;
+	}
+
+	/* ---------- options ---------- */
+
+	private static Map<String, String> options(String[] args, int first) throws UsageException {
+		Map<String, String> o = new HashMap<String, String>();
+		for (int i = first; i < args.length; ++i){
+			if (!args[i].startsWith("--") || i + 1 == args.length)
+				throw new UsageException("expected --name value, got: " + args[i]);
+			o.put(args[i].substring(2), args[++i]);
+		}//end for
+		return o;
+	}
+
+	private static String required(Map<String, String> o, String name) throws UsageException {
+		String value = o.get(name);
+		if (value == null) throw new UsageException("missing --" + name);
+		return value;
+	}
+
+	private static int integer(Map<String, String> o, String name) throws UsageException {
+		String value = required(o, name);
+		try{
+			return Integer.parseInt(value.trim());
+		}catch (NumberFormatException e){
+			throw new UsageException("--" + name + " must be an integer: " + value);
+		}
+	}
+
+	private static String date(Map<String, String> o, String name) throws UsageException {
+		String value = required(o, name).trim();
+		try{
+			QueryResult.epochDay(value);
+		}catch (RuntimeException e){
+			throw new UsageException("--" + name + " must be YYYY-MM-DD: " + value);
+		}
+		return value;
+	}
+
+	/* ---------- output ---------- */
+
+	private static String ok(int line, String command, Object... fields){
+		StringBuilder sb = new StringBuilder("{\"status\":\"ok\",\"command\":").append(json(command));
+		if (line > 0) sb.append(",\"line\":").append(line);
+		for (int i = 0; i < fields.length; i += 2)
+			sb.append(',').append(json((String) fields[i])).append(':').append(json(fields[i + 1]));
+		return sb.append('}').toString();
+	}
+
+	private void fail(int line, String command, String message){
+		++this._failed;
+		StringBuilder sb = new StringBuilder("{\"status\":\"error\",\"command\":").append(json(command));
+		if (line > 0) sb.append(",\"line\":").append(line);
+		this._out.println(sb.append(",\"error\":").append(json(message)).append('}'));
+		System.err.println((line > 0 ? "line " + line + ": " : "") + command + ": " + message);
+	}
+
+	private void result(int line, String command, QueryResult r){
+		StringBuilder sb = new StringBuilder(ok(line, command));
+		sb.setLength(sb.length() - 1);
+		sb.append(',');
+		this._out.println(columnsAndRows(sb, r).append('}'));
+	}
+
+	/**
+	 * Method to append a result as "columns":[...],"rows":[[...],...].
+	 *
+	 * @return sb
+	 */
+	static StringBuilder columnsAndRows(StringBuilder sb, QueryResult r){
+		sb.append("\"columns\":[");
+		for (int c = 0; c < r.getColumnCount(); ++c){
+			if (c > 0) sb.append(',');
+			sb.append(json(r.getColumnName(c)));
+		}//end for
+		sb.append("],\"rows\":[");
+		for (int row = 0; row < r.getRowCount(); ++row){
+			sb.append(row > 0 ? ",[" : "[");
+			for (int c = 0; c < r.getColumnCount(); ++c){
+				if (c > 0) sb.append(',');
+				if (r.isNull(row, c)) sb.append("null");
+				else if (r.getColumnType(c) == QueryResult.INT || r.getColumnType(c) == QueryResult.LONG) sb.append(r.getLong(row, c));
+				else sb.append(json(r.getString(row, c)));
+			}//end for
+			sb.append(']');
+		}//end for
+		return sb.append(']');
+	}
+
+	static String json(Object value){
+		if (value == null) return "null";
+		if (value instanceof Number) return value.toString();
+		String s = value.toString();
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			switch (c){
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+					else sb.append(c);
+			}//end switch
+		}//end for
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,607 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves the MechanicShop operations as JSON over HTTP, so one
+ * instance (and one connection pool) can serve every clerk on the shop
+ * floor.  It uses the JDK's built-in HTTP server.  On a JDK with virtual
+ * threads (21 and later) each request runs on its own virtual thread; on
+ * older JDKs a fixed pool of platform threads is used instead.  Either way
+ * the number of concurrent queries is bounded by the connection pool.
+ *
+ *   GET  /health                          GET  /stats             GET  /metrics
+ *   GET  /customers?limit=N[&after=|before=CURSOR|&from=NAME]   GET /customers/ID   POST /customers
+ *   GET  /mechanics?limit=N[&after=|before=CURSOR|&from=NAME]   GET /mechanics/ID   POST /mechanics
+ *   GET  /cars/VIN                        POST /cars              POST /ownerships
+ *   POST /requests                        POST /requests/RID/close
+ *   GET  /reports/bill-under-100 | more-than-20-cars | cars-before-1995 | top-cars?k=N | total-bill
+ *        (all but more-than-20-cars also take &from=YYYY-MM-DD&to=YYYY-MM-DD, a window of closing dates
+ *        for bill-under-100 and total-bill, of request dates for cars-before-1995 and top-cars)
+ *
+ * POST bodies are flat JSON objects with the same fields as the subcommands
+ * of ShopCommands, e.g. {"fname":"Ada","lname":"Lovelace","phone":"(555)555-0100","address":"1 Main St"}.
+ * Responses are JSON objects with "status":"ok" or "status":"error"; errors
+ * use 400 for bad input, 404 for unknown rows or paths, 409 for constraint
+ * violations and 500 for other database errors.  /metrics answers the
+ * Prometheus text dump of MechanicShop.getMetrics(), which also times every
+ * request by method and resource.
+ *
+ */
+
+public class ShopHttpServer{
+	public static final int DEFAULT_PORT = 8080;
+	public static final int BACKLOG = 1024;
+	public static final int MAX_BODY_BYTES = 1 << 16;
+	public static final int DEFAULT_PAGE_SIZE = 100;
+	public static final int MAX_PAGE_SIZE = 1000;
+	//platform threads per pooled connection when virtual threads are not available
+	public static final int THREADS_PER_CONNECTION = 4;
+	//closes of the same request are serialized, so a request is never closed twice
+	private static final int CLOSE_LOCKS = 64;
+	//resources timed under their own name; anything else is timed as "other"
+	private static final Set<String> RESOURCES = new HashSet<String>(Arrays.asList(
+		"health", "stats", "metrics", "customers", "mechanics", "cars", "ownerships", "requests", "reports"));
+
+	/**
+	 * An error answered with an HTTP status instead of a 500.
+	 */
+	static class HttpError extends Exception{
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final Object[] _closeLocks = new Object[CLOSE_LOCKS];
+
+	public ShopHttpServer(MechanicShop esql, InetSocketAddress address, ExecutorService executor) throws IOException {
+		this._esql = esql;
+		this._executor = executor;
+		this._server = HttpServer.create(address, BACKLOG);
+		this._server.createContext("/", this::handle);
+		this._server.setExecutor(executor);
+		for (int i = 0; i < CLOSE_LOCKS; ++i) this._closeLocks[i] = new Object();
+	}
+
+	public void start(){
+		this._server.start();
+	}
+
+	/**
+	 * Method to stop accepting requests and wait up to delaySeconds for the
+	 * ones in progress.
+	 */
+	public void stop(int delaySeconds){
+		this._server.stop(delaySeconds);
+		this._executor.shutdown();
+	}
+
+	/**
+	 * Method to create the request executor: one virtual thread per request
+	 * when the JDK has them, otherwise a fixed pool of platform threads.
+	 *
+	 * @param threads the size of the fallback pool
+	 */
+	static ExecutorService newExecutor(int threads){
+		try{
+			//looked up reflectively so the class still compiles and runs on JDK 17
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		}catch (ReflectiveOperationException e){
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory factory = r -> {
+				Thread t = new Thread(r, "http-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			};
+			return Executors.newFixedThreadPool(threads, factory);
+		}
+	}
+
+	/* ---------- dispatch ---------- */
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		String method = exchange.getRequestMethod();
+		String[] path = segments(exchange.getRequestURI().getRawPath());
+		String resource = path.length > 0 && RESOURCES.contains(path[0]) ? path[0] : "other";
+		if (method.equals("GET") && path.length == 1 && resource.equals("metrics")){
+			send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", this._esql.getMetrics().toPrometheus());
+			return;
+		}//end if
+		int status = 200;
+		String body;
+		String previous = SlowQueryLog.setOperation(method + " /" + resource);
+		try{
+			Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+			if (method.equals("POST")){
+				status = 201;
+				body = post(path, parseObject(readBody(exchange)));
+			}
+			else if (method.equals("GET")) body = get(path, query);
+			else throw new HttpError(405, "method not allowed: " + method);
+		}catch (HttpError e){
+			status = e.status;
+			body = error(e.getMessage());
+		}catch (SQLException e){
+			String state = e.getSQLState();
+			//class 23 is an integrity constraint violation (duplicate key, missing foreign key, check)
+			status = state != null && state.startsWith("23") ? 409 : 500;
+			if (status == 500) System.err.println(exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + e.getMessage());
+			body = error(e.getMessage());
+		}catch (RuntimeException e){
+			status = 500;
+			System.err.println(exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + e);
+			body = error(e.toString());
+		}finally{
+			SlowQueryLog.setOperation(previous);
+		}
+		try{
+			send(exchange, status, "application/json; charset=utf-8", body);
+		}finally{
+			this._esql.getMetrics().record("http." + method + " /" + resource, start, status >= 500, 0, 0);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private String get(String[] path, Map<String, String> query) throws HttpError, SQLException {
+		String resource = path.length > 0 ? path[0] : "";
+		switch (resource){
+			case "health":
+				if (path.length == 1) return "{\"status\":\"ok\"}";
+				break;
+			case "stats":
+				if (path.length == 1)
+					return ok("pool", this._esql.getPool().getStats(), "entities", this._esql.getEntityCacheStats(),
+						"reports", this._esql.getReportCache().getStats(),
+						"replica", this._esql.getReplica() == null ? null : this._esql.getReplica().getStats());
+				break;
+			case "customers": case "mechanics": {
+				boolean customers = resource.equals("customers");
+				if (path.length == 2){
+					int id = parseInt(path[1], "id");
+					QueryResult row = customers ? ShopOperations.findCustomer(this._esql, id) : ShopOperations.findMechanic(this._esql, id);
+					if (row == null) throw new HttpError(404, resource.substring(0, resource.length() - 1) + " " + id + " does not exist");
+					return result(row);
+				}//end if
+				if (path.length != 1) break;
+				return page(customers, query);
+			}
+			case "cars":
+				if (path.length == 2){
+					QueryResult row = ShopOperations.findCar(this._esql, path[1]);
+					if (row == null) throw new HttpError(404, "car " + path[1] + " does not exist");
+					return result(row);
+				}//end if
+				break;
+			case "reports":
+				if (path.length == 2) return report(path[1], query);
+				break;
+		}//end switch
+		throw new HttpError(404, "no such resource: /" + String.join("/", path));
+	}
+
+	private String post(String[] path, Map<String, Object> body) throws HttpError, SQLException {
+		String resource = path.length > 0 ? path[0] : "";
+		if (path.length == 1){
+			switch (resource){
+				case "customers":
+					return ok("id", ShopOperations.addCustomer(this._esql,
+						string(body, "fname"), string(body, "lname"), string(body, "phone"), string(body, "address")));
+				case "mechanics":
+					return ok("id", ShopOperations.addMechanic(this._esql, string(body, "fname"), string(body, "lname"), integer(body, "experience")));
+				case "cars": {
+					String vin = string(body, "vin"), make = string(body, "make"), model = string(body, "model");
+					int year = integer(body, "year");
+					if (ShopOperations.vinExists(this._esql, vin)) throw new HttpError(409, "VIN " + vin + " already exists");
+					if (!body.containsKey("customer")){
+						ShopOperations.addCar(this._esql, vin, make, model, year);
+						return ok("vin", vin);
+					}//end if
+					return ok("vin", vin, "ownership_id", ShopOperations.addCarForCustomer(this._esql, integer(body, "customer"), vin, make, model, year));
+				}
+				case "ownerships":
+					return ok("ownership_id", ShopOperations.addOwnership(this._esql, integer(body, "customer"), string(body, "vin")));
+				case "requests": {
+					Object complain = body.get("complain");
+					return ok("rid", ShopOperations.insertServiceRequest(this._esql, integer(body, "customer"), string(body, "vin"),
+						string(body, "date"), integer(body, "odometer"), complain == null ? null : complain.toString()));
+				}
+			}//end switch
+		}//end if
+		if (resource.equals("requests") && path.length == 3 && path[2].equals("close"))
+			return closeRequest(parseInt(path[1], "rid"), body);
+		throw new HttpError(404, "no such resource: /" + String.join("/", path));
+	}
+
+	/**
+	 * Method to close a request with the same checks as CloseServiceRequest:
+	 * the mechanic exists, the request is open, the closing date is after the
+	 * request date and the bill is positive.
+	 */
+	private String closeRequest(int rid, Map<String, Object> body) throws HttpError, SQLException {
+		int mid = integer(body, "mid"), bill = integer(body, "bill");
+		String date = string(body, "date");
+		Object comment = body.get("comment");
+		int day;
+		try{
+			day = QueryResult.epochDay(date);
+		}catch (RuntimeException e){
+			throw new HttpError(400, "date must be YYYY-MM-DD");
+		}
+		if (bill <= 0) throw new HttpError(400, "bill must be positive");
+		if (ShopOperations.findMechanic(this._esql, mid) == null) throw new HttpError(404, "mechanic " + mid + " does not exist");
+		synchronized (this._closeLocks[Math.floorMod(rid, CLOSE_LOCKS)]){
+			QueryResult open = ShopOperations.findOpenRequest(this._esql, rid, mid);
+			if (open.getRowCount() != 1) throw new HttpError(404, "request " + rid + " does not exist or is closed");
+			if (day <= open.getEpochDay(0, 1)) throw new HttpError(400, "closing date is not after the request date");
+			return ok("wid", ShopOperations.closeServiceRequest(this._esql, rid, mid, date, comment == null ? null : comment.toString(), bill));
+		}
+	}
+
+	/**
+	 * Method to read one page of a list in (lname, fname, id) order with
+	 * keyset predicates.  ?after=CURSOR and ?before=CURSOR page forwards and
+	 * backwards from the "next" and "prev" cursors of an earlier response;
+	 * ?from=NAME starts at the first last name >= NAME.
+	 */
+	private String page(boolean customers, Map<String, String> query) throws HttpError, SQLException {
+		int limit = query.containsKey("limit") ? parseInt(query.get("limit"), "limit") : DEFAULT_PAGE_SIZE;
+		if (limit <= 0 || limit > MAX_PAGE_SIZE) throw new HttpError(400, "limit must be between 1 and " + MAX_PAGE_SIZE);
+		boolean forward = !query.containsKey("before"), first = false;
+		String[] key;
+		if (query.containsKey("after")) key = cursor(query.get("after"));
+		else if (query.containsKey("before")) key = cursor(query.get("before"));
+		else if (query.containsKey("from")) key = new String[] {query.get("from"), "", Integer.toString(Integer.MIN_VALUE)};
+		else {
+			key = new String[] {"", "", Integer.toString(Integer.MIN_VALUE)};
+			first = true;
+		}//end if
+		int id = Integer.parseInt(key[2]);
+		QueryResult page = customers
+			? (forward ? ShopOperations.customersAfter(this._esql, key[0], key[1], id, limit) : ShopOperations.customersBefore(this._esql, key[0], key[1], id, limit))
+			: (forward ? ShopOperations.mechanicsAfter(this._esql, key[0], key[1], id, limit) : ShopOperations.mechanicsBefore(this._esql, key[0], key[1], id, limit));
+		int rows = page.getRowCount();
+		//a full page may have more rows after it; a backward page always has the page it came from
+		boolean hasNext = rows > 0 && (!forward || rows == limit);
+		boolean hasPrev = rows > 0 && (forward ? !first : rows == limit);
+		StringBuilder sb = new StringBuilder("{\"status\":\"ok\",");
+		ShopCommands.columnsAndRows(sb, page);
+		sb.append(",\"next\":").append(hasNext ? ShopCommands.json(cursor(page, rows - 1)) : "null");
+		sb.append(",\"prev\":").append(hasPrev ? ShopCommands.json(cursor(page, 0)) : "null");
+		return sb.append('}').toString();
+	}
+
+	//an opaque, URL-safe page cursor: the (lname, fname, id) key of a row
+	private static String cursor(QueryResult page, int row){
+		String key = page.getString(row, 2) + '\u0000' + page.getString(row, 1) + '\u0000' + page.getInt(row, 0);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String[] cursor(String encoded) throws HttpError {
+		try{
+			String[] key = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8).split("\u0000", -1);
+			if (key.length == 3){
+				Integer.parseInt(key[2]);
+				return key;
+			}//end if
+		}catch (IllegalArgumentException e){
+			// reported below.
+		}
+		throw new HttpError(400, "bad page cursor: " + encoded);
+	}
+
+	private String report(String name, Map<String, String> query) throws HttpError, SQLException {
+		if (query.containsKey("from") || query.containsKey("to")) return boundedReport(name, query);
+		switch (name){
+			case "bill-under-100": return result(ShopOperations.customersWithBillLessThan100(this._esql));
+			case "more-than-20-cars": return result(ShopOperations.customersWithMoreThan20Cars(this._esql));
+			case "cars-before-1995": return result(ShopOperations.carsBefore1995With50000Miles(this._esql));
+			case "total-bill": return result(ShopOperations.customersInDescendingOrderOfTotalBill(this._esql));
+			case "top-cars": {
+				int k = query.containsKey("k") ? parseInt(query.get("k"), "k") : 10;
+				if (k <= 0) throw new HttpError(400, "k must be positive");
+				StringBuilder sb = new StringBuilder("{\"status\":\"ok\",\"columns\":[\"make\",\"model\",\"year\",\"car_vin\",\"requests\"],\"rows\":[");
+				boolean first = true;
+				for (ServiceCountIndex.Entry car : ShopOperations.topServicedCars(this._esql, k)){
+					sb.append(first ? "[" : ",[").append(ShopCommands.json(car.make)).append(',').append(ShopCommands.json(car.model))
+						.append(',').append(car.year).append(',').append(ShopCommands.json(car.vin)).append(',').append(car.requests).append(']');
+					first = false;
+				}//end for
+				return sb.append("]}").toString();
+			}
+		}//end switch
+		throw new HttpError(404, "unknown report: " + name);
+	}
+
+	/**
+	 * Method to run a report over [from, to); either end may be left out.
+	 * bill-under-100 and total-bill take the bills closed in the window,
+	 * cars-before-1995 and top-cars the requests dated in it.
+	 */
+	private String boundedReport(String name, Map<String, String> query) throws HttpError, SQLException {
+		String from = query.containsKey("from") ? parseDate(query.get("from"), "from") : ShopOperations.BEGINNING;
+		String to = query.containsKey("to") ? parseDate(query.get("to"), "to") : ShopOperations.END;
+		switch (name){
+			case "bill-under-100": return result(ShopOperations.customersWithBillLessThan100(this._esql, from, to));
+			case "cars-before-1995": return result(ShopOperations.carsBefore1995With50000Miles(this._esql, from, to));
+			case "total-bill": return result(ShopOperations.customersInDescendingOrderOfTotalBill(this._esql, from, to));
+			case "top-cars": {
+				int k = query.containsKey("k") ? parseInt(query.get("k"), "k") : 10;
+				if (k <= 0) throw new HttpError(400, "k must be positive");
+				return result(ShopOperations.kCarsWithTheMostServices(this._esql, k, from, to));
+			}
+			case "more-than-20-cars": throw new HttpError(400, "more-than-20-cars counts cars owned, which have no date");
+		}//end switch
+		throw new HttpError(404, "unknown report: " + name);
+	}
+
+	/* ---------- request parsing ---------- */
+
+	private static String[] segments(String rawPath){
+		List<String> parts = new ArrayList<String>();
+		for (String part : rawPath.split("/"))
+			if (!part.isEmpty()) parts.add(URLDecoder.decode(part, StandardCharsets.UTF_8));
+		return parts.toArray(new String[0]);
+	}
+
+	private static Map<String, String> query(String rawQuery){
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null) return params;
+		for (String pair : rawQuery.split("&")){
+			int eq = pair.indexOf('=');
+			if (eq > 0)
+				params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}//end for
+		return params;
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException, HttpError {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = in.read(buffer)) > 0; ){
+			bytes.write(buffer, 0, n);
+			if (bytes.size() > MAX_BODY_BYTES) throw new HttpError(413, "request body is larger than " + MAX_BODY_BYTES + " bytes");
+		}//end for
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses a flat JSON object whose values are strings, numbers, booleans
+	 * or null.  Numbers are returned as Long or Double.
+	 */
+	static Map<String, Object> parseObject(String text) throws HttpError {
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		int[] pos = {skip(text, 0)};
+		expect(text, pos, '{');
+		if (peek(text, pos) == '}'){ ++pos[0]; return object; }
+		while (true){
+			if (peek(text, pos) != '"') throw new HttpError(400, "expected a field name at offset " + pos[0]);
+			String name = parseString(text, pos);
+			expect(text, pos, ':');
+			object.put(name, parseValue(text, pos));
+			char c = peek(text, pos);
+			++pos[0];
+			if (c == '}') break;
+			if (c != ',') throw new HttpError(400, "expected ',' or '}' at offset " + (pos[0] - 1));
+		}//end while
+		if (skip(text, pos[0]) != text.length()) throw new HttpError(400, "trailing characters after the JSON object");
+		return object;
+	}
+
+	private static Object parseValue(String text, int[] pos) throws HttpError {
+		char c = peek(text, pos);
+		if (c == '"') return parseString(text, pos);
+		for (String literal : new String[] {"true", "false", "null"}){
+			if (text.startsWith(literal, pos[0])){
+				pos[0] += literal.length();
+				return literal.equals("null") ? null : Boolean.valueOf(literal);
+			}//end if
+		}//end for
+		int start = pos[0];
+		while (pos[0] < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos[0])) >= 0) ++pos[0];
+		String number = text.substring(start, pos[0]);
+		try{
+			if (number.matches("-?\\d+")) return Long.valueOf(number);
+			return Double.valueOf(number);
+		}catch (NumberFormatException e){
+			throw new HttpError(400, "expected a string, number, boolean or null at offset " + start);
+		}
+	}
+
+	private static String parseString(String text, int[] pos) throws HttpError {
+		StringBuilder sb = new StringBuilder();
+		int i = pos[0] + 1;
+		while (i < text.length()){
+			char c = text.charAt(i++);
+			if (c == '"'){
+				pos[0] = i;
+				return sb.toString();
+			}//end if
+			if (c != '\\'){ sb.append(c); continue; }
+			if (i == text.length()) break;
+			char e = text.charAt(i++);
+			switch (e){
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (i + 4 > text.length()) throw new HttpError(400, "bad \\u escape");
+					try{
+						sb.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+					}catch (NumberFormatException ex){
+						throw new HttpError(400, "bad \\u escape");
+					}
+					i += 4;
+					break;
+				default: sb.append(e);
+			}//end switch
+		}//end while
+		throw new HttpError(400, "unterminated string");
+	}
+
+	private static char peek(String text, int[] pos) throws HttpError {
+		pos[0] = skip(text, pos[0]);
+		if (pos[0] >= text.length()) throw new HttpError(400, "unexpected end of the JSON body");
+		return text.charAt(pos[0]);
+	}
+
+	private static void expect(String text, int[] pos, char c) throws HttpError {
+		if (peek(text, pos) != c) throw new HttpError(400, "expected '" + c + "' at offset " + pos[0]);
+		++pos[0];
+	}
+
+	private static int skip(String text, int pos){
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) ++pos;
+		return pos;
+	}
+
+	private static String string(Map<String, Object> body, String name) throws HttpError {
+		Object value = body.get(name);
+		if (value == null) throw new HttpError(400, "missing field: " + name);
+		return value.toString();
+	}
+
+	private static int integer(Map<String, Object> body, String name) throws HttpError {
+		Object value = body.get(name);
+		if (value == null) throw new HttpError(400, "missing field: " + name);
+		if (value instanceof Long && (Long) value == ((Long) value).intValue()) return ((Long) value).intValue();
+		if (value instanceof String) return parseInt((String) value, name);
+		throw new HttpError(400, name + " must be an integer");
+	}
+
+	private static int parseInt(String value, String name) throws HttpError {
+		try{
+			return Integer.parseInt(value.trim());
+		}catch (NumberFormatException e){
+			throw new HttpError(400, name + " must be an integer: " + value);
+		}
+	}
+
+	private static String parseDate(String value, String name) throws HttpError {
+		try{
+			QueryResult.epochDay(value.trim());
+			return value.trim();
+		}catch (RuntimeException e){
+			throw new HttpError(400, name + " must be YYYY-MM-DD: " + value);
+		}
+	}
+
+	/* ---------- responses ---------- */
+
+	private static String ok(Object... fields){
+		StringBuilder sb = new StringBuilder("{\"status\":\"ok\"");
+		for (int i = 0; i < fields.length; i += 2)
+			sb.append(',').append(ShopCommands.json(fields[i])).append(':').append(ShopCommands.json(fields[i + 1]));
+		return sb.append('}').toString();
+	}
+
+	private static String result(QueryResult r){
+		return ShopCommands.columnsAndRows(new StringBuilder("{\"status\":\"ok\","), r).append('}').toString();
+	}
+
+	private static String error(String message){
+		return "{\"status\":\"error\",\"error\":" + ShopCommands.json(message) + "}";
+	}
+
+	/**
+	 * The server entry point
+	 *
+	 * @param args <dbname> <port> <user> [--listen PORT] [--pool N] [--threads N]
+	 */
+	public static void main(String[] args){
+		if (args.length < 3){
+			System.err.println(
+				"Usage: java [-classpath <classpath>] " + ShopHttpServer.class.getName() +
+				" <dbname> <port> <user> [--listen PORT] [--pool N] [--threads N]");
+			System.exit(2);
+		}//end if
+		int listen = DEFAULT_PORT, pool = ConnectionPool.DEFAULT_MAX_SIZE, threads = -1;
+		for (int i = 3; i < args.length; ++i){
+			switch (args[i]){
+				case "--listen": listen = Integer.parseInt(args[++i]); break;
+				case "--pool": pool = Integer.parseInt(args[++i]); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(2);
+			}//end switch
+		}//end for
+		if (threads <= 0) threads = pool * THREADS_PER_CONNECTION;
+
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "", pool);
+			esql.getMetrics().startExports();
+			esql.getPartitions().start();
+			//build the in-memory structures before the first request instead of during it
+			esql.getServiceCounts();
+			esql.getVinFilter();
+
+			ShopHttpServer server = new ShopHttpServer(esql, new InetSocketAddress(listen), newExecutor(threads));
+			MechanicShop shop = esql;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				server.stop(5);
+				shop.cleanup();
+			}));
+			server.start();
+			System.err.println("Listening on port " + listen);
+		}catch (SQLException | IOException e){
+			System.err.println(e.getMessage());
+			if (esql != null) esql.cleanup();
+			System.exit(1);
+		}
+	}
+}
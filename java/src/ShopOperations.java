@@ -0,0 +1,510 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class holds the data-access core of the MechanicShop menu operations:
+ * the SQL each operation issues and the calls that run it, without any
+ * console prompts.  The interactive menu, the benchmarks and any other
+ * front end all go through these methods.
+ *
+ */
+
+public class ShopOperations{
+	//SQLSTATE of a duplicate key
+	public static final String UNIQUE_VIOLATION = "23505";
+	//SQLSTATE of a missing referenced row
+	public static final String FOREIGN_KEY_VIOLATION = "23503";
+	//SQLSTATE of a failed CHECK, e.g. the _PINTEGER domain in sql/create.sql
+	public static final String CHECK_VIOLATION = "23514";
+
+	/* INSERTS */
+	public static final String INSERT_CUSTOMER = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?);";
+	public static final String INSERT_MECHANIC = "INSERT INTO Mechanic (id, fname, lname, experience) VALUES (?, ?, ?, ?);";
+	public static final String INSERT_CAR = "INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?);";
+	public static final String INSERT_OWNS = "INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (?, ?, ?);";
+	public static final String INSERT_SERVICE_REQUEST = "INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, CAST(? AS DATE), ?, ?);";
+	public static final String INSERT_CLOSED_REQUEST = "INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) VALUES (?, ?, ?, CAST(? AS DATE), ?, ?);";
+	/* COMPOUND WRITES (the functions in sql/create.sql: one round trip, one transaction) */
+	public static final String ADD_CAR_FOR_CUSTOMER = "SELECT add_car_for_customer(?, ?, ?, ?, ?, ?);";
+	public static final String ADD_CUSTOMER_WITH_CAR = "SELECT add_customer_with_car(?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+	public static final String OPEN_REQUEST_FOR_NEW_CAR = "SELECT open_request_for_new_car(?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+	public static final String OPEN_REQUEST_FOR_NEW_CUSTOMER = "SELECT open_request_for_new_customer(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+	/* INTAKE JOURNAL (replayed after a crash, so a row that is already there is skipped) */
+	public static final String JOURNAL_SERVICE_REQUEST = "INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, CAST(? AS DATE), ?, ?) ON CONFLICT DO NOTHING;";
+	public static final String JOURNAL_CLOSED_REQUEST = "INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) VALUES (?, ?, ?, CAST(? AS DATE), ?, ?) ON CONFLICT DO NOTHING;";
+
+	/* LOOKUPS */
+	public static final String FIND_CUSTOMER_BY_NAME = "SELECT id, fname, lname, phone FROM Customer WHERE fname = ? AND lname = ?;";
+	public static final String FIND_CUSTOMER_BY_LAST_NAME = "SELECT id, fname, lname FROM Customer WHERE lname = ?;";
+	public static final String FIND_CARS_OF_CUSTOMER = "SELECT ownership_id, customer_id, car_vin FROM Owns WHERE customer_id = ?;";
+	//a request is closed on or after its date, so the closing is only looked for in the partitions from that date on
+	public static final String FIND_OPEN_REQUEST = "SELECT Service_Request.rid, Service_Request.date, Mechanic.id FROM Service_Request, Mechanic WHERE Service_Request.rid = ? AND Mechanic.id = ? AND NOT EXISTS (SELECT 1 FROM Closed_Request WHERE Closed_Request.rid = Service_Request.rid AND Closed_Request.date >= Service_Request.date);";
+	/* PAGES (keyset on (lname, fname, id); the CASTs keep the comparison on CHAR so the indexes are used) */
+	public static final String PAGE_CUSTOMERS_AFTER = "SELECT id, fname, lname FROM Customer WHERE (lname, fname, id) > (CAST(? AS CHAR(32)), CAST(? AS CHAR(32)), ?) ORDER BY lname, fname, id LIMIT ?;";
+	public static final String PAGE_CUSTOMERS_BEFORE = "SELECT id, fname, lname FROM Customer WHERE (lname, fname, id) < (CAST(? AS CHAR(32)), CAST(? AS CHAR(32)), ?) ORDER BY lname DESC, fname DESC, id DESC LIMIT ?;";
+	public static final String PAGE_MECHANICS_AFTER = "SELECT id, fname, lname FROM Mechanic WHERE (lname, fname, id) > (CAST(? AS CHAR(32)), CAST(? AS CHAR(32)), ?) ORDER BY lname, fname, id LIMIT ?;";
+	public static final String PAGE_MECHANICS_BEFORE = "SELECT id, fname, lname FROM Mechanic WHERE (lname, fname, id) < (CAST(? AS CHAR(32)), CAST(? AS CHAR(32)), ?) ORDER BY lname DESC, fname DESC, id DESC LIMIT ?;";
+	public static final String FIND_CAR = "SELECT vin, make, model, year FROM Car WHERE vin = ?;";
+	public static final String VIN_EXISTS = "SELECT 1 WHERE EXISTS (SELECT 1 FROM Car WHERE vin = ?);";
+	public static final String FIND_CUSTOMER = "SELECT id, fname, lname, phone, address FROM Customer WHERE id = ?;";
+	public static final String FIND_MECHANIC = "SELECT id, fname, lname, experience FROM Mechanic WHERE id = ?;";
+
+	/* REPORTS (menu items 6-10) */
+	//inner joins: every closed request has a request and every request a customer (foreign keys), and unlike FULL JOIN they can use the indexes
+	public static final String REPORT_BILL_LESS_THAN_100 = "SELECT Closed_Request.date, Closed_Request.bill, Closed_Request.comment, Customer.fname, Customer.lname FROM Closed_Request JOIN Service_Request ON Closed_Request.rid = Service_Request.rid JOIN Customer ON Customer.id = Service_Request.customer_id WHERE Closed_Request.bill < 100;";
+	//reports 7 and 10 read the per-customer aggregates the triggers in sql/create.sql maintain
+	public static final String REPORT_MORE_THAN_20_CARS = "SELECT C.fname, C.lname FROM Customer_Summary S JOIN Customer C ON C.id = S.customer_id WHERE S.cars_owned > 20;";
+	public static final String REPORT_CARS_BEFORE_1995_UNDER_50000 = "SELECT C.make, C.model, C.year FROM Car C, Service_Request S WHERE C.vin = S.car_vin AND C.year < 1995 AND S.odometer < 50000;";
+	public static final String REPORT_K_MOST_SERVICED_CARS = "SELECT Car.make, Car.model, Car.year, Service_Request.car_vin, COUNT(Service_Request.car_vin) as requests FROM Car, Service_Request WHERE Car.vin = Service_Request.car_vin GROUP BY car.make, car.model, car.year, Service_Request.car_vin ORDER BY requests DESC LIMIT ?;";
+	public static final String REPORT_TOTAL_BILL_DESC = "SELECT C.fname, C.lname, C.id as c_id, S.total_bill FROM Customer_Summary S JOIN Customer C ON C.id = S.customer_id WHERE S.total_bill > 0 ORDER BY S.total_bill DESC LIMIT 10;";
+	/* DATE-BOUNDED REPORTS over [from, to); the bounds let the planner skip the partitions outside it */
+	//the bills closed in the window (Closed_Request.date); a request is dated on or before its closing, so its partitions are bounded by the window's end too
+	public static final String REPORT_BILL_LESS_THAN_100_BETWEEN = "SELECT Closed_Request.date, Closed_Request.bill, Closed_Request.comment, Customer.fname, Customer.lname FROM Closed_Request JOIN Service_Request ON Closed_Request.rid = Service_Request.rid JOIN Customer ON Customer.id = Service_Request.customer_id WHERE Closed_Request.bill < 100 AND Closed_Request.date >= CAST(? AS DATE) AND Closed_Request.date < CAST(? AS DATE) AND Service_Request.date < CAST(? AS DATE);";
+	//reports 8 and 9 count the requests opened in the window (Service_Request.date)
+	public static final String REPORT_CARS_BEFORE_1995_UNDER_50000_BETWEEN = "SELECT C.make, C.model, C.year FROM Car C, Service_Request S WHERE C.vin = S.car_vin AND C.year < 1995 AND S.odometer < 50000 AND S.date >= CAST(? AS DATE) AND S.date < CAST(? AS DATE);";
+	public static final String REPORT_K_MOST_SERVICED_CARS_BETWEEN = "SELECT Car.make, Car.model, Car.year, Service_Request.car_vin, COUNT(Service_Request.car_vin) as requests FROM Car, Service_Request WHERE Car.vin = Service_Request.car_vin AND Service_Request.date >= CAST(? AS DATE) AND Service_Request.date < CAST(? AS DATE) GROUP BY car.make, car.model, car.year, Service_Request.car_vin ORDER BY requests DESC LIMIT ?;";
+	//Customer_Summary holds all-time totals, so a window sums the bills closed in it (Closed_Request.date), bounded like report 6
+	public static final String REPORT_TOTAL_BILL_DESC_BETWEEN = "SELECT C.fname, C.lname, C.id as c_id, SUM(CR.bill) as total_bill FROM Closed_Request CR JOIN Service_Request SR ON SR.rid = CR.rid JOIN Customer C ON C.id = SR.customer_id WHERE CR.date >= CAST(? AS DATE) AND CR.date < CAST(? AS DATE) AND SR.date < CAST(? AS DATE) GROUP BY C.id, C.fname, C.lname ORDER BY total_bill DESC LIMIT 10;";
+	//open ends of a window
+	public static final String BEGINNING = "-infinity";
+	public static final String END = "infinity";
+
+	/**
+	 * Method to add a customer.
+	 *
+	 * @return the new customer's id
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public static int addCustomer(MechanicShop esql, String fname, String lname, String phone, String address) throws SQLException {
+		int id = MechanicShop.NextID(esql, "Customer", "id");
+		esql.executeUpdate(INSERT_CUSTOMER, id, fname, lname, phone, address);
+		committed(esql, INSERT_CUSTOMER, id, fname, lname, phone, address);
+		return id;
+	}
+
+	/**
+	 * Method to add a mechanic.
+	 *
+	 * @return the new mechanic's id
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public static int addMechanic(MechanicShop esql, String fname, String lname, int experience) throws SQLException {
+		int id = MechanicShop.NextID(esql, "Mechanic", "id");
+		esql.executeUpdate(INSERT_MECHANIC, id, fname, lname, experience);
+		committed(esql, INSERT_MECHANIC, id, fname, lname, experience);
+		return id;
+	}
+
+	/**
+	 * Method to add a car without an owner.
+	 *
+	 * @throws java.sql.SQLException when the insert failed (e.g. duplicate VIN)
+	 */
+	public static void addCar(MechanicShop esql, String vin, String make, String model, int year) throws SQLException {
+		try{
+			esql.executeUpdate(INSERT_CAR, vin, make, model, year);
+		}catch (SQLException e){
+			throw carFailed(esql, vin, e);
+		}
+		committed(esql, INSERT_CAR, vin, make, model, year);
+	}
+
+	/**
+	 * Method to note a failed car insert: on a duplicate key the car was
+	 * added by another process after the VIN filter was built.
+	 *
+	 * @return the exception, to rethrow
+	 */
+	private static SQLException carFailed(MechanicShop esql, String vin, SQLException e){
+		VinFilter vins = esql.peekVinFilter();
+		if (vins != null && UNIQUE_VIOLATION.equals(e.getSQLState())) vins.add(vin);
+		return e;
+	}
+
+	/**
+	 * Method to record that a customer owns a car.
+	 *
+	 * @return the new ownership id
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public static int addOwnership(MechanicShop esql, int customerId, String vin) throws SQLException {
+		int id = MechanicShop.NextID(esql, "Owns", "ownership_id");
+		esql.executeUpdate(INSERT_OWNS, id, customerId, vin);
+		return id;
+	}
+
+	/**
+	 * Method to add a car and record its owner, in one round trip.
+	 *
+	 * @return the new ownership id
+	 * @throws java.sql.SQLException when either insert failed; neither was applied
+	 */
+	public static int addCarForCustomer(MechanicShop esql, int customerId, String vin, String make, String model, int year) throws SQLException {
+		int ownershipId = MechanicShop.NextID(esql, "Owns", "ownership_id");
+		try{
+			esql.executeWrite(ADD_CAR_FOR_CUSTOMER, ownershipId, customerId, vin, make, model, year);
+		}catch (SQLException e){
+			throw carFailed(esql, vin, e);
+		}
+		committed(esql, INSERT_CAR, vin, make, model, year);
+		return ownershipId;
+	}
+
+	/**
+	 * Method to add a customer with their first car, in one round trip.
+	 *
+	 * @return the new ids: {customer id, ownership id}
+	 * @throws java.sql.SQLException when an insert failed; none was applied
+	 */
+	public static int[] addCustomerWithCar(MechanicShop esql, String fname, String lname, String phone, String address,
+			String vin, String make, String model, int year) throws SQLException {
+		int id = MechanicShop.NextID(esql, "Customer", "id");
+		int ownershipId = MechanicShop.NextID(esql, "Owns", "ownership_id");
+		try{
+			esql.executeWrite(ADD_CUSTOMER_WITH_CAR, id, fname, lname, phone, address, ownershipId, vin, make, model, year);
+		}catch (SQLException e){
+			throw carFailed(esql, vin, e);
+		}
+		committed(esql, INSERT_CUSTOMER, id, fname, lname, phone, address);
+		committed(esql, INSERT_CAR, vin, make, model, year);
+		return new int[] {id, ownershipId};
+	}
+
+	/**
+	 * Method to add a car for a customer and open a service request on it,
+	 * in one round trip.
+	 *
+	 * @param date the request date, e.g. "MM/DD/YYYY" or "YYYY-MM-DD"
+	 * @return the new ids: {request id, ownership id}
+	 * @throws java.sql.SQLException when an insert failed; none was applied
+	 */
+	public static int[] openRequestForNewCar(MechanicShop esql, int customerId, String vin, String make, String model, int year,
+			String date, int odometer, String complain) throws SQLException {
+		int rid = MechanicShop.NextID(esql, "Service_Request", "rid");
+		int ownershipId = MechanicShop.NextID(esql, "Owns", "ownership_id");
+		try{
+			esql.executeWrite(OPEN_REQUEST_FOR_NEW_CAR, rid, customerId, ownershipId, vin, make, model, year, date, odometer, complain);
+		}catch (SQLException e){
+			throw carFailed(esql, vin, e);
+		}
+		committed(esql, INSERT_CAR, vin, make, model, year);
+		committed(esql, INSERT_SERVICE_REQUEST, rid, customerId, vin, date, odometer, complain);
+		return new int[] {rid, ownershipId};
+	}
+
+	/**
+	 * Method to add a customer with their car and open a service request on
+	 * it, in one round trip.
+	 *
+	 * @param date the request date, e.g. "MM/DD/YYYY" or "YYYY-MM-DD"
+	 * @return the new ids: {request id, customer id, ownership id}
+	 * @throws java.sql.SQLException when an insert failed; none was applied
+	 */
+	public static int[] openRequestForNewCustomer(MechanicShop esql, String fname, String lname, String phone, String address,
+			String vin, String make, String model, int year, String date, int odometer, String complain) throws SQLException {
+		int rid = MechanicShop.NextID(esql, "Service_Request", "rid");
+		int id = MechanicShop.NextID(esql, "Customer", "id");
+		int ownershipId = MechanicShop.NextID(esql, "Owns", "ownership_id");
+		try{
+			esql.executeWrite(OPEN_REQUEST_FOR_NEW_CUSTOMER, rid, id, fname, lname, phone, address,
+				ownershipId, vin, make, model, year, date, odometer, complain);
+		}catch (SQLException e){
+			throw carFailed(esql, vin, e);
+		}
+		committed(esql, INSERT_CUSTOMER, id, fname, lname, phone, address);
+		committed(esql, INSERT_CAR, vin, make, model, year);
+		committed(esql, INSERT_SERVICE_REQUEST, rid, id, vin, date, odometer, complain);
+		return new int[] {rid, id, ownershipId};
+	}
+
+	/**
+	 * Method to open a service request.  With the intake journal on, the
+	 * request is journaled and reaches the database a moment later, so the
+	 * customer, the car and the odometer are checked here instead of by the
+	 * foreign keys and the column's domain.
+	 *
+	 * @param date the request date, e.g. "MM/DD/YYYY" or "YYYY-MM-DD"
+	 * @return the new request id
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public static int insertServiceRequest(MechanicShop esql, int customerId, String vin, String date, int odometer, String complain) throws SQLException {
+		int rid = MechanicShop.NextID(esql, "Service_Request", "rid");
+		IntakeJournal journal = esql.getJournal();
+		if (journal != null){
+			if (findCustomer(esql, customerId) == null)
+				throw new SQLException("customer " + customerId + " does not exist", FOREIGN_KEY_VIOLATION);
+			if (!vinExists(esql, vin))
+				throw new SQLException("car " + vin + " does not exist", FOREIGN_KEY_VIOLATION);
+			if (odometer <= 0)
+				throw new SQLException("odometer must be positive", CHECK_VIOLATION);
+			journal.openRequest(rid, customerId, vin, date, odometer, complain);
+			return rid;
+		}//end if
+		esql.executeUpdate(INSERT_SERVICE_REQUEST, rid, customerId, vin, date, odometer, complain);
+		committed(esql, INSERT_SERVICE_REQUEST, rid, customerId, vin, date, odometer, complain);
+		return rid;
+	}
+
+	/**
+	 * Method to look up an open request together with a mechanic.
+	 *
+	 * @return one row (rid, date, mechanic id) when both exist and the request is still open, otherwise no rows
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult findOpenRequest(MechanicShop esql, int rid, int mid) throws SQLException {
+		//requests opened or closed in the intake journal are not in the database yet
+		IntakeJournal journal = esql.getJournal();
+		if (journal != null){
+			Integer date = journal.pendingRequestDate(rid);
+			if (journal.isPendingClose(rid) || date != null){
+				QueryResult open = QueryResult.empty(new String[]{"rid", "date", "id"},
+					new char[]{QueryResult.INT, QueryResult.DATE, QueryResult.INT});
+				if (!journal.isPendingClose(rid) && findMechanic(esql, mid) != null) open.addRow(rid, date, mid);
+				return open;
+			}//end if
+		}//end if
+		return esql.executeQueryAndReturnColumns(FIND_OPEN_REQUEST, rid, mid);
+	}
+
+	/**
+	 * Method to close a service request.  Callers validate the request with
+	 * findOpenRequest() first.  With the intake journal on, the closing is
+	 * journaled like a new request, once the bill has been checked the way
+	 * the column's domain would.
+	 *
+	 * @param date the closing date, "YYYY-MM-DD"
+	 * @return the new closed request id
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public static int closeServiceRequest(MechanicShop esql, int rid, int mid, String date, String comment, int bill) throws SQLException {
+		int wid = MechanicShop.NextID(esql, "Closed_Request", "wid");
+		IntakeJournal journal = esql.getJournal();
+		if (journal != null){
+			if (bill <= 0)
+				throw new SQLException("bill must be positive", CHECK_VIOLATION);
+			journal.closeRequest(wid, rid, mid, date, comment, bill);
+			return wid;
+		}//end if
+		esql.executeUpdate(INSERT_CLOSED_REQUEST, wid, rid, mid, date, comment, bill);
+		return wid;
+	}
+
+	/**
+	 * Method to update the in-memory structures after an insert has been
+	 * committed.  Every insert path (including batches) calls it once per row.
+	 *
+	 * The insert itself has already succeeded, so a car that cannot be loaded
+	 * into the index is only reported; verify() will show the drift.
+	 *
+	 * @param sql one of the INSERT_* statements
+	 * @param params the values it was executed with
+	 */
+	public static void committed(MechanicShop esql, String sql, Object... params){
+		//write-through: the next lookup of the key reads the committed row
+		if (sql.equals(INSERT_CUSTOMER)) esql.getCustomers().invalidate((Integer) params[0]);
+		else if (sql.equals(INSERT_MECHANIC)) esql.getMechanics().invalidate((Integer) params[0]);
+		else if (sql.equals(INSERT_CAR)) esql.getCars().invalidate((String) params[0]);
+
+		VinFilter vins = esql.peekVinFilter();
+		if (vins != null && sql.equals(INSERT_CAR)) vins.add((String) params[0]);
+
+		ServiceCountIndex counts = esql.peekServiceCounts();
+		if (counts == null) return;
+		if (sql.equals(INSERT_CAR))
+			counts.addCar((String) params[0], (String) params[1], (String) params[2], (Integer) params[3]);
+		else if (sql.equals(INSERT_SERVICE_REQUEST)){
+			//a car added elsewhere is loaded with its count, which already includes this request
+			String vin = (String) params[2];
+			try{
+				if (!counts.increment(vin)) counts.load(esql, vin);
+			}catch (SQLException e){
+				System.err.println("Unable to load car " + vin + " into the service count index: " + e.getMessage());
+			}
+		}//end if
+	}
+
+	/**
+	 * Method to look up a customer by id, from the entity cache when it is there.
+	 *
+	 * @return the row (id, fname, lname, phone, address), or null when there is no such customer
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult findCustomer(MechanicShop esql, int id) throws SQLException {
+		return esql.getCustomers().get(id);
+	}
+
+	/**
+	 * Method to look up a mechanic by id, from the entity cache when it is there.
+	 *
+	 * @return the row (id, fname, lname, experience), or null when there is no such mechanic
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult findMechanic(MechanicShop esql, int id) throws SQLException {
+		return esql.getMechanics().get(id);
+	}
+
+	/**
+	 * Method to look up a car by VIN, from the entity cache when it is there.
+	 *
+	 * @return the row (vin, make, model, year), or null when there is no such car
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult findCar(MechanicShop esql, String vin) throws SQLException {
+		return esql.getCars().get(vin);
+	}
+
+	/**
+	 * Method to check whether a car exists.  The VIN filter answers most new
+	 * VINs without a query; a VIN it may contain is looked up in the car cache
+	 * and then confirmed with an EXISTS query.
+	 *
+	 * @return true when a car with the VIN exists
+	 * @throws java.sql.SQLException when the filter could not be built or the query failed
+	 */
+	public static boolean vinExists(MechanicShop esql, String vin) throws SQLException {
+		if (!esql.getVinFilter().mightContain(vin)) return false;
+		if (esql.getCars().peek(vin) != null) return true;
+		return esql.executeQueryAndReturnColumns(VIN_EXISTS, vin).getRowCount() > 0;
+	}
+
+	//lookups by name and the pages below may be answered by the read replica; lookups by key stay on the primary to see the latest write
+	public static QueryResult findCustomersByName(MechanicShop esql, String fname, String lname) throws SQLException {
+		return esql.executeReadOnly(FIND_CUSTOMER_BY_NAME, fname, lname);
+	}
+
+	public static QueryResult findCustomersByLastName(MechanicShop esql, String lname) throws SQLException {
+		return esql.executeReadOnly(FIND_CUSTOMER_BY_LAST_NAME, lname);
+	}
+
+	public static QueryResult findCarsOfCustomer(MechanicShop esql, int customerId) throws SQLException {
+		return esql.executeReadOnly(FIND_CARS_OF_CUSTOMER, customerId);
+	}
+
+	/**
+	 * Method to read the page of customers that follows a key in (lname,
+	 * fname, id) order.  The first page follows ("", "", Integer.MIN_VALUE);
+	 * jumping to a last name follows (name, "", Integer.MIN_VALUE).  Every
+	 * page is one index seek, however deep it is.
+	 *
+	 * @param limit the page size
+	 * @return the rows (id, fname, lname) in ascending order
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult customersAfter(MechanicShop esql, String lname, String fname, int id, int limit) throws SQLException {
+		return esql.executeReadOnly(PAGE_CUSTOMERS_AFTER, lname, fname, id, limit);
+	}
+
+	/**
+	 * Method to read the page of customers that precedes a key in (lname,
+	 * fname, id) order.
+	 *
+	 * @param limit the page size
+	 * @return the rows (id, fname, lname) in ascending order
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult customersBefore(MechanicShop esql, String lname, String fname, int id, int limit) throws SQLException {
+		return esql.executeReadOnly(PAGE_CUSTOMERS_BEFORE, lname, fname, id, limit).reverseRows();
+	}
+
+	/**
+	 * Method to read the page of mechanics that follows a key, as customersAfter().
+	 *
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult mechanicsAfter(MechanicShop esql, String lname, String fname, int id, int limit) throws SQLException {
+		return esql.executeReadOnly(PAGE_MECHANICS_AFTER, lname, fname, id, limit);
+	}
+
+	/**
+	 * Method to read the page of mechanics that precedes a key, as customersBefore().
+	 *
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult mechanicsBefore(MechanicShop esql, String lname, String fname, int id, int limit) throws SQLException {
+		return esql.executeReadOnly(PAGE_MECHANICS_BEFORE, lname, fname, id, limit).reverseRows();
+	}
+
+	/* REPORTS (through the report cache, see MechanicShop.executeReport) */
+	public static QueryResult customersWithBillLessThan100(MechanicShop esql) throws SQLException {
+		return esql.executeReport(REPORT_BILL_LESS_THAN_100);
+	}
+
+	public static QueryResult customersWithMoreThan20Cars(MechanicShop esql) throws SQLException {
+		return esql.executeReport(REPORT_MORE_THAN_20_CARS);
+	}
+
+	public static QueryResult carsBefore1995With50000Miles(MechanicShop esql) throws SQLException {
+		return esql.executeReport(REPORT_CARS_BEFORE_1995_UNDER_50000);
+	}
+
+	public static QueryResult kCarsWithTheMostServices(MechanicShop esql, int k) throws SQLException {
+		return esql.executeReport(REPORT_K_MOST_SERVICED_CARS, k);
+	}
+
+	/**
+	 * Method to answer the k-most-serviced-cars report from the in-memory
+	 * index, building it on first use.
+	 *
+	 * @throws java.sql.SQLException when the index could not be built
+	 */
+	public static List<ServiceCountIndex.Entry> topServicedCars(MechanicShop esql, int k) throws SQLException {
+		return esql.getServiceCounts().top(k);
+	}
+
+	public static QueryResult customersInDescendingOrderOfTotalBill(MechanicShop esql) throws SQLException {
+		return esql.executeReport(REPORT_TOTAL_BILL_DESC);
+	}
+
+	/**
+	 * Method to run report 6 over the requests closed in [from, to).
+	 *
+	 * @param from the first day, "YYYY-MM-DD" or BEGINNING
+	 * @param to the day after the last, "YYYY-MM-DD" or END
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult customersWithBillLessThan100(MechanicShop esql, String from, String to) throws SQLException {
+		return esql.executeReport(REPORT_BILL_LESS_THAN_100_BETWEEN, from, to, to);
+	}
+
+	/**
+	 * Method to run report 8 over the requests dated in [from, to).
+	 *
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult carsBefore1995With50000Miles(MechanicShop esql, String from, String to) throws SQLException {
+		return esql.executeReport(REPORT_CARS_BEFORE_1995_UNDER_50000_BETWEEN, from, to);
+	}
+
+	/**
+	 * Method to run report 9 over the requests dated in [from, to), from the
+	 * database; the in-memory index only has all-time counts.
+	 *
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult kCarsWithTheMostServices(MechanicShop esql, int k, String from, String to) throws SQLException {
+		return esql.executeReport(REPORT_K_MOST_SERVICED_CARS_BETWEEN, from, to, k);
+	}
+
+	/**
+	 * Method to run report 10 over the bills of requests closed in [from, to).
+	 *
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static QueryResult customersInDescendingOrderOfTotalBill(MechanicShop esql, String from, String to) throws SQLException {
+		return esql.executeReport(REPORT_TOTAL_BILL_DESC_BETWEEN, from, to, to);
+	}
+}
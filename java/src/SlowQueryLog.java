@@ -0,0 +1,339 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class logs every statement MechanicShop runs for longer than a
+ * threshold: its SQL, parameters, duration, row count and the menu
+ * operation (or subcommand, or HTTP route) that issued it, followed by its
+ * EXPLAIN (ANALYZE, BUFFERS) plan.
+ *
+ * The executing thread only compares the elapsed time with the threshold
+ * and, for a slow statement, offers an entry to a bounded queue; a full
+ * queue drops the entry and counts it.  One background thread writes the
+ * log and captures the plans on its own connection, opened outside the
+ * pool so it never takes a connection from a clerk.  Only a sample of
+ * slow statements is explained, and each SQL text at most once per
+ * cooldown, since the capture runs the query again.  Writes, which the
+ * execute method marks as such (a compound write is a SELECT of a
+ * function), are explained without ANALYZE inside a rolled-back
+ * transaction; running them again would apply them twice or hit the key
+ * they just inserted.
+ *
+ * The log is rolled to slow-queries.log.1 ... .N once it passes maxBytes.
+ * Settings are system properties:
+ *
+ *   -Dslowquery.millis=1000       threshold; 0 or less turns the log off
+ *   -Dslowquery.file=slow-queries.log
+ *   -Dslowquery.sample=1.0        fraction of slow statements explained
+ *   -Dslowquery.maxBytes=10485760 -Dslowquery.files=5
+ *
+ */
+
+public class SlowQueryLog{
+	public static final long DEFAULT_THRESHOLD_MILLIS = 1000;
+	public static final String DEFAULT_FILE = "slow-queries.log";
+	public static final double DEFAULT_SAMPLE = 1.0;
+	public static final long DEFAULT_MAX_BYTES = 10L << 20;
+	public static final int DEFAULT_FILES = 5;
+	public static final int QUEUE_CAPACITY = 256;
+	//a SQL text is explained at most once per cooldown
+	public static final long EXPLAIN_COOLDOWN_MILLIS = 60000;
+	//bounds the cost of running a slow query again for its plan
+	public static final int EXPLAIN_TIMEOUT_SECONDS = 30;
+
+	//the operation the current thread is running, for attribution
+	private static final ThreadLocal<String> OPERATION = new ThreadLocal<String>();
+
+	private static class Entry{
+		final long at = System.currentTimeMillis();
+		final String operation;
+		final String sql;
+		final Object[] params;
+		final long micros;
+		final long rows;
+		final boolean write;
+		final boolean failed;
+		final boolean explain;
+
+		Entry(String operation, String sql, Object[] params, boolean write, long micros, long rows, boolean failed, boolean explain){
+			this.operation = operation;
+			this.sql = sql;
+			this.params = params;
+			this.write = write;
+			this.micros = micros;
+			this.rows = rows;
+			this.failed = failed;
+			this.explain = explain;
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final File _file;
+	private final long _maxBytes;
+	private final int _files;
+	private final double _sample;
+	private volatile long _thresholdNanos;
+	private final ArrayBlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(QUEUE_CAPACITY);
+	private final LongAdder _logged = new LongAdder();
+	private final LongAdder _dropped = new LongAdder();
+	//touched only by the writer thread
+	private final HashMap<String, Long> _explained = new HashMap<String, Long>();
+	private Connection _connection = null;
+	private Writer _out = null;
+	private long _bytes = 0;
+	private Thread _writer = null;
+
+	public SlowQueryLog(ConnectionPool pool, long thresholdMillis, File file, double sample, long maxBytes, int files){
+		this._pool = pool;
+		this._thresholdNanos = thresholdMillis * 1000000L;
+		this._file = file;
+		this._sample = sample;
+		this._maxBytes = maxBytes;
+		this._files = files;
+	}
+
+	/**
+	 * Method to create the log from the slowquery.* system properties.
+	 */
+	public static SlowQueryLog fromProperties(ConnectionPool pool){
+		String sample = System.getProperty("slowquery.sample");
+		return new SlowQueryLog(pool, Long.getLong("slowquery.millis", DEFAULT_THRESHOLD_MILLIS),
+			new File(System.getProperty("slowquery.file", DEFAULT_FILE)),
+			sample == null ? DEFAULT_SAMPLE : Double.parseDouble(sample),
+			Long.getLong("slowquery.maxBytes", DEFAULT_MAX_BYTES), Integer.getInteger("slowquery.files", DEFAULT_FILES));
+	}
+
+	/**
+	 * Method to name the operation the current thread is about to run, so
+	 * its slow statements are attributed to it.
+	 *
+	 * @param operation e.g. a menu operation name, or null to clear
+	 * @return the previous name, to restore afterwards
+	 */
+	public static String setOperation(String operation){
+		String previous = OPERATION.get();
+		if (operation == null) OPERATION.remove();
+		else OPERATION.set(operation);
+		return previous;
+	}
+
+	public void setThresholdMillis(long millis){
+		this._thresholdNanos = millis * 1000000L;
+	}
+
+	public long getThresholdMillis(){
+		return this._thresholdNanos / 1000000L;
+	}
+
+	/**
+	 * Method to check one finished statement.  Cheap unless it was slow.
+	 *
+	 * @param sql the statement text
+	 * @param params its bound values, or null when it cannot be explained (e.g. a batch)
+	 * @param write true when it writes, even as a SELECT of a function; it is explained without ANALYZE
+	 * @param startNanos System.nanoTime() when it started
+	 * @param rows rows returned or written
+	 * @param failed true when it threw
+	 */
+	public void check(String sql, Object[] params, boolean write, long startNanos, long rows, boolean failed){
+		long threshold = this._thresholdNanos;
+		if (threshold <= 0) return;
+		long elapsed = System.nanoTime() - startNanos;
+		if (elapsed < threshold) return;
+		boolean explain = params != null && !failed && ThreadLocalRandom.current().nextDouble() < this._sample;
+		Entry e = new Entry(OPERATION.get(), sql, params == null ? null : params.clone(), write, elapsed / 1000, rows, failed, explain);
+		if (!this._queue.offer(e)){
+			this._dropped.increment();
+			return;
+		}//end if
+		start();
+	}
+
+	private synchronized void start(){
+		if (this._writer != null) return;
+		this._writer = new Thread(this::drain, "slow-query-log");
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	private void drain(){
+		try{
+			while (true) write(this._queue.take());
+		}catch (InterruptedException e){
+			// closing.
+		}finally{
+			closeQuietly();
+		}
+	}
+
+	private void write(Entry e){
+		StringBuilder text = new StringBuilder();
+		text.append("# ").append(Instant.ofEpochMilli(e.at)).append(" duration_ms=")
+			.append(String.format(Locale.ROOT, "%.3f", e.micros / 1000.0)).append(" rows=").append(e.rows)
+			.append(" operation=").append(e.operation == null ? "-" : e.operation);
+		if (e.failed) text.append(" failed");
+		text.append('\n').append(e.sql.trim()).append('\n');
+		if (e.params != null && e.params.length > 0) text.append("params: ").append(Arrays.toString(e.params)).append('\n');
+		if (e.explain && due(e)) text.append(explain(e));
+		text.append('\n');
+		try{
+			append(text.toString());
+			this._logged.increment();
+		}catch (IOException ex){
+			System.err.println("Unable to write the slow query log " + this._file + ": " + ex.getMessage());
+		}
+	}
+
+	private boolean due(Entry e){
+		Long last = this._explained.get(e.sql);
+		if (last != null && e.at - last < EXPLAIN_COOLDOWN_MILLIS) return false;
+		if (this._explained.size() > 10000) this._explained.clear();
+		this._explained.put(e.sql, e.at);
+		return true;
+	}
+
+	/**
+	 * Method to capture the plan of a logged statement on the log's own
+	 * connection.  Nothing it runs is committed.
+	 *
+	 * @return the plan, or the error that prevented it
+	 */
+	private String explain(Entry e){
+		//a write is never run again; neither is a read that does not look like a query
+		boolean query = !e.write && (e.sql.trim().regionMatches(true, 0, "SELECT", 0, 6) || e.sql.trim().regionMatches(true, 0, "WITH", 0, 4));
+		String explain = query ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ";
+		StringBuilder plan = new StringBuilder();
+		try{
+			if (this._connection == null || this._connection.isClosed()){
+				this._connection = this._pool.openUnpooled();
+				this._connection.setAutoCommit(false);
+				Statement set = this._connection.createStatement();
+				set.execute("SET statement_timeout = '" + EXPLAIN_TIMEOUT_SECONDS + "s'");
+				set.close();
+				this._connection.commit();
+			}//end if
+			PreparedStatement stmt = this._connection.prepareStatement(explain + e.sql);
+			try{
+				MechanicShop.bind(stmt, e.params);
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()) plan.append("  ").append(rs.getString(1)).append('\n');
+				rs.close();
+			}finally{
+				stmt.close();
+				this._connection.rollback();
+			}
+		}catch (SQLException ex){
+			plan.append("  (no plan: ").append(ex.getMessage()).append(")\n");
+			if (ex.getSQLState() != null && ex.getSQLState().startsWith("08")) closeConnection();
+		}
+		return plan.toString();
+	}
+
+	private void append(String text) throws IOException {
+		if (this._out == null){
+			this._bytes = this._file.length();
+			this._out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8));
+		}//end if
+		this._out.write(text);
+		this._out.flush();
+		this._bytes += text.length();
+		if (this._bytes >= this._maxBytes) roll();
+	}
+
+	/**
+	 * Method to shift log.1 .. log.N-1 up by one and move the current log
+	 * to log.1.
+	 */
+	private void roll() throws IOException {
+		this._out.close();
+		this._out = null;
+		new File(this._file.getPath() + "." + this._files).delete();
+		for (int i = this._files - 1; i >= 1; --i){
+			File from = new File(this._file.getPath() + "." + i);
+			if (from.exists()) from.renameTo(new File(this._file.getPath() + "." + (i + 1)));
+		}//end for
+		if (this._files > 0) this._file.renameTo(new File(this._file.getPath() + ".1"));
+		else this._file.delete();
+	}
+
+	private void closeConnection(){
+		try{
+			if (this._connection != null) this._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+		this._connection = null;
+	}
+
+	private void closeQuietly(){
+		closeConnection();
+		try{
+			if (this._out != null) this._out.close();
+		}catch (IOException e){
+			// ignored.
+		}
+		this._out = null;
+	}
+
+	/**
+	 * Method to stop the writer thread, waiting briefly for entries still
+	 * queued, and close its connection.
+	 */
+	public void close(){
+		Thread writer;
+		synchronized (this){
+			writer = this._writer;
+			this._writer = null;
+		}
+		if (writer == null) return;
+		long deadline = System.currentTimeMillis() + 2000;
+		while (!this._queue.isEmpty() && System.currentTimeMillis() < deadline){
+			try{
+				Thread.sleep(10);
+			}catch (InterruptedException e){
+				break;
+			}
+		}//end while
+		writer.interrupt();
+	}
+
+	/**
+	 * Method to summarize the log counters.
+	 *
+	 * @return a single line of key=value pairs
+	 */
+	public String getStats(){
+		return String.format("slowQueries: thresholdMs=%d logged=%d dropped=%d queued=%d",
+			getThresholdMillis(), this._logged.sum(), this._dropped.sum(), this._queue.size());
+	}
+}
@@ -0,0 +1,545 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/**
+ * This class answers the five MechanicShop reports (menu items 6-10) from a
+ * ColumnarSnapshot instead of the database, so heavy analytics do not
+ * compete with the counter's queries.  The column files stay memory-mapped;
+ * only the hash tables and aggregates a report builds, and the rows it
+ * returns, are on the heap.
+ *
+ * Every scan is split into ranges of rows that run as fork-join tasks.
+ * Joins on an id build a hash table partitioned by key: one task per
+ * partition scans the build side and inserts only its own keys, so no
+ * table is shared between writers; the probe side is then scanned in
+ * parallel.  Joins on a VIN need no table, since a VIN's code is its car's
+ * row.  Aggregates are built per range and merged as the tasks join.
+ *
+ * The results have the same columns as the SQL reports.  Rows the SQL
+ * leaves unordered come in snapshot order, and ties in the top-k reports
+ * are broken by VIN or customer id.
+ *
+ */
+
+public class SnapshotEngine{
+	//rows per fork-join leaf
+	public static final int LEAF_ROWS = 1 << 14;
+
+	private final ColumnarSnapshot _snapshot;
+	private final ForkJoinPool _pool;
+	//hash partitions of a join build: a power of two, at least the parallelism
+	private final int _partitions;
+
+	public SnapshotEngine(ColumnarSnapshot snapshot, int parallelism){
+		this._snapshot = snapshot;
+		this._pool = new ForkJoinPool(parallelism);
+		this._partitions = Integer.highestOneBit(Math.max(1, parallelism - 1)) << 1;
+	}
+
+	public SnapshotEngine(ColumnarSnapshot snapshot){
+		this(snapshot, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ColumnarSnapshot getSnapshot(){ return this._snapshot; }
+
+	/**
+	 * Method to stop the worker threads.
+	 */
+	public void close(){
+		this._pool.shutdown();
+	}
+
+	/* ---------- the reports ---------- */
+
+	/**
+	 * Report 6: date, bill, comment, fname, lname of closed requests billed
+	 * under 100.
+	 */
+	public QueryResult customersWithBillLessThan100(){
+		ColumnarSnapshot.Table cr = this._snapshot.table("closed_request"), sr = this._snapshot.table("service_request");
+		IntBuffer crRid = cr.column("rid"), crBill = cr.column("bill");
+		IntBuffer srCustomer = sr.column("customer_id");
+		IntLongMap[] requests = index(sr.column("rid"), sr.rows);
+		IntLongMap[] customers = index(this._snapshot.table("customer").column("id"), this._snapshot.table("customer").rows);
+
+		//pairs of (closed request row, customer row)
+		IntList pairs = scan(cr.rows, (lo, hi) -> {
+			IntList out = new IntList();
+			for (int r = lo; r < hi; ++r){
+				int bill = crBill.get(r);
+				if (bill == ColumnarSnapshot.NULL_INT || bill >= 100) continue;
+				int request = (int) lookup(requests, crRid.get(r));
+				if (request < 0) continue;
+				int customer = (int) lookup(customers, srCustomer.get(request));
+				if (customer < 0) continue;
+				out.add(r);
+				out.add(customer);
+			}//end for
+			return out;
+		}, IntList::addAll);
+
+		QueryResult result = QueryResult.empty(new String[] {"date", "bill", "comment", "fname", "lname"},
+			new char[] {QueryResult.DATE, QueryResult.INT, QueryResult.TEXT, QueryResult.TEXT, QueryResult.TEXT});
+		ColumnarSnapshot.Dictionary comments = this._snapshot.dictionary("closed_request", "comment");
+		for (int i = 0; i < pairs.size(); i += 2){
+			int r = pairs.get(i), c = pairs.get(i + 1);
+			result.addRow(date(cr.column("date").get(r)), crBill.get(r), comments.get(cr.column("comment").get(r)),
+				customerText(c, "fname"), customerText(c, "lname"));
+		}//end for
+		return result;
+	}
+
+	/**
+	 * Report 7: fname, lname of customers who own more than 20 cars.
+	 */
+	public QueryResult customersWithMoreThan20Cars(){
+		ColumnarSnapshot.Table owns = this._snapshot.table("owns"), customer = this._snapshot.table("customer");
+		IntBuffer owner = owns.column("customer_id");
+		IntLongMap cars = scan(owns.rows, (lo, hi) -> {
+			IntLongMap counts = new IntLongMap(1024);
+			for (int r = lo; r < hi; ++r) counts.add(owner.get(r), 1);
+			return counts;
+		}, IntLongMap::merge);
+
+		IntBuffer ids = customer.column("id");
+		IntList rows = scan(customer.rows, (lo, hi) -> {
+			IntList out = new IntList();
+			for (int r = lo; r < hi; ++r)
+				if (cars.get(ids.get(r), 0) > 20) out.add(r);
+			return out;
+		}, IntList::addAll);
+
+		QueryResult result = QueryResult.empty(new String[] {"fname", "lname"}, new char[] {QueryResult.TEXT, QueryResult.TEXT});
+		for (int i = 0; i < rows.size(); ++i)
+			result.addRow(customerText(rows.get(i), "fname"), customerText(rows.get(i), "lname"));
+		return result;
+	}
+
+	/**
+	 * Report 8: make, model, year of each request on a car built before 1995
+	 * with an odometer under 50000.
+	 */
+	public QueryResult carsBefore1995With50000Miles(){
+		ColumnarSnapshot.Table sr = this._snapshot.table("service_request"), car = this._snapshot.table("car");
+		IntBuffer srCar = sr.column("car_vin"), odometer = sr.column("odometer"), year = car.column("year");
+		IntList cars = scan(sr.rows, (lo, hi) -> {
+			IntList out = new IntList();
+			for (int r = lo; r < hi; ++r){
+				int c = srCar.get(r), miles = odometer.get(r);
+				if (c == ColumnarSnapshot.NULL_CODE || miles == ColumnarSnapshot.NULL_INT || miles >= 50000) continue;
+				int y = year.get(c);
+				if (y != ColumnarSnapshot.NULL_INT && y < 1995) out.add(c);
+			}//end for
+			return out;
+		}, IntList::addAll);
+
+		QueryResult result = QueryResult.empty(new String[] {"make", "model", "year"}, new char[] {QueryResult.TEXT, QueryResult.TEXT, QueryResult.INT});
+		for (int i = 0; i < cars.size(); ++i){
+			int c = cars.get(i);
+			result.addRow(carText(c, "make"), carText(c, "model"), year.get(c));
+		}//end for
+		return result;
+	}
+
+	/**
+	 * Report 9: make, model, year, car_vin, requests of the k cars with the
+	 * most service requests.
+	 */
+	public QueryResult kCarsWithTheMostServices(int k){
+		ColumnarSnapshot.Table sr = this._snapshot.table("service_request"), car = this._snapshot.table("car");
+		IntBuffer srCar = sr.column("car_vin");
+		int cars = car.rows, requests = sr.rows;
+		//one count array per worker rather than per leaf, so the arrays and their merge cost parallelism x cars
+		int workers = this._pool.getParallelism();
+		int[][] partial = new int[workers][];
+		forEach(workers, w -> {
+			int[] out = new int[cars];
+			for (int r = (int) ((long) requests * w / workers), hi = (int) ((long) requests * (w + 1) / workers); r < hi; ++r){
+				int c = srCar.get(r);
+				if (c != ColumnarSnapshot.NULL_CODE) ++out[c];
+			}//end for
+			partial[w] = out;
+		});
+		//each worker sums its own range of cars into the first array
+		int[] counts = partial[0];
+		forEach(workers, w -> {
+			for (int c = (int) ((long) cars * w / workers), hi = (int) ((long) cars * (w + 1) / workers); c < hi; ++c)
+				for (int p = 1; p < workers; ++p) counts[c] += partial[p][c];
+		});
+
+		int[] top = top(k, cars, c -> counts[c]);
+		QueryResult result = QueryResult.empty(new String[] {"make", "model", "year", "car_vin", "requests"},
+			new char[] {QueryResult.TEXT, QueryResult.TEXT, QueryResult.INT, QueryResult.TEXT, QueryResult.LONG});
+		for (int c : top)
+			result.addRow(carText(c, "make"), carText(c, "model"), car.column("year").get(c), carText(c, "vin"), (long) counts[c]);
+		return result;
+	}
+
+	/**
+	 * Report 10: fname, lname, c_id, total_bill of the ten customers with
+	 * the largest total bill.
+	 */
+	public QueryResult customersInDescendingOrderOfTotalBill(){
+		ColumnarSnapshot.Table cr = this._snapshot.table("closed_request"), sr = this._snapshot.table("service_request");
+		ColumnarSnapshot.Table customer = this._snapshot.table("customer");
+		IntBuffer crRid = cr.column("rid"), crBill = cr.column("bill"), srCustomer = sr.column("customer_id");
+		IntLongMap[] requests = index(sr.column("rid"), sr.rows);
+		IntLongMap totals = scan(cr.rows, (lo, hi) -> {
+			IntLongMap sums = new IntLongMap(1024);
+			for (int r = lo; r < hi; ++r){
+				int bill = crBill.get(r);
+				int request = (int) lookup(requests, crRid.get(r));
+				if (bill != ColumnarSnapshot.NULL_INT && request >= 0) sums.add(srCustomer.get(request), bill);
+			}//end for
+			return sums;
+		}, IntLongMap::merge);
+
+		IntBuffer ids = customer.column("id");
+		long[] total = new long[customer.rows];
+		for (int r = 0; r < customer.rows; ++r) total[r] = totals.get(ids.get(r), 0);
+		int[] top = top(10, customer.rows, r -> total[r]);
+		QueryResult result = QueryResult.empty(new String[] {"fname", "lname", "c_id", "total_bill"},
+			new char[] {QueryResult.TEXT, QueryResult.TEXT, QueryResult.INT, QueryResult.LONG});
+		for (int r : top)
+			result.addRow(customerText(r, "fname"), customerText(r, "lname"), ids.get(r), total[r]);
+		return result;
+	}
+
+	/**
+	 * Method to run a report by its ShopCommands name.
+	 *
+	 * @param k the k of top-cars
+	 * @throws IllegalArgumentException for an unknown name
+	 */
+	public QueryResult report(String name, int k){
+		switch (name){
+			case "bill-under-100": return customersWithBillLessThan100();
+			case "more-than-20-cars": return customersWithMoreThan20Cars();
+			case "cars-before-1995": return carsBefore1995With50000Miles();
+			case "top-cars": return kCarsWithTheMostServices(k);
+			case "total-bill": return customersInDescendingOrderOfTotalBill();
+			default: throw new IllegalArgumentException("unknown report: " + name);
+		}//end switch
+	}
+
+	/* ---------- helpers ---------- */
+
+	private String customerText(int row, String column){
+		return this._snapshot.dictionary("customer", column).get(this._snapshot.table("customer").column(column).get(row));
+	}
+
+	private String carText(int row, String column){
+		return this._snapshot.dictionary("car", column).get(this._snapshot.table("car").column(column).get(row));
+	}
+
+	private static Integer date(int day){
+		return day == ColumnarSnapshot.NULL_INT ? null : day;
+	}
+
+	interface Leaf<R>{
+		R scan(int lo, int hi);
+	}
+
+	interface Merge<R>{
+		R merge(R left, R right);
+	}
+
+	interface Score{
+		long of(int row);
+	}
+
+	/**
+	 * A scan of rows [lo, hi), split in halves until a range is at most
+	 * LEAF_ROWS.  The left half's result is merged with the right's, so
+	 * results keep row order.
+	 */
+	private static class Scan<R> extends RecursiveTask<R>{
+		private static final long serialVersionUID = 1L;
+		private final int _lo, _hi;
+		private final Leaf<R> _leaf;
+		private final Merge<R> _merge;
+
+		Scan(int lo, int hi, Leaf<R> leaf, Merge<R> merge){
+			this._lo = lo;
+			this._hi = hi;
+			this._leaf = leaf;
+			this._merge = merge;
+		}
+
+		protected R compute(){
+			if (this._hi - this._lo <= LEAF_ROWS) return this._leaf.scan(this._lo, this._hi);
+			int mid = (this._lo + this._hi) >>> 1;
+			Scan<R> left = new Scan<R>(this._lo, mid, this._leaf, this._merge);
+			left.fork();
+			R right = new Scan<R>(mid, this._hi, this._leaf, this._merge).compute();
+			return this._merge.merge(left.join(), right);
+		}
+	}
+
+	private <R> R scan(int rows, Leaf<R> leaf, Merge<R> merge){
+		return this._pool.invoke(new Scan<R>(0, rows, leaf, merge));
+	}
+
+	/**
+	 * Method to run task(0) .. task(n - 1) on the pool and wait for all of
+	 * them, for work split into one part per worker rather than per leaf.
+	 */
+	private void forEach(int n, IntConsumer task){
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(n);
+		for (int i = 0; i < n; ++i){
+			int part = i;
+			tasks.add(this._pool.submit(() -> task.accept(part)));
+		}//end for
+		for (ForkJoinTask<?> t : tasks) t.join();
+	}
+
+	/**
+	 * Method to build a hash index from key to row, one partition per task.
+	 * Keys are unique (primary keys); NULL keys are skipped.
+	 */
+	private IntLongMap[] index(IntBuffer keys, int rows){
+		int partitions = this._partitions;
+		List<RecursiveTask<IntLongMap>> tasks = new ArrayList<RecursiveTask<IntLongMap>>();
+		for (int p = 0; p < partitions; ++p){
+			int partition = p;
+			tasks.add(new RecursiveTask<IntLongMap>(){
+				protected IntLongMap compute(){
+					IntLongMap map = new IntLongMap(Math.max(16, rows / partitions));
+					for (int r = 0; r < rows; ++r){
+						int key = keys.get(r);
+						if (key != ColumnarSnapshot.NULL_INT && partition(key, partitions) == partition) map.put(key, r);
+					}//end for
+					return map;
+				}
+			});
+		}//end for
+		IntLongMap[] maps = new IntLongMap[partitions];
+		for (RecursiveTask<IntLongMap> task : tasks) this._pool.execute(task);
+		for (int p = 0; p < partitions; ++p) maps[p] = tasks.get(p).join();
+		return maps;
+	}
+
+	private static long lookup(IntLongMap[] index, int key){
+		return index[partition(key, index.length)].get(key, -1);
+	}
+
+	private static int partition(int key, int partitions){
+		//the high bits of the hash, so partitions and slots use different bits
+		return (int) ((IntLongMap.hash(key) >>> 16) & (partitions - 1));
+	}
+
+	/**
+	 * Method to pick the k rows with the highest positive scores, highest
+	 * first and ties by row.
+	 */
+	private static int[] top(int k, int rows, Score score){
+		//a min-heap of the best k so far
+		int[] heap = new int[Math.max(0, Math.min(k, rows))];
+		int size = 0;
+		for (int r = 0; r < rows; ++r){
+			long s = score.of(r);
+			if (s <= 0) continue;
+			if (size < heap.length){
+				heap[size] = r;
+				siftUp(heap, size++, score);
+			}
+			else if (heap.length > 0 && better(r, heap[0], score)){
+				heap[0] = r;
+				siftDown(heap, size, score);
+			}//end if
+		}//end for
+		Integer[] sorted = new Integer[size];
+		for (int i = 0; i < size; ++i) sorted[i] = heap[i];
+		Arrays.sort(sorted, (a, b) -> better(a, b, score) ? -1 : better(b, a, score) ? 1 : 0);
+		int[] out = new int[size];
+		for (int i = 0; i < size; ++i) out[i] = sorted[i];
+		return out;
+	}
+
+	private static boolean better(int a, int b, Score score){
+		long sa = score.of(a), sb = score.of(b);
+		return sa > sb || (sa == sb && a < b);
+	}
+
+	private static void siftUp(int[] heap, int i, Score score){
+		while (i > 0){
+			int parent = (i - 1) / 2;
+			if (!better(heap[parent], heap[i], score)) break;
+			int t = heap[parent]; heap[parent] = heap[i]; heap[i] = t;
+			i = parent;
+		}//end while
+	}
+
+	private static void siftDown(int[] heap, int size, Score score){
+		int i = 0;
+		while (true){
+			int worst = i, l = 2 * i + 1, r = l + 1;
+			if (l < size && better(heap[worst], heap[l], score)) worst = l;
+			if (r < size && better(heap[worst], heap[r], score)) worst = r;
+			if (worst == i) return;
+			int t = heap[worst]; heap[worst] = heap[i]; heap[i] = t;
+			i = worst;
+		}//end while
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	static class IntList{
+		private int[] _values = new int[16];
+		private int _size = 0;
+
+		void add(int v){
+			if (this._size == this._values.length) this._values = Arrays.copyOf(this._values, this._size * 2);
+			this._values[this._size++] = v;
+		}
+
+		int get(int i){ return this._values[i]; }
+		int size(){ return this._size; }
+
+		IntList addAll(IntList other){
+			if (this._size + other._size > this._values.length)
+				this._values = Arrays.copyOf(this._values, Math.max(this._size + other._size, this._values.length * 2));
+			System.arraycopy(other._values, 0, this._values, this._size, other._size);
+			this._size += other._size;
+			return this;
+		}
+	}
+
+	/**
+	 * An open-addressing hash map from int to long, for join indexes (key to
+	 * row) and aggregates (key to count or sum).  Not thread-safe; each task
+	 * fills its own.
+	 */
+	static class IntLongMap{
+		private static final int EMPTY = Integer.MIN_VALUE;
+		private int[] _keys;
+		private long[] _values;
+		private int _size = 0;
+
+		IntLongMap(int expected){
+			int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+			this._keys = new int[capacity];
+			this._values = new long[capacity];
+			Arrays.fill(this._keys, EMPTY);
+		}
+
+		static long hash(int key){
+			return (key * 0x9E3779B97F4A7C15L) >>> 16;
+		}
+
+		private int slot(int key){
+			int mask = this._keys.length - 1;
+			int i = (int) hash(key) & mask;
+			while (this._keys[i] != EMPTY && this._keys[i] != key) i = (i + 1) & mask;
+			return i;
+		}
+
+		long get(int key, long missing){
+			int i = slot(key);
+			return this._keys[i] == EMPTY ? missing : this._values[i];
+		}
+
+		void put(int key, long value){
+			int i = slot(key);
+			if (this._keys[i] == EMPTY){
+				this._keys[i] = key;
+				++this._size;
+			}//end if
+			this._values[i] = value;
+			if (this._size * 2 > this._keys.length) grow();
+		}
+
+		void add(int key, long delta){
+			int i = slot(key);
+			if (this._keys[i] == EMPTY){
+				this._keys[i] = key;
+				++this._size;
+			}//end if
+			this._values[i] += delta;
+			if (this._size * 2 > this._keys.length) grow();
+		}
+
+		/**
+		 * Method to add every entry of another map into the larger of the two.
+		 *
+		 * @return the merged map
+		 */
+		IntLongMap merge(IntLongMap other){
+			IntLongMap big = this._size >= other._size ? this : other, small = big == this ? other : this;
+			for (int i = 0; i < small._keys.length; ++i)
+				if (small._keys[i] != EMPTY) big.add(small._keys[i], small._values[i]);
+			return big;
+		}
+
+		private void grow(){
+			int[] keys = this._keys;
+			long[] values = this._values;
+			this._keys = new int[keys.length * 2];
+			this._values = new long[keys.length * 2];
+			Arrays.fill(this._keys, EMPTY);
+			this._size = 0;
+			for (int i = 0; i < keys.length; ++i)
+				if (keys[i] != EMPTY) put(keys[i], values[i]);
+		}
+	}
+
+	/**
+	 * The offline entry point: runs one report against a snapshot without
+	 * connecting to the database.
+	 *
+	 * @param args <snapshot dir> <report> [--k N] [--threads N]
+	 */
+	public static void main(String[] args){
+		if (args.length < 2){
+			System.err.println("Usage: java [-classpath <classpath>] " + SnapshotEngine.class.getName() +
+				" <snapshot dir> bill-under-100 | more-than-20-cars | cars-before-1995 | top-cars | total-bill [--k N] [--threads N]");
+			System.exit(2);
+		}//end if
+		int k = 10, threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 2; i < args.length; ++i){
+			switch (args[i]){
+				case "--k": k = Integer.parseInt(args[++i]); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(2);
+			}//end switch
+		}//end for
+		SnapshotEngine engine = null;
+		try{
+			engine = new SnapshotEngine(new ColumnarSnapshot(new File(args[0])), threads);
+			long start = System.nanoTime();
+			QueryResult result = engine.report(args[1], k);
+			long micros = (System.nanoTime() - start) / 1000;
+			MechanicShop.printResult(result);
+			System.err.println(result.getRowCount() + " rows in " + micros / 1000.0 + " ms (" + engine.getSnapshot().getExported() + ")");
+		}catch (IOException | IllegalArgumentException e){
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}finally{
+			if (engine != null) engine.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used set of PreparedStatements
+ * for one physical connection, keyed by their SQL text. Reusing the same
+ * statement lets the PostgreSQL driver switch to a named server-side statement
+ * so the query is parsed and planned once instead of on every call.
+ *
+ */
+
+public class StatementCache{
+	//default number of statements kept open per connection
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final Connection _connection;
+	private final int _capacity;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	public StatementCache(Connection connection, int capacity){
+		this._connection = connection;
+		this._capacity = capacity;
+		//access-ordered so the eldest entry is always the least recently used
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() <= _capacity) return false;
+				closeQuietly(eldest.getValue());
+				++_evictions;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached statement for the given SQL text, preparing and
+	 * caching a new one on a miss.
+	 *
+	 * @param sql the input SQL string, using '?' for bound parameters
+	 * @return an open PreparedStatement owned by this cache (do not close it)
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()){
+			++this._hits;
+			return stmt;
+		}//end if
+		++this._misses;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		return stmt;
+	}
+
+	public synchronized long getHits(){ return this._hits; }
+	public synchronized long getMisses(){ return this._misses; }
+	public synchronized long getEvictions(){ return this._evictions; }
+	public synchronized int size(){ return this._statements.size(); }
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void clear(){
+		for (PreparedStatement stmt : this._statements.values())
+			closeQuietly(stmt);
+		this._statements.clear();
+	}//end clear
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a Bloom filter over every VIN in the Car table, so that
+ * IsUniqueVIN can answer "definitely not there" without a query.  Only a
+ * VIN the filter may contain is confirmed against the database.
+ *
+ * The filter is sized from the number of cars when it is built, with room
+ * for the table to double at the target false positive rate, and every car
+ * insert adds its VIN.  A filter never forgets, so deleted cars only cost a
+ * confirming query.  Cars added by other processes are missing until the
+ * next build; their inserts fail on the primary key as before, and the
+ * VIN is then added (see ShopOperations.addCar()).
+ *
+ */
+
+public class VinFilter{
+	public static final String SCAN = "SELECT vin FROM Car;";
+	public static final String COUNT = "SELECT COUNT(*) FROM Car;";
+	public static final int SCAN_FETCH_SIZE = 10000;
+	//about 1% false positives at the expected size
+	public static final double FALSE_POSITIVE_RATE = 0.01;
+	private static final int MIN_EXPECTED = 1 << 16;
+
+	private final AtomicLongArray _bits;
+	private final long _numBits;
+	private final int _numHashes;
+
+	/**
+	 * @param expected the number of VINs the filter is sized for
+	 */
+	public VinFilter(long expected){
+		expected = Math.max(expected, MIN_EXPECTED);
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-expected * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+		//whole words, at most what an AtomicLongArray can index
+		int words = (int) Math.min((bits + 63) / 64, Integer.MAX_VALUE);
+		this._bits = new AtomicLongArray(words);
+		this._numBits = (long) words * 64;
+		this._numHashes = Math.max(1, (int) Math.round((double) this._numBits / expected * ln2));
+	}
+
+	/**
+	 * Method to build the filter from the Car table: one count to size it,
+	 * then one streamed scan of the VINs.
+	 *
+	 * @return the filled filter
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	public static VinFilter build(MechanicShop esql) throws SQLException {
+		long cars = esql.executeQueryAndReturnColumns(COUNT).getLong(0, 0);
+		VinFilter filter = new VinFilter(2 * cars);
+		ConnectionPool.PooledConnection pc = esql.getPool().borrow();
+		try{
+			//the driver only uses a cursor inside a transaction; the pool rolls it back on release
+			pc.connection.setAutoCommit(false);
+			PreparedStatement stmt = pc.statements.prepare(SCAN);
+			stmt.setFetchSize(SCAN_FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) filter.add(rs.getString(1));
+			rs.close();
+		}finally{
+			esql.getPool().release(pc);
+		}
+		return filter;
+	}
+
+	/**
+	 * Method to add a VIN.  Safe to call from several threads.
+	 */
+	public void add(String vin){
+		long h = hash(vin);
+		int h1 = (int) h, h2 = (int) (h >>> 32);
+		for (int i = 1; i <= this._numHashes; ++i){
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % this._numBits;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long old;
+			do {
+				old = this._bits.get(word);
+				if ((old & mask) != 0) break;
+			} while (!this._bits.compareAndSet(word, old, old | mask));
+		}//end for
+	}
+
+	/**
+	 * @return false when the VIN is certainly not in the Car table; true when it may be
+	 */
+	public boolean mightContain(String vin){
+		long h = hash(vin);
+		int h1 = (int) h, h2 = (int) (h >>> 32);
+		for (int i = 1; i <= this._numHashes; ++i){
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % this._numBits;
+			if ((this._bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+		}//end for
+		return true;
+	}
+
+	public long getNumBits(){ return this._numBits; }
+	public int getNumHashes(){ return this._numHashes; }
+
+	//64-bit FNV-1a over the UTF-8 bytes, finished with the splitmix64 mixer;
+	//the two halves drive the double hashing in add() and mightContain()
+	private static long hash(String vin){
+		long h = 0xcbf29ce484222325L;
+		for (byte b : vin.getBytes(StandardCharsets.UTF_8)){
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}//end for
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+}
@@ -9,4 +9,4 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT -v partition_period=${PARTITION_PERIOD:-year} $USER"_DB" < ../sql/create.sql
\ No newline at end of file
@@ -4,6 +4,13 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Customer_Summary CASCADE;--OK
+DROP TABLE IF EXISTS Request_Partitioning CASCADE;--OK
+DROP SEQUENCE IF EXISTS customer_id_seq;--OK
+DROP SEQUENCE IF EXISTS mechanic_id_seq;--OK
+DROP SEQUENCE IF EXISTS owns_ownership_id_seq;--OK
+DROP SEQUENCE IF EXISTS service_request_rid_seq;--OK
+DROP SEQUENCE IF EXISTS closed_request_wid_seq;--OK
 
 
 -------------
@@ -61,6 +68,9 @@ CREATE TABLE Owns
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
 );
 
+-- The request tables are range partitioned by date (see PARTITIONS below),
+-- so their primary keys include the date.  rid and wid stay unique because
+-- every id comes from its sequence.
 CREATE TABLE Service_Request
 (
 	rid INTEGER NOT NULL,
@@ -69,11 +79,14 @@ CREATE TABLE Service_Request
 	date DATE NOT NULL,
 	odometer _PINTEGER NOT NULL,
 	complain TEXT,
-	PRIMARY KEY (rid),
+	PRIMARY KEY (rid, date),
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
-);
+) PARTITION BY RANGE (date);
 
+-- A foreign key must reference a unique key that includes the partition key,
+-- so Closed_Request.rid is checked by the closed_request_rid and
+-- service_request_closings triggers below.
 CREATE TABLE Closed_Request
 (
 	wid INTEGER NOT NULL,
@@ -82,10 +95,140 @@ CREATE TABLE Closed_Request
 	date DATE NOT NULL,
 	comment TEXT,
 	bill _PINTEGER NOT NULL,
-	PRIMARY KEY (wid),
-	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	PRIMARY KEY (wid, date),
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+) PARTITION BY RANGE (date);
+
+----------------
+---PARTITIONS---
+----------------
+-- One partition per month or per year of request dates, chosen when this
+-- script runs:  psql -v partition_period=month ... < create.sql  (default year).
+-- ensure_request_partitions() creates the partitions of the current period
+-- and the next p_ahead periods; the application calls it at startup and
+-- every few hours (see PartitionManager.java).  Rows dated outside every
+-- partition go to the DEFAULT partitions, and the next call moves them into
+-- partitions of their own.
+\if :{?partition_period}
+\else
+\set partition_period year
+\endif
+CREATE TABLE Request_Partitioning
+(
+	period TEXT NOT NULL CHECK (period IN ('month', 'year'))
 );
+INSERT INTO Request_Partitioning (period) VALUES (:'partition_period');
+
+CREATE TABLE Service_Request_Default PARTITION OF Service_Request DEFAULT;
+CREATE TABLE Closed_Request_Default PARTITION OF Closed_Request DEFAULT;
+
+-- Creates the partition of p_table (service_request or closed_request) for
+-- the period containing p_day, e.g. service_request_2024 or
+-- service_request_2024_05, unless it exists.  Rows of that period already in
+-- the default partition are moved into it.  The Service_Request triggers
+-- skip the move while mechanicshop.moving_requests is on; the Closed_Request
+-- ones fire in pairs on the delete and the re-insert, so Customer_Summary
+-- does not change.
+CREATE OR REPLACE FUNCTION create_request_partition(p_table TEXT, p_day DATE) RETURNS BOOLEAN AS $$
+DECLARE
+	v_period TEXT := (SELECT period FROM Request_Partitioning);
+	v_from DATE := CAST(date_trunc(v_period, p_day) AS DATE);
+	v_to DATE := CAST(v_from + CAST('1 ' || v_period AS INTERVAL) AS DATE);
+	v_name TEXT := p_table || '_' || to_char(v_from, CASE v_period WHEN 'month' THEN 'YYYY_MM' ELSE 'YYYY' END);
+	v_stray BOOLEAN;
+BEGIN
+	IF to_regclass(v_name) IS NOT NULL THEN
+		RETURN false;
+	END IF;
+	EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE date >= %L AND date < %L)', p_table || '_default', v_from, v_to) INTO v_stray;
+	IF v_stray THEN
+		PERFORM set_config('mechanicshop.moving_requests', 'on', true);
+		EXECUTE format('CREATE TEMP TABLE request_partition_moved (LIKE %I)', p_table);
+		EXECUTE format('WITH moved AS (DELETE FROM %I WHERE date >= %L AND date < %L RETURNING *) INSERT INTO request_partition_moved SELECT * FROM moved',
+			p_table || '_default', v_from, v_to);
+	END IF;
+	EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)', v_name, p_table, v_from, v_to);
+	IF v_stray THEN
+		EXECUTE format('INSERT INTO %I SELECT * FROM request_partition_moved', p_table);
+		DROP TABLE request_partition_moved;
+		PERFORM set_config('mechanicshop.moving_requests', 'off', true);
+	END IF;
+	RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the missing partitions of both request tables: one for every
+-- period with rows in a default partition, then the current period and the
+-- next p_ahead.  Returns how many it created.
+CREATE OR REPLACE FUNCTION ensure_request_partitions(p_ahead INTEGER) RETURNS INTEGER AS $$
+DECLARE
+	v_period TEXT := (SELECT period FROM Request_Partitioning);
+	v_table TEXT;
+	v_days DATE[];
+	v_day DATE;
+	v_created INTEGER := 0;
+BEGIN
+	-- one caller at a time, so two clients never create the same partition
+	PERFORM pg_advisory_xact_lock(hashtext('ensure_request_partitions'));
+	-- Service_Request first, so a moved Closed_Request row finds its request
+	FOREACH v_table IN ARRAY ARRAY['service_request', 'closed_request'] LOOP
+		-- read in full first: the default partition cannot change under an open cursor
+		EXECUTE format('SELECT array_agg(DISTINCT CAST(date_trunc(%L, date) AS DATE)) FROM %I', v_period, v_table || '_default') INTO v_days;
+		FOREACH v_day IN ARRAY COALESCE(v_days, '{}') LOOP
+			IF create_request_partition(v_table, v_day) THEN
+				v_created := v_created + 1;
+			END IF;
+		END LOOP;
+		FOR i IN 0 .. p_ahead LOOP
+			IF create_request_partition(v_table, CAST(current_date + CAST(i || ' ' || v_period AS INTERVAL) AS DATE)) THEN
+				v_created := v_created + 1;
+			END IF;
+		END LOOP;
+	END LOOP;
+	RETURN v_created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The foreign key Closed_Request.rid -> Service_Request.rid.  A request is
+-- never dated after its closing, so only partitions up to the closing date
+-- are searched.
+CREATE OR REPLACE FUNCTION closed_request_rid() RETURNS trigger AS $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = NEW.rid AND date <= NEW.date) THEN
+		RAISE EXCEPTION 'insert or update on table "closed_request" violates foreign key: request % does not exist on or before %', NEW.rid, NEW.date
+			USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The other side of that foreign key: a request may not be deleted, renumbered
+-- or dated after a closing while the closing still refers to it.  Rows moved
+-- by create_request_partition are skipped, their closings stay valid.
+CREATE OR REPLACE FUNCTION service_request_closings() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('mechanicshop.moving_requests', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF EXISTS (SELECT 1 FROM Closed_Request c WHERE c.rid = OLD.rid
+			AND NOT EXISTS (SELECT 1 FROM Service_Request s WHERE s.rid = c.rid AND s.date <= c.date)) THEN
+		RAISE EXCEPTION 'update or delete on table "service_request" violates foreign key: request % is still referenced from table "closed_request"', OLD.rid
+			USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+---------------
+---SEQUENCES---
+---------------
+-- The application reserves ids in blocks: each nextval() hands one client the
+-- next 50 ids, so INCREMENT BY must match IdAllocator.BLOCK_SIZE.
+CREATE SEQUENCE customer_id_seq MINVALUE 0 START 0 INCREMENT BY 50;
+CREATE SEQUENCE mechanic_id_seq MINVALUE 0 START 0 INCREMENT BY 50;
+CREATE SEQUENCE owns_ownership_id_seq MINVALUE 0 START 0 INCREMENT BY 50;
+CREATE SEQUENCE service_request_rid_seq MINVALUE 0 START 0 INCREMENT BY 50;
+CREATE SEQUENCE closed_request_wid_seq MINVALUE 0 START 0 INCREMENT BY 50;
 
 ----------------------------
 -- INSERT DATA STATEMENTS --
@@ -147,4 +290,193 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+-- the COPYs above filled the default partitions; this splits them by period
+SELECT ensure_request_partitions(3);
+
+---------------
+---SUMMARIES---
+---------------
+-- Per-customer aggregates for reports 7 and 10, kept up to date by the
+-- triggers below in the same transaction as each Owns, Service_Request and
+-- Closed_Request change.  rebuild_customer_summary() recomputes them from
+-- scratch (the one-time backfill here, and after a bulk load, which runs
+-- with these triggers disabled).
+CREATE TABLE Customer_Summary
+(
+	customer_id INTEGER NOT NULL,
+	cars_owned INTEGER NOT NULL DEFAULT 0,
+	request_count INTEGER NOT NULL DEFAULT 0,
+	total_bill BIGINT NOT NULL DEFAULT 0,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id) ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION rebuild_customer_summary() RETURNS void AS $$
+BEGIN
+	TRUNCATE Customer_Summary;
+	INSERT INTO Customer_Summary (customer_id, cars_owned, request_count, total_bill)
+	SELECT C.id, COALESCE(O.cars, 0), COALESCE(S.requests, 0), COALESCE(B.bill, 0)
+	FROM Customer C
+		LEFT JOIN (SELECT customer_id, COUNT(*) AS cars FROM Owns GROUP BY customer_id) O ON O.customer_id = C.id
+		LEFT JOIN (SELECT customer_id, COUNT(*) AS requests FROM Service_Request GROUP BY customer_id) S ON S.customer_id = C.id
+		LEFT JOIN (SELECT SR.customer_id, SUM(CR.bill) AS bill
+		           FROM Closed_Request CR JOIN Service_Request SR ON SR.rid = CR.rid
+		           GROUP BY SR.customer_id) B ON B.customer_id = C.id;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION customer_summary_customer() RETURNS trigger AS $$
+BEGIN
+	INSERT INTO Customer_Summary (customer_id) VALUES (NEW.id);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION customer_summary_owns() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Customer_Summary SET cars_owned = cars_owned - 1 WHERE customer_id = OLD.customer_id;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		UPDATE Customer_Summary SET cars_owned = cars_owned + 1 WHERE customer_id = NEW.customer_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION customer_summary_service_request() RETURNS trigger AS $$
+DECLARE
+	billed BIGINT := 0;
+BEGIN
+	-- a request moved between partitions stays with its customer
+	IF current_setting('mechanicshop.moving_requests', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	-- a request moved to another customer or deleted takes its closed bills with it
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		SELECT COALESCE(SUM(bill), 0) INTO billed FROM Closed_Request WHERE rid = OLD.rid;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Customer_Summary SET request_count = request_count - 1, total_bill = total_bill - billed WHERE customer_id = OLD.customer_id;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		UPDATE Customer_Summary SET request_count = request_count + 1, total_bill = total_bill + billed WHERE customer_id = NEW.customer_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION customer_summary_closed_request() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Customer_Summary SET total_bill = total_bill - OLD.bill
+		WHERE customer_id = (SELECT customer_id FROM Service_Request WHERE rid = OLD.rid);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		UPDATE Customer_Summary SET total_bill = total_bill + NEW.bill
+		WHERE customer_id = (SELECT customer_id FROM Service_Request WHERE rid = NEW.rid);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT rebuild_customer_summary();
+
+CREATE TRIGGER customer_summary_customer AFTER INSERT ON Customer
+	FOR EACH ROW EXECUTE PROCEDURE customer_summary_customer();
+CREATE TRIGGER customer_summary_owns AFTER INSERT OR DELETE OR UPDATE OF customer_id ON Owns
+	FOR EACH ROW EXECUTE PROCEDURE customer_summary_owns();
+CREATE TRIGGER customer_summary_service_request AFTER INSERT OR DELETE OR UPDATE OF customer_id ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE customer_summary_service_request();
+CREATE TRIGGER customer_summary_closed_request AFTER INSERT OR DELETE OR UPDATE OF rid, bill ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE customer_summary_closed_request();
+CREATE TRIGGER closed_request_rid AFTER INSERT OR UPDATE OF rid, date ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE closed_request_rid();
+CREATE TRIGGER service_request_closings AFTER DELETE OR UPDATE OF rid, date ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE service_request_closings();
+
+-- report 7 reads the few customers over 20 cars, report 10 the top of total_bill
+CREATE INDEX customer_summary_cars_owned_idx ON Customer_Summary (cars_owned);
+CREATE INDEX customer_summary_total_bill_idx ON Customer_Summary (total_bill);
+
+---------------------
+---COMPOUND WRITES---
+---------------------
+-- Menu operations that insert into several tables call one of these, so the
+-- whole operation is a single round trip and a single transaction: a failure
+-- in any insert (e.g. a duplicate VIN) leaves nothing behind.  The ids come
+-- from the application (see IdAllocator) and are returned as given.  The
+-- inserts run in order, so the Customer_Summary triggers always find the
+-- customer's row.
+CREATE OR REPLACE FUNCTION add_car_for_customer(p_ownership_id INTEGER, p_customer_id INTEGER,
+	p_vin TEXT, p_make TEXT, p_model TEXT, p_year INTEGER) RETURNS INTEGER AS $$
+BEGIN
+	INSERT INTO Car (vin, make, model, year) VALUES (p_vin, p_make, p_model, p_year);
+	INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (p_ownership_id, p_customer_id, p_vin);
+	RETURN p_ownership_id;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION add_customer_with_car(p_customer_id INTEGER, p_fname TEXT, p_lname TEXT, p_phone TEXT, p_address TEXT,
+	p_ownership_id INTEGER, p_vin TEXT, p_make TEXT, p_model TEXT, p_year INTEGER) RETURNS INTEGER AS $$
+BEGIN
+	INSERT INTO Customer (id, fname, lname, phone, address) VALUES (p_customer_id, p_fname, p_lname, p_phone, p_address);
+	PERFORM add_car_for_customer(p_ownership_id, p_customer_id, p_vin, p_make, p_model, p_year);
+	RETURN p_customer_id;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION open_request_for_new_car(p_rid INTEGER, p_customer_id INTEGER,
+	p_ownership_id INTEGER, p_vin TEXT, p_make TEXT, p_model TEXT, p_year INTEGER,
+	p_date TEXT, p_odometer INTEGER, p_complain TEXT) RETURNS INTEGER AS $$
+BEGIN
+	PERFORM add_car_for_customer(p_ownership_id, p_customer_id, p_vin, p_make, p_model, p_year);
+	INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+	VALUES (p_rid, p_customer_id, p_vin, CAST(p_date AS DATE), p_odometer, p_complain);
+	RETURN p_rid;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION open_request_for_new_customer(p_rid INTEGER,
+	p_customer_id INTEGER, p_fname TEXT, p_lname TEXT, p_phone TEXT, p_address TEXT,
+	p_ownership_id INTEGER, p_vin TEXT, p_make TEXT, p_model TEXT, p_year INTEGER,
+	p_date TEXT, p_odometer INTEGER, p_complain TEXT) RETURNS INTEGER AS $$
+BEGIN
+	PERFORM add_customer_with_car(p_customer_id, p_fname, p_lname, p_phone, p_address, p_ownership_id, p_vin, p_make, p_model, p_year);
+	INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+	VALUES (p_rid, p_customer_id, p_vin, CAST(p_date AS DATE), p_odometer, p_complain);
+	RETURN p_rid;
+END;
+$$ LANGUAGE plpgsql;
+
+-------------
+---INDEXES---
+-------------
+-- Built after the COPYs so the load does not maintain them row by row.
+-- Customer lookups by name (AddCar, InsertServiceRequest); id completes the keyset of PrintCustomerList
+CREATE INDEX customer_lname_fname_id_idx ON Customer (lname, fname, id);
+-- the keyset of PrintMechanicList
+CREATE INDEX mechanic_lname_fname_id_idx ON Mechanic (lname, fname, id);
+-- cars of a customer (InsertServiceRequest) and cars per customer (report 7); car_vin makes it covering
+CREATE INDEX owns_customer_id_idx ON Owns (customer_id, car_vin);
+-- requests per car (reports 8 and 9); odometer makes report 8 index-only
+CREATE INDEX service_request_car_vin_idx ON Service_Request (car_vin, odometer);
+-- requests per customer (reports 6 and 10)
+CREATE INDEX service_request_customer_id_idx ON Service_Request (customer_id);
+-- the open-request check in CloseServiceRequest and the bill joins (reports 6 and 10); bill makes them index-only
+CREATE INDEX closed_request_rid_idx ON Closed_Request (rid, bill);
+-- the date windows of the bounded reports within a partition; request dates follow insertion order, so BRIN stays small and selective
+CREATE INDEX service_request_date_brin_idx ON Service_Request USING brin (date);
+CREATE INDEX closed_request_date_brin_idx ON Closed_Request USING brin (date);
+ANALYZE;
+
+------------------------------------
+-- SEED SEQUENCES FROM LOADED DATA --
+------------------------------------
+SELECT setval('customer_id_seq', COALESCE((SELECT MAX(id) FROM Customer) + 1, 0), false);
+SELECT setval('mechanic_id_seq', COALESCE((SELECT MAX(id) FROM Mechanic) + 1, 0), false);
+SELECT setval('owns_ownership_id_seq', COALESCE((SELECT MAX(ownership_id) FROM Owns) + 1, 0), false);
+SELECT setval('service_request_rid_seq', COALESCE((SELECT MAX(rid) FROM Service_Request) + 1, 0), false);
+SELECT setval('closed_request_wid_seq', COALESCE((SELECT MAX(wid) FROM Closed_Request) + 1, 0), false);